@@ -1,22 +1,34 @@
 package org.ihtsdo.otf.traceabilityservice;
 
+import org.ihtsdo.otf.traceabilityservice.domain.Activity;
 import org.ihtsdo.otf.traceabilityservice.repository.ActivityRepository;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.dao.DataAccessResourceFailureException;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
 import org.springframework.stereotype.Component;
 
 @Component
 public class StartupListener implements CommandLineRunner {
     private final ActivityRepository activityRepository;
+    private final ElasticsearchOperations elasticsearchOperations;
 
-    public StartupListener(ActivityRepository activityRepository) {
+    public StartupListener(ActivityRepository activityRepository, ElasticsearchOperations elasticsearchOperations) {
         this.activityRepository = activityRepository;
+        this.elasticsearchOperations = elasticsearchOperations;
     }
 
     @Override
     public void run(String... args) {
         checkElasticsearchConnection();
+        updateMapping();
+    }
+
+    /**
+     * Adds mapping for any new fields to the existing index, otherwise they would be mapped dynamically on first use.
+     */
+    public void updateMapping() {
+        elasticsearchOperations.indexOps(Activity.class).putMapping();
     }
 
     public void checkElasticsearchConnection() {
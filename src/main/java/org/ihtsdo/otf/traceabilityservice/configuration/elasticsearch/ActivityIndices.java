@@ -0,0 +1,223 @@
+package org.ihtsdo.otf.traceabilityservice.configuration.elasticsearch;
+
+import jakarta.annotation.PostConstruct;
+import org.ihtsdo.otf.traceabilityservice.domain.Activity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.IndexOperations;
+import org.springframework.data.elasticsearch.core.index.AliasAction;
+import org.springframework.data.elasticsearch.core.index.AliasActionParameters;
+import org.springframework.data.elasticsearch.core.index.AliasActions;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.data.elasticsearch.core.query.BaseQuery;
+import org.springframework.data.elasticsearch.core.query.IndicesOptions;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.*;
+
+/**
+ * Layout of the activity indices. By default all activities are in one index.
+ * <p>
+ * When partitioned, activities are written to one index per quarter of their commit date, named like activity-2024q1, behind an alias with the name
+ * the single index would have. Searches without a commit date range use the alias, searches with a range only use the partitions overlapping it.
+ * The commit date of an activity never changes so it is always written to the same partition.
+ * Partitions are created when first written to and old partitions can be deleted to drop old history.
+ * <p>
+ * Activities can also be routed to shards by code system, see {@link #getRouting(String)}.
+ */
+@Component
+public class ActivityIndices {
+
+    // Searches over more partitions than this use the alias
+    private static final int MAX_SEARCH_PARTITIONS = 100;
+
+    // How long the earliest partition is remembered before it is read again, other instances may have created earlier partitions
+    private static final long EARLIEST_PARTITION_TTL_MILLIS = 60_000;
+
+    private final ElasticsearchOperations elasticsearchOperations;
+    private final String alias;
+    private final boolean partitioned;
+    private final boolean routed;
+
+    private final Set<String> createdPartitions = Collections.synchronizedSet(new HashSet<>());
+    private volatile long earliestPartitionStart = Long.MAX_VALUE;
+    private volatile long earliestPartitionRead;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    public ActivityIndices(ElasticsearchOperations elasticsearchOperations, IndexNameProvider indexNameProvider,
+                           @Value("${traceability.activities.partitioned}") boolean partitioned,
+                           @Value("${traceability.activities.routing}") boolean routed) {
+        this.elasticsearchOperations = elasticsearchOperations;
+        this.alias = indexNameProvider.getIndexNameWithPrefix("activity");
+        this.partitioned = partitioned;
+        this.routed = routed;
+    }
+
+    public boolean isPartitioned() {
+        return partitioned;
+    }
+
+    public boolean isRouted() {
+        return routed;
+    }
+
+    /**
+     * Activities are routed by the code system of their branch so that searches within one code system only read one shard.
+     * Rebases, promotions and reports stay within a code system, searches for a branch or the changes promoted to it can be routed.
+     * @param branchPath branch of the activity, or the branch a search is limited to
+     * @return routing for the branch, null when activities are not routed
+     */
+    public String getRouting(String branchPath) {
+        return routed ? Activity.getCodeSystemName(branchPath) : null;
+    }
+
+    /**
+     * Creates the activity index if it does not exist, or when partitioned the partition of the current quarter so that the alias exists.
+     * Done when the application starts, before the repository is used.
+     */
+    @PostConstruct
+    public void createIndices() {
+        final IndexOperations indexOps = elasticsearchOperations.indexOps(IndexCoordinates.of(alias));
+        if (!partitioned) {
+            if (!indexOps.exists()) {
+                logger.info("Creating index {}", alias);
+                indexOps.createWithMapping();
+            }
+            return;
+        }
+        // Aliases are resolved to their indices, only a concrete index is listed under its own name
+        if (indexOps.exists() && indexOps.getAliasesForIndex(alias).containsKey(alias)) {
+            throw new IllegalStateException(String.format("Index %s is not partitioned. " +
+                    "Reindex the activities into partitions or set traceability.activities.partitioned=false.", alias));
+        }
+        getWriteIndex(new Date());
+        readEarliestPartition();
+    }
+
+    /**
+     * @return the alias, or the index when not partitioned
+     */
+    public IndexCoordinates getIndex() {
+        return IndexCoordinates.of(alias);
+    }
+
+    /**
+     * @param commitDate commit date of the activity
+     * @return index holding the activity, it may not exist yet when partitioned
+     */
+    public IndexCoordinates getIndex(Date commitDate) {
+        return partitioned ? IndexCoordinates.of(getPartitionName(commitDate.getTime())) : IndexCoordinates.of(alias);
+    }
+
+    /**
+     * @param commitDate commit date of the activity
+     * @return index to write the activity to, created if it does not exist
+     */
+    public IndexCoordinates getWriteIndex(Date commitDate) {
+        final IndexCoordinates index = getIndex(commitDate);
+        if (partitioned && !createdPartitions.contains(index.getIndexName())) {
+            createPartition(index.getIndexName(), getPartitionStart(commitDate.getTime()));
+        }
+        return index;
+    }
+
+    /**
+     * Index to search for activities committed in a range. When partitioned the query is set to ignore partitions in the range which do not exist.
+     * The query must still filter by commit date, a partition may hold activities outside the range.
+     * @param query the search, not using a point in time
+     * @param fromCommitDate start of the range or null
+     * @param toCommitDate end of the range or null, an open range ends in the quarter after the current one
+     * @return partitions overlapping the range, or the alias
+     */
+    public IndexCoordinates getSearchIndex(BaseQuery query, Long fromCommitDate, Long toCommitDate) {
+        if (!partitioned || (fromCommitDate == null && toCommitDate == null)) {
+            return IndexCoordinates.of(alias);
+        }
+        final long from = fromCommitDate != null ? fromCommitDate : getEarliestPartitionStart();
+        if (from == Long.MAX_VALUE) {
+            // No partitions yet
+            return IndexCoordinates.of(alias);
+        }
+        final long to = toCommitDate != null ? toCommitDate : nextQuarter(getPartitionStart(System.currentTimeMillis()));
+        final List<String> partitions = new ArrayList<>();
+        for (long start = getPartitionStart(from); start <= to && partitions.size() <= MAX_SEARCH_PARTITIONS; start = nextQuarter(start)) {
+            partitions.add(getPartitionName(start));
+        }
+        if (partitions.isEmpty() || partitions.size() > MAX_SEARCH_PARTITIONS) {
+            return IndexCoordinates.of(alias);
+        }
+        query.setIndicesOptions(IndicesOptions.LENIENT_EXPAND_OPEN);
+        return IndexCoordinates.of(partitions.toArray(new String[0]));
+    }
+
+    String getPartitionName(long commitDate) {
+        return alias + "-" + getPartitionSuffix(commitDate);
+    }
+
+    static String getPartitionSuffix(long time) {
+        final ZonedDateTime date = Instant.ofEpochMilli(time).atZone(ZoneOffset.UTC);
+        return date.getYear() + "q" + ((date.getMonthValue() - 1) / 3 + 1);
+    }
+
+    static long getPartitionStart(long time) {
+        final ZonedDateTime date = Instant.ofEpochMilli(time).atZone(ZoneOffset.UTC);
+        return ZonedDateTime.of(date.getYear(), ((date.getMonthValue() - 1) / 3) * 3 + 1, 1, 0, 0, 0, 0, ZoneOffset.UTC).toInstant().toEpochMilli();
+    }
+
+    private static long nextQuarter(long partitionStart) {
+        return Instant.ofEpochMilli(partitionStart).atZone(ZoneOffset.UTC).plusMonths(3).toInstant().toEpochMilli();
+    }
+
+    private synchronized void createPartition(String partition, long partitionStart) {
+        if (createdPartitions.contains(partition)) {
+            return;
+        }
+        final IndexOperations indexOps = elasticsearchOperations.indexOps(IndexCoordinates.of(partition));
+        if (!indexOps.exists()) {
+            logger.info("Creating activity partition {}", partition);
+            try {
+                indexOps.create(indexOps.createSettings(Activity.class), indexOps.createMapping(Activity.class));
+            } catch (RuntimeException e) {
+                // Another instance may have created it first
+                if (!indexOps.exists()) {
+                    throw e;
+                }
+            }
+        }
+        // Adding an alias the partition already has does nothing
+        indexOps.alias(new AliasActions(new AliasAction.Add(AliasActionParameters.builder().withIndices(partition).withAliases(alias).build())));
+        createdPartitions.add(partition);
+        earliestPartitionStart = Math.min(earliestPartitionStart, partitionStart);
+    }
+
+    private long getEarliestPartitionStart() {
+        if (System.currentTimeMillis() - earliestPartitionRead > EARLIEST_PARTITION_TTL_MILLIS) {
+            readEarliestPartition();
+        }
+        return earliestPartitionStart;
+    }
+
+    private void readEarliestPartition() {
+        final String prefix = alias + "-";
+        long earliest = earliestPartitionStart;
+        for (String partition : elasticsearchOperations.indexOps(IndexCoordinates.of(alias)).getAliasesForIndex(alias).keySet()) {
+            if (partition.startsWith(prefix)) {
+                final String suffix = partition.substring(prefix.length());
+                final int q = suffix.indexOf('q');
+                if (q > 0) {
+                    final int year = Integer.parseInt(suffix.substring(0, q));
+                    final int quarter = Integer.parseInt(suffix.substring(q + 1));
+                    earliest = Math.min(earliest, ZonedDateTime.of(year, (quarter - 1) * 3 + 1, 1, 0, 0, 0, 0, ZoneOffset.UTC).toInstant().toEpochMilli());
+                }
+            }
+        }
+        earliestPartitionStart = earliest;
+        earliestPartitionRead = System.currentTimeMillis();
+    }
+}
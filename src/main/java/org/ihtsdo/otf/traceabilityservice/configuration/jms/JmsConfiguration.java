@@ -3,6 +3,7 @@ package org.ihtsdo.otf.traceabilityservice.configuration.jms;
 import jakarta.jms.ConnectionFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.jms.DefaultJmsListenerContainerFactoryConfigurer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -13,10 +14,13 @@ public class JmsConfiguration {
     private static final Logger LOGGER = LoggerFactory.getLogger(JmsConfiguration.class);
 
     @Bean
-    public DefaultJmsListenerContainerFactory jmsListenerContainerFactory(ConnectionFactory connectionFactory, DefaultJmsListenerContainerFactoryConfigurer configurer) {
+    public DefaultJmsListenerContainerFactory jmsListenerContainerFactory(ConnectionFactory connectionFactory, DefaultJmsListenerContainerFactoryConfigurer configurer,
+            @Value("${traceability.ingestion.batch.enabled}") boolean batchIngestion) {
         DefaultJmsListenerContainerFactory factory = new DefaultJmsListenerContainerFactory();
         factory.setErrorHandler(t -> LOGGER.error("Failed to consume message.", t));
         configurer.configure(factory, connectionFactory);
+        // The queue is read by ActivityBatchConsumer when batch ingestion is enabled
+        factory.setAutoStartup(!batchIngestion);
         return factory;
     }
 }
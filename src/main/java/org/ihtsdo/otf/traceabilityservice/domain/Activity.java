@@ -1,19 +1,25 @@
 package org.ihtsdo.otf.traceabilityservice.domain;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.elasticsearch.annotations.Document;
 import org.springframework.data.elasticsearch.annotations.Field;
 import org.springframework.data.elasticsearch.annotations.FieldType;
 
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
-@Document(indexName = "#{@indexNameProvider.getIndexNameWithPrefix('activity')}")
+// The index, or alias of partitions, is created by ActivityIndices
+@Document(indexName = "#{@indexNameProvider.getIndexNameWithPrefix('activity')}", createIndex = false)
 public class Activity {
 
 	public static class Fields {
 		private Fields() {}
 		public static final String USERNAME = "username";
 		public static final String BRANCH = "branch";
+		public static final String CODE_SYSTEM = "codeSystem";
+		public static final String PROJECT = "project";
+		public static final String ANCESTOR_BRANCHES = "ancestorBranches";
 		public static final String SOURCE_BRANCH = "sourceBranch";
 		public static final String HIGHEST_PROMOTED_BRANCH = "highestPromotedBranch";
 		public static final String COMMIT_DATE = "commitDate";
@@ -25,8 +31,11 @@ public class Activity {
 		public static final String CONCEPT_CHANGES_COMPONENT_CHANGES = "conceptChanges.componentChanges";
 		public static final String COMPONENT_CHANGES_COMPONENT_ID = "conceptChanges.componentChanges.componentId";
 		public static final String COMPONENT_CHANGES_COMPONENT_SUB_TYPE = "conceptChanges.componentChanges.componentSubType";
+		public static final String PARENT_ID = "parentId";
 	}
 
+	public static final String INTERNATIONAL_CODE_SYSTEM = "SNOMEDCT";
+
 	@Id
 	@Field(type = FieldType.Keyword)
 	private String id;
@@ -40,6 +49,16 @@ public class Activity {
 	@Field(type = FieldType.Integer)
 	private int branchDepth;
 
+	// Derived from the branch path so that code system, project and descendant filters are term queries. Stored but not part of the API.
+	@Field(type = FieldType.Keyword)
+	private String codeSystem;
+
+	@Field(type = FieldType.Keyword)
+	private String project;
+
+	@Field(type = FieldType.Keyword)
+	private List<String> ancestorBranches;
+
 	@Field(type = FieldType.Keyword)
 	private String sourceBranch;
 
@@ -58,6 +77,10 @@ public class Activity {
 	@Field(type = FieldType.Object)
 	private Set<ConceptChange> conceptChanges;
 
+	// Set on chunk documents which hold some of the concept changes of a very large activity
+	@Field(type = FieldType.Keyword)
+	private String parentId;
+
 	public Activity() {
 		this.conceptChanges = new HashSet<>();
 	}
@@ -67,6 +90,7 @@ public class Activity {
 		this.username = username;
 		this.branch = branchPath;
 		this.branchDepth = getBranchDepth(branchPath);
+		setBranchPathFields();
 		this.sourceBranch = sourceBranch;
 		this.commitDate = commitTimestamp;
 		this.activityType = activityType;
@@ -74,6 +98,15 @@ public class Activity {
 		this.promotionDate = this.commitDate;
 	}
 
+	/**
+	 * Activities are identified by branch and commit date, see equals and hashCode.
+	 * The document id is derived from these so that writing the same activity again does not create a duplicate.
+	 * @return deterministic id for the activity
+	 */
+	public static String createId(String branchPath, Date commitTimestamp) {
+		return UUID.nameUUIDFromBytes((branchPath + "|" + commitTimestamp.getTime()).getBytes(StandardCharsets.UTF_8)).toString();
+	}
+
 	// Get branch depth relative to code system, relies on "SNOMEDCT-XX" code system naming convention.
 	static int getBranchDepth(String branchPath) {
 		branchPath = branchPath.replace("MAIN", "SNOMEDCT");
@@ -81,6 +114,56 @@ public class Activity {
 		return branchPath.split("/").length;
 	}
 
+	/**
+	 * Sets the fields derived from the branch path. Activities stored before these fields existed are updated by the migration tool.
+	 */
+	public void setBranchPathFields() {
+		final String[] names = branch.split("/");
+		final int codeSystemIndex = getCodeSystemIndex(names);
+		codeSystem = codeSystemIndex == 0 ? INTERNATIONAL_CODE_SYSTEM : names[codeSystemIndex];
+		project = codeSystemIndex + 1 < names.length ? String.join("/", Arrays.asList(names).subList(0, codeSystemIndex + 2)) : null;
+		ancestorBranches = new ArrayList<>();
+		for (int i = 1; i < names.length; i++) {
+			ancestorBranches.add(String.join("/", Arrays.asList(names).subList(0, i)));
+		}
+	}
+
+	/**
+	 * @param branchPath branch path
+	 * @return short name of the lowest code system in the branch path, as stored in the codeSystem field
+	 */
+	public static String getCodeSystemName(String branchPath) {
+		final String[] names = branchPath.split("/");
+		final int codeSystemIndex = getCodeSystemIndex(names);
+		return codeSystemIndex == 0 ? INTERNATIONAL_CODE_SYSTEM : names[codeSystemIndex];
+	}
+
+	// Index of the lowest code system in the branch path names, relies on "SNOMEDCT-XX" code system naming convention.
+	private static int getCodeSystemIndex(String[] names) {
+		int codeSystemIndex = 0;
+		for (int i = 1; i < names.length; i++) {
+			if (names[i].startsWith("SNOMEDCT-")) {
+				codeSystemIndex = i;
+			}
+		}
+		return codeSystemIndex;
+	}
+
+	/**
+	 * Creates a chunk document holding some of the concept changes of this activity.
+	 * Chunks copy the activity metadata so that they are selected by the same branch and date queries.
+	 * @param chunkConceptChanges concept changes held by the chunk
+	 * @return chunk document linked to this activity by parentId
+	 */
+	public Activity createChunk(Set<ConceptChange> chunkConceptChanges) {
+		final Activity chunk = new Activity(username, branch, sourceBranch, commitDate, activityType);
+		chunk.highestPromotedBranch = highestPromotedBranch;
+		chunk.promotionDate = promotionDate;
+		chunk.parentId = id;
+		chunk.conceptChanges = chunkConceptChanges;
+		return chunk;
+	}
+
 	public Activity addConceptChange(ConceptChange conceptChange) {
 		conceptChanges.add(conceptChange);
 		return this;
@@ -90,6 +173,18 @@ public class Activity {
 		return this.id;
 	}
 
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public String getParentId() {
+		return parentId;
+	}
+
+	public void setParentId(String parentId) {
+		this.parentId = parentId;
+	}
+
 	public String getUsername() {
 		return username;
 	}
@@ -102,6 +197,30 @@ public class Activity {
 		return branchDepth;
 	}
 
+	/**
+	 * @return short name of the lowest code system in the branch path, e.g. SNOMEDCT for MAIN/PROJ or SNOMEDCT-BE for MAIN/SNOMEDCT-BE/BE
+	 */
+	@JsonIgnore
+	public String getCodeSystem() {
+		return codeSystem;
+	}
+
+	/**
+	 * @return path of the project branch below the code system, e.g. MAIN/SNOMEDCT-BE/BE for MAIN/SNOMEDCT-BE/BE/BE-1, null on a code system branch
+	 */
+	@JsonIgnore
+	public String getProject() {
+		return project;
+	}
+
+	/**
+	 * @return paths of all ancestors of the branch, highest first, e.g. MAIN, MAIN/PROJ for MAIN/PROJ/PROJ-1
+	 */
+	@JsonIgnore
+	public List<String> getAncestorBranches() {
+		return ancestorBranches;
+	}
+
 	public String getSourceBranch() {
 		return sourceBranch;
 	}
@@ -154,7 +273,7 @@ public class Activity {
 
 	@Override
 	public String toString() {
-		return new StringJoiner(", ", Activity.class.getSimpleName() + "[", "]").add("id='" + id + "'")
+		return new StringJoiner(", ", Activity.class.getSimpleName() + "[", "]").add("id='" + id + "'").add("parentId='" + parentId + "'")
 				.add("username='" + username + "'").add("branch='" + branch + "'")
 				.add("sourceBranch='" + sourceBranch + "'").add("highestPromotedBranch='" + highestPromotedBranch + "'")
 				.add("commitDate=" + (commitDate == null ? null : commitDate.getTime())).add("promotionDate=" + (promotionDate == null ? null: promotionDate.getTime()))
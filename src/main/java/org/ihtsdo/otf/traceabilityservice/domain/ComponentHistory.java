@@ -0,0 +1,98 @@
+package org.ihtsdo.otf.traceabilityservice.domain;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.elasticsearch.annotations.Document;
+import org.springframework.data.elasticsearch.annotations.Field;
+import org.springframework.data.elasticsearch.annotations.FieldType;
+
+import java.util.Date;
+import java.util.StringJoiner;
+
+/**
+ * One component change of an activity, kept in a separate compact index so that the commits touching a component,
+ * or the components changed on a branch, are found without reading whole activity documents.
+ * The branch is the branch the change was made on, promotions do not update these.
+ */
+@Document(indexName = "#{@indexNameProvider.getIndexNameWithPrefix('component-history')}")
+public class ComponentHistory {
+
+	public static class Fields {
+		private Fields() {}
+		public static final String COMPONENT_ID = "componentId";
+		public static final String CONCEPT_ID = "conceptId";
+		public static final String ACTIVITY_ID = "activityId";
+		public static final String BRANCH = "branch";
+		public static final String COMMIT_DATE = "commitDate";
+		public static final String CHANGE_TYPE = "changeType";
+	}
+
+	@Id
+	@Field(type = FieldType.Keyword)
+	private String id;
+
+	@Field(type = FieldType.Keyword)
+	private String componentId;
+
+	@Field(type = FieldType.Keyword)
+	private String conceptId;
+
+	@Field(type = FieldType.Keyword)
+	private String activityId;
+
+	@Field(type = FieldType.Keyword)
+	private String branch;
+
+	@Field(type = FieldType.Long)
+	private Date commitDate;
+
+	@Field(type = FieldType.Keyword)
+	private ChangeType changeType;
+
+	public ComponentHistory() {
+	}
+
+	public ComponentHistory(String componentId, String conceptId, String activityId, String branch, Date commitDate, ChangeType changeType) {
+		// Derived from the activity and component so that writing the same activity again does not create duplicates
+		this.id = activityId + "|" + componentId;
+		this.componentId = componentId;
+		this.conceptId = conceptId;
+		this.activityId = activityId;
+		this.branch = branch;
+		this.commitDate = commitDate;
+		this.changeType = changeType;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getComponentId() {
+		return componentId;
+	}
+
+	public String getConceptId() {
+		return conceptId;
+	}
+
+	public String getActivityId() {
+		return activityId;
+	}
+
+	public String getBranch() {
+		return branch;
+	}
+
+	public Date getCommitDate() {
+		return commitDate;
+	}
+
+	public ChangeType getChangeType() {
+		return changeType;
+	}
+
+	@Override
+	public String toString() {
+		return new StringJoiner(", ", ComponentHistory.class.getSimpleName() + "[", "]").add("componentId='" + componentId + "'")
+				.add("activityId='" + activityId + "'").add("branch='" + branch + "'").add("commitDate=" + commitDate).add("changeType=" + changeType).toString();
+	}
+}
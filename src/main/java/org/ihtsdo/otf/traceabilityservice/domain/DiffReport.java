@@ -1,10 +1,25 @@
 package org.ihtsdo.otf.traceabilityservice.domain;
 
+import java.util.Date;
 import java.util.Map;
 import java.util.Set;
 
+/**
+ * @param componentDetails last commit of each component in the diff, by component id. Only set when the report is enriched.
+ */
 public record DiffReport(Map<ComponentType, Set<String>> missingFromDelta,
-						 Map<ComponentType, Set<String>> missingFromStore) {
+						 Map<ComponentType, Set<String>> missingFromStore,
+						 Map<String, ComponentDetail> componentDetails) {
 
+	public DiffReport(Map<ComponentType, Set<String>> missingFromDelta, Map<ComponentType, Set<String>> missingFromStore) {
+		this(missingFromDelta, missingFromStore, null);
+	}
+
+	/**
+	 * Concept owning a component and the most recent commit changing it.
+	 * Branch, username and commit date are null when no commit has changed the component.
+	 */
+	public record ComponentDetail(String conceptId, String branch, String username, Date commitDate) {
+	}
 
 }
@@ -0,0 +1,98 @@
+package org.ihtsdo.otf.traceabilityservice.migration;
+
+import org.ihtsdo.otf.traceabilityservice.configuration.elasticsearch.ActivityIndices;
+import org.ihtsdo.otf.traceabilityservice.domain.Activity;
+import org.ihtsdo.otf.traceabilityservice.util.QueryHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.elasticsearch.client.elc.NativeQuery;
+import org.springframework.data.elasticsearch.client.elc.NativeQueryBuilder;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.RefreshPolicy;
+import org.springframework.data.elasticsearch.core.query.ByQueryResponse;
+import org.springframework.data.elasticsearch.core.query.ScriptType;
+import org.springframework.data.elasticsearch.core.query.UpdateQuery;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+
+import static co.elastic.clients.elasticsearch._types.query_dsl.QueryBuilders.bool;
+
+/**
+ * Fills the fields derived from the branch path, 'codeSystem', 'project' and 'ancestorBranches',
+ * on activities and chunks stored before these fields existed. Activities written since are created with them.
+ * Until they have been updated, filtering by International only or by descendants of a branch matches these activities by their branch path.
+ * The fields are set in place with an update-by-query, so documents keep their routing and their changes are never loaded into this service.
+ */
+@Service
+public class BranchPathFieldsMigrationTool {
+
+	// Same derivation as Activity.setBranchPathFields
+	private static final String BRANCH_PATH_FIELDS_SCRIPT = """
+			String[] names = ctx._source.branch.splitOnToken('/');
+			int codeSystemIndex = 0;
+			for (int i = 1; i < names.length; i++) {
+				if (names[i].startsWith('SNOMEDCT-')) {
+					codeSystemIndex = i;
+				}
+			}
+			ctx._source.codeSystem = codeSystemIndex == 0 ? params.internationalCodeSystem : names[codeSystemIndex];
+			List ancestorBranches = new ArrayList();
+			String path = names[0];
+			for (int i = 1; i < names.length; i++) {
+				ancestorBranches.add(path);
+				path = path + '/' + names[i];
+				if (i == codeSystemIndex + 1) {
+					ctx._source.project = path;
+				}
+			}
+			ctx._source.ancestorBranches = ancestorBranches;
+			""";
+
+	@Autowired
+	private ElasticsearchOperations elasticsearchOperations;
+
+	@Autowired
+	private ActivityIndices activityIndices;
+
+	@Value("${migration.save-batch-size}")
+	private int saveBatchSize;
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+
+	/**
+	 * @return number of activity documents updated
+	 */
+	public long start() {
+		final NativeQuery query = new NativeQueryBuilder()
+				.withQuery(QueryHelper.toQuery(bool().mustNot(QueryHelper.existsQuery(Activity.Fields.CODE_SYSTEM))))
+				.build();
+		final UpdateQuery updateQuery = UpdateQuery.builder(query)
+				.withScriptType(ScriptType.INLINE)
+				.withLang("painless")
+				.withScript(BRANCH_PATH_FIELDS_SCRIPT)
+				.withParams(Map.of("internationalCodeSystem", Activity.INTERNATIONAL_CODE_SYSTEM))
+				.withMaxDocs(saveBatchSize)
+				.withAbortOnVersionConflict(false)
+				.withRefreshPolicy(RefreshPolicy.IMMEDIATE)
+				.build();
+
+		logger.info("Populating branch path fields...");
+		long updated = 0;
+		ByQueryResponse response;
+		do {
+			// Updated documents no longer match the query so each batch picks up where the last one finished
+			response = elasticsearchOperations.updateByQuery(updateQuery, activityIndices.getIndex());
+			updated += response.getUpdated();
+			if (!response.getFailures().isEmpty()) {
+				throw new IllegalStateException(String.format("Populating branch path fields failed on %s activity documents, %s updated.",
+						response.getFailures().size(), updated));
+			}
+			logger.info("Updated {} activity documents", updated);
+		} while (response.getUpdated() > 0);
+		logger.info("Populating branch path fields completed, {} activity documents updated.", updated);
+		return updated;
+	}
+}
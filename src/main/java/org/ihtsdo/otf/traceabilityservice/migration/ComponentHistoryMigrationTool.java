@@ -0,0 +1,75 @@
+package org.ihtsdo.otf.traceabilityservice.migration;
+
+import org.ihtsdo.otf.traceabilityservice.domain.Activity;
+import org.ihtsdo.otf.traceabilityservice.service.ComponentHistoryService;
+import org.ihtsdo.otf.traceabilityservice.util.QueryHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.elasticsearch.client.elc.NativeQuery;
+import org.springframework.data.elasticsearch.client.elc.NativeQueryBuilder;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.SearchHitsIterator;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the component history rows of activities stored before the component history index existed.
+ * Rows are derived from the activity and component so running this again rewrites the same rows.
+ */
+@Service
+public class ComponentHistoryMigrationTool {
+
+	@Autowired
+	private ElasticsearchOperations elasticsearchOperations;
+
+	@Autowired
+	private ComponentHistoryService componentHistoryService;
+
+	@Value("${migration.save-batch-size}")
+	private int saveBatchSize;
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+
+	/**
+	 * @return number of component history rows written
+	 */
+	public long start() {
+		if (!componentHistoryService.isEnabled()) {
+			throw new IllegalStateException("Component history is not enabled, set traceability.component-history.enabled=true before filling it.");
+		}
+		final NativeQuery query = new NativeQueryBuilder()
+				.withQuery(QueryHelper.existsQuery(Activity.Fields.COMPONENT_CHANGES_COMPONENT_ID))
+				.withPageable(PageRequest.of(0, 1_000))
+				.build();
+
+		logger.info("Filling component history...");
+		long written = 0;
+		final List<Activity> documents = new ArrayList<>();
+		try (SearchHitsIterator<Activity> stream = elasticsearchOperations.searchForStream(query, Activity.class)) {
+			while (stream.hasNext()) {
+				documents.add(stream.next().getContent());
+				if (documents.size() == saveBatchSize) {
+					written += save(documents);
+				}
+			}
+		}
+		written += save(documents);
+		logger.info("Filling component history completed, {} rows written.", written);
+		return written;
+	}
+
+	private int save(List<Activity> documents) {
+		if (documents.isEmpty()) {
+			return 0;
+		}
+		final int rows = componentHistoryService.save(documents);
+		logger.info("Written {} component history rows for {} activity documents", rows, documents.size());
+		documents.clear();
+		return rows;
+	}
+}
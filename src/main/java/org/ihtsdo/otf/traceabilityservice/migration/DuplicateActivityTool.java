@@ -0,0 +1,121 @@
+package org.ihtsdo.otf.traceabilityservice.migration;
+
+import org.ihtsdo.otf.traceabilityservice.domain.Activity;
+import org.ihtsdo.otf.traceabilityservice.repository.ActivityRepository;
+import org.ihtsdo.otf.traceabilityservice.service.ComponentHistoryService;
+import org.ihtsdo.otf.traceabilityservice.util.QueryHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.elasticsearch.client.elc.NativeQuery;
+import org.springframework.data.elasticsearch.client.elc.NativeQueryBuilder;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.SearchHitsIterator;
+import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+import static co.elastic.clients.elasticsearch._types.query_dsl.QueryBuilders.bool;
+
+/**
+ * Removes duplicate activities created before document ids were derived from branch and commit date.
+ * A redelivered message used to be stored again under a new generated id.
+ * For each branch and commit date one activity is kept: the one with the deterministic id if present,
+ * otherwise the most promoted one. The other activities and their chunks are deleted.
+ */
+@Service
+public class DuplicateActivityTool {
+
+	@Autowired
+	private ElasticsearchOperations elasticsearchOperations;
+
+	@Autowired
+	private ActivityRepository activityRepository;
+
+	@Autowired
+	private ComponentHistoryService componentHistoryService;
+
+	@Value("${migration.save-batch-size}")
+	private int deleteBatchSize;
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+
+	/**
+	 * @param dryRun log the duplicates without deleting them
+	 * @return number of duplicate activities found
+	 */
+	public long removeDuplicates(boolean dryRun) {
+		// Activities only, sorted so that duplicates are next to each other
+		final NativeQuery query = new NativeQueryBuilder()
+				.withQuery(QueryHelper.toQuery(bool().mustNot(QueryHelper.existsQuery(Activity.Fields.PARENT_ID))))
+				.withSourceFilter(new FetchSourceFilter(true, new String[]{Activity.Fields.BRANCH, Activity.Fields.COMMIT_DATE,
+						Activity.Fields.HIGHEST_PROMOTED_BRANCH, Activity.Fields.PROMOTION_DATE}, null))
+				.withPageable(PageRequest.of(0, 10_000, Sort.by(Activity.Fields.BRANCH, Activity.Fields.COMMIT_DATE)))
+				.build();
+
+		final List<String> duplicateIds = new ArrayList<>();
+		long duplicates = 0;
+		try (SearchHitsIterator<Activity> stream = elasticsearchOperations.searchForStream(query, Activity.class)) {
+			List<Activity> group = new ArrayList<>();
+			while (stream.hasNext()) {
+				final Activity activity = stream.next().getContent();
+				if (!group.isEmpty() && !group.get(0).equals(activity)) {
+					duplicates += collectDuplicates(group, duplicateIds);
+					group = new ArrayList<>();
+				}
+				group.add(activity);
+				if (duplicateIds.size() >= deleteBatchSize) {
+					delete(duplicateIds, dryRun);
+					duplicateIds.clear();
+				}
+			}
+			duplicates += collectDuplicates(group, duplicateIds);
+		}
+		delete(duplicateIds, dryRun);
+		logger.info("{} duplicate activities {}.", duplicates, dryRun ? "found" : "deleted");
+		return duplicates;
+	}
+
+	private int collectDuplicates(List<Activity> group, List<String> duplicateIds) {
+		if (group.size() < 2) {
+			return 0;
+		}
+		final Activity first = group.get(0);
+		final String deterministicId = Activity.createId(first.getBranch(), first.getCommitDate());
+		final Activity keep = group.stream()
+				.filter(activity -> deterministicId.equals(activity.getId()))
+				.findFirst()
+				.orElseGet(() -> group.stream()
+						.min(Comparator.comparingInt((Activity activity) -> activity.getHighestPromotedBranch() != null ? activity.getHighestPromotedBranch().length() : Integer.MAX_VALUE))
+						.orElse(first));
+		for (Activity activity : group) {
+			if (activity != keep) {
+				logger.info("Duplicate of {} @ {}, keeping {} and removing {}", activity.getBranch(), activity.getCommitDate().getTime(), keep.getId(), activity.getId());
+				duplicateIds.add(activity.getId());
+			}
+		}
+		return group.size() - 1;
+	}
+
+	private void delete(List<String> activityIds, boolean dryRun) {
+		if (dryRun || activityIds.isEmpty()) {
+			return;
+		}
+		final List<String> ids = new ArrayList<>(activityIds);
+		final NativeQuery chunkQuery = new NativeQueryBuilder()
+				.withQuery(QueryHelper.termsQuery(Activity.Fields.PARENT_ID, activityIds))
+				.withSourceFilter(new FetchSourceFilter(true, new String[]{Activity.Fields.PARENT_ID}, null))
+				.withPageable(PageRequest.of(0, 10_000))
+				.build();
+		try (SearchHitsIterator<Activity> chunks = elasticsearchOperations.searchForStream(chunkQuery, Activity.class)) {
+			chunks.forEachRemaining(hit -> ids.add(hit.getId()));
+		}
+		activityRepository.deleteAllById(ids);
+		componentHistoryService.deleteByActivityIds(activityIds);
+		logger.info("Deleted {} duplicate activity documents", ids.size());
+	}
+}
@@ -0,0 +1,153 @@
+package org.ihtsdo.otf.traceabilityservice.migration;
+
+import com.google.common.collect.Lists;
+import org.ihtsdo.otf.traceabilityservice.configuration.elasticsearch.ActivityIndices;
+import org.ihtsdo.otf.traceabilityservice.domain.Activity;
+import org.ihtsdo.otf.traceabilityservice.util.QueryHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.elasticsearch.client.elc.NativeQuery;
+import org.springframework.data.elasticsearch.client.elc.NativeQueryBuilder;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.IndexOperations;
+import org.springframework.data.elasticsearch.core.SearchHit;
+import org.springframework.data.elasticsearch.core.SearchHitsIterator;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.data.elasticsearch.core.query.IndexQuery;
+import org.springframework.data.elasticsearch.core.query.IndexQueryBuilder;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+/**
+ * Moves activities and chunks stored before routing was enabled to the shard of their code system.
+ * A document can not be moved between shards, so each batch is deleted and indexed again with its routing in the same index or partition.
+ * The batch is first copied to a staging index and only removed from it once indexed again, a failed or interrupted run restores
+ * the staged documents when started again. Documents already routed are skipped.
+ * Run while ingestion is stopped, searches during the migration may miss the batch being moved.
+ */
+@Service
+public class RoutingMigrationTool {
+
+	@Autowired
+	private ElasticsearchOperations elasticsearchOperations;
+
+	@Autowired
+	private ActivityIndices activityIndices;
+
+	@Value("${migration.save-batch-size}")
+	private int saveBatchSize;
+
+	@Value("${traceability.ingestion.bulk-enabled}")
+	private boolean bulkEnabled;
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+
+	/**
+	 * @return number of activity documents moved
+	 */
+	public long start() {
+		if (!activityIndices.isRouted()) {
+			throw new IllegalStateException("Activities are not routed, set traceability.activities.routing=true before moving them.");
+		}
+		final IndexOperations stagingIndexOps = elasticsearchOperations.indexOps(getStagingIndex());
+		if (stagingIndexOps.exists()) {
+			restoreStaged();
+		} else {
+			stagingIndexOps.create(stagingIndexOps.createSettings(Activity.class), stagingIndexOps.createMapping(Activity.class));
+		}
+
+		final NativeQuery query = new NativeQueryBuilder()
+				.withPageable(PageRequest.of(0, 1_000))
+				.build();
+
+		logger.info("Routing activities by code system...");
+		long moved = 0;
+		final List<Activity> batch = new ArrayList<>();
+		try (SearchHitsIterator<Activity> stream = elasticsearchOperations.searchForStream(query, Activity.class, activityIndices.getIndex())) {
+			while (stream.hasNext()) {
+				final SearchHit<Activity> hit = stream.next();
+				if (!Objects.equals(hit.getRouting(), activityIndices.getRouting(hit.getContent().getBranch()))) {
+					batch.add(hit.getContent());
+				}
+				if (batch.size() == saveBatchSize) {
+					moved += move(batch);
+				}
+			}
+		}
+		moved += move(batch);
+		stagingIndexOps.delete();
+		logger.info("Routing activities completed, {} activity documents moved.", moved);
+		return moved;
+	}
+
+	IndexCoordinates getStagingIndex() {
+		return IndexCoordinates.of(activityIndices.getIndex().getIndexName() + "-routing-migration");
+	}
+
+	// Documents staged by a run which did not complete may have been deleted and not yet indexed again
+	private void restoreStaged() {
+		final NativeQuery query = new NativeQueryBuilder()
+				.withPageable(PageRequest.of(0, 1_000))
+				.build();
+		final List<Activity> staged = new ArrayList<>();
+		try (SearchHitsIterator<Activity> stream = elasticsearchOperations.searchForStream(query, Activity.class, getStagingIndex())) {
+			stream.forEachRemaining(hit -> staged.add(hit.getContent()));
+		}
+		logger.info("Restoring {} activity documents staged by an earlier run.", staged.size());
+		for (List<Activity> batch : Lists.partition(staged, saveBatchSize)) {
+			reindex(batch);
+		}
+	}
+
+	private int move(List<Activity> batch) {
+		final int size = batch.size();
+		if (size == 0) {
+			return 0;
+		}
+		// Keep a copy before deleting, the routed document is not written first because with the default routing
+		// of the old document it may land on the same shard and be deleted with it
+		final IndexCoordinates stagingIndex = getStagingIndex();
+		write(batch.stream().map(activity -> new IndexQueryBuilder().withId(activity.getId()).withObject(activity).build()).toList(), stagingIndex);
+		elasticsearchOperations.indexOps(stagingIndex).refresh();
+
+		reindex(batch);
+		logger.info("Moved {} activity documents", size);
+		batch.clear();
+		return size;
+	}
+
+	// Deletes the documents, indexes them again with their routing, then removes them from the staging index
+	private void reindex(List<Activity> batch) {
+		final List<String> ids = batch.stream().map(Activity::getId).toList();
+		elasticsearchOperations.delete(new NativeQueryBuilder().withQuery(QueryHelper.idsQuery(ids)).build(), Activity.class, activityIndices.getIndex());
+
+		final Map<IndexCoordinates, List<IndexQuery>> queriesByIndex = new LinkedHashMap<>();
+		for (Activity activity : batch) {
+			queriesByIndex.computeIfAbsent(activityIndices.getIndex(activity.getCommitDate()), index -> new ArrayList<>())
+					.add(new IndexQueryBuilder().withId(activity.getId()).withObject(activity).withRouting(activityIndices.getRouting(activity.getBranch())).build());
+		}
+		for (Map.Entry<IndexCoordinates, List<IndexQuery>> indexQueries : queriesByIndex.entrySet()) {
+			write(indexQueries.getValue(), indexQueries.getKey());
+			elasticsearchOperations.indexOps(indexQueries.getKey()).refresh();
+		}
+
+		final IndexCoordinates stagingIndex = getStagingIndex();
+		elasticsearchOperations.delete(new NativeQueryBuilder().withQuery(QueryHelper.idsQuery(ids)).build(), Activity.class, stagingIndex);
+		elasticsearchOperations.indexOps(stagingIndex).refresh();
+	}
+
+	private void write(List<IndexQuery> queries, IndexCoordinates index) {
+		if (bulkEnabled) {
+			elasticsearchOperations.bulkIndex(queries, index);
+		} else {
+			// Where "_bulk" is blocked, see traceability.ingestion.bulk-enabled
+			for (IndexQuery query : queries) {
+				elasticsearchOperations.index(query, index);
+			}
+		}
+	}
+}
@@ -9,7 +9,7 @@ import org.springframework.data.elasticsearch.repository.ElasticsearchRepository
 
 import java.util.List;
 
-public interface ActivityRepository extends ElasticsearchRepository<Activity, String> {
+public interface ActivityRepository extends ElasticsearchRepository<Activity, String>, PartitionedActivityRepository {
 
 	Page<Activity> findByActivityType(ActivityType activityType, Pageable pageRequest);
 
@@ -28,8 +28,11 @@ public interface ActivityRepository extends ElasticsearchRepository<Activity, St
 			"] }}")
 	Page<Activity> findByHighestPromotedBranchOrBranchAndActivityType(String highestPromotedBranch, String branch, ActivityType activityType, Pageable pageRequest);
 
+	/**
+	 * Finds the activity and chunk documents holding changes to the concept, chunks are not collapsed into their activity.
+	 */
 	@Query("{ \"term\" : { \"conceptChanges.conceptId\" : \"?0\" } }")
-	Page<Activity> findByConceptId(Long conceptId, Pageable pageRequest);
+	Page<Activity> findDocumentsByConceptId(Long conceptId, Pageable pageRequest);
 
 	Page<Activity> findByActivityTypeAndSourceBranch(ActivityType activityType, String sourceBranch, Pageable page);
 
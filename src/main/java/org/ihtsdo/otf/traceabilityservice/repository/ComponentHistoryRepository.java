@@ -0,0 +1,12 @@
+package org.ihtsdo.otf.traceabilityservice.repository;
+
+import org.ihtsdo.otf.traceabilityservice.domain.ComponentHistory;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.elasticsearch.repository.ElasticsearchRepository;
+
+public interface ComponentHistoryRepository extends ElasticsearchRepository<ComponentHistory, String> {
+
+	Page<ComponentHistory> findByComponentId(String componentId, Pageable page);
+
+}
@@ -0,0 +1,28 @@
+package org.ihtsdo.otf.traceabilityservice.repository;
+
+import org.ihtsdo.otf.traceabilityservice.domain.Activity;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes of the activity repository. These replace the default repository methods so that activities are written to the partition
+ * of their commit date and with the routing of their code system when the activity indices are set up that way, see ActivityIndices.
+ */
+public interface PartitionedActivityRepository {
+
+	<S extends Activity> S save(S activity);
+
+	<S extends Activity> Iterable<S> saveAll(Iterable<S> activities);
+
+	void deleteAllById(Iterable<? extends String> ids);
+
+	/**
+	 * Writes activities only if no document with the same id is stored. Stored documents are left as they are.
+	 * @param activities activities with their ids set
+	 * @param bulk write with bulk requests, otherwise one request per activity
+	 * @return ids of the activities which were already stored
+	 */
+	Set<String> createAll(List<? extends Activity> activities, boolean bulk);
+
+}
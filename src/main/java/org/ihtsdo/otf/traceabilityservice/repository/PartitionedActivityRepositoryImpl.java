@@ -0,0 +1,150 @@
+package org.ihtsdo.otf.traceabilityservice.repository;
+
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import org.ihtsdo.otf.traceabilityservice.configuration.elasticsearch.ActivityIndices;
+import org.ihtsdo.otf.traceabilityservice.domain.Activity;
+import org.ihtsdo.otf.traceabilityservice.util.QueryHelper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.elasticsearch.BulkFailureException;
+import org.springframework.data.elasticsearch.client.elc.NativeQueryBuilder;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.IndexedObjectInformation;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.data.elasticsearch.core.query.IndexQuery;
+import org.springframework.data.elasticsearch.core.query.IndexQueryBuilder;
+
+import java.util.*;
+
+class PartitionedActivityRepositoryImpl implements PartitionedActivityRepository {
+
+	@Autowired
+	private ElasticsearchOperations elasticsearchOperations;
+
+	@Autowired
+	private ActivityIndices activityIndices;
+
+	@Override
+	public <S extends Activity> S save(S activity) {
+		// A single index request rather than a bulk request, some deployments block "/_bulk"
+		final IndexCoordinates index = activityIndices.getWriteIndex(activity.getCommitDate());
+		final String routing = activityIndices.getRouting(activity.getBranch());
+		final S saved;
+		if (routing != null) {
+			final String id = elasticsearchOperations.index(indexQuery(activity, routing), index);
+			if (activity.getId() == null) {
+				activity.setId(id);
+			}
+			saved = activity;
+		} else {
+			saved = elasticsearchOperations.save(activity, index);
+		}
+		refresh(index);
+		return saved;
+	}
+
+	@Override
+	public <S extends Activity> Iterable<S> saveAll(Iterable<S> activities) {
+		final Map<String, List<S>> activitiesByIndex = new LinkedHashMap<>();
+		for (S activity : activities) {
+			activitiesByIndex.computeIfAbsent(activityIndices.getWriteIndex(activity.getCommitDate()).getIndexName(), index -> new ArrayList<>()).add(activity);
+		}
+		final List<S> saved = new ArrayList<>();
+		for (Map.Entry<String, List<S>> indexActivities : activitiesByIndex.entrySet()) {
+			final IndexCoordinates index = IndexCoordinates.of(indexActivities.getKey());
+			if (activityIndices.isRouted()) {
+				final List<S> indexed = indexActivities.getValue();
+				final List<IndexQuery> queries = indexed.stream().map(activity -> indexQuery(activity, activityIndices.getRouting(activity.getBranch()))).toList();
+				final List<IndexedObjectInformation> results = elasticsearchOperations.bulkIndex(queries, index);
+				for (int i = 0; i < indexed.size(); i++) {
+					if (indexed.get(i).getId() == null) {
+						indexed.get(i).setId(results.get(i).id());
+					}
+				}
+				saved.addAll(indexed);
+			} else {
+				elasticsearchOperations.save(indexActivities.getValue(), index).forEach(saved::add);
+			}
+			refresh(index);
+		}
+		return saved;
+	}
+
+	@Override
+	public void deleteAllById(Iterable<? extends String> ids) {
+		final List<String> idList = new ArrayList<>();
+		ids.forEach(idList::add);
+		if (idList.isEmpty()) {
+			return;
+		}
+		// Delete by query, the partition of each activity is not known from its id
+		final IndexCoordinates index = activityIndices.getIndex();
+		elasticsearchOperations.delete(new NativeQueryBuilder().withQuery(QueryHelper.idsQuery(idList)).build(), Activity.class, index);
+		refresh(index);
+	}
+
+	@Override
+	public Set<String> createAll(List<? extends Activity> activities, boolean bulk) {
+		final Map<String, List<IndexQuery>> queriesByIndex = new LinkedHashMap<>();
+		for (Activity activity : activities) {
+			final IndexQuery query = new IndexQueryBuilder().withId(activity.getId()).withObject(activity)
+					.withRouting(activityIndices.getRouting(activity.getBranch()))
+					.withOpType(IndexQuery.OpType.CREATE)
+					.build();
+			queriesByIndex.computeIfAbsent(activityIndices.getWriteIndex(activity.getCommitDate()).getIndexName(), index -> new ArrayList<>()).add(query);
+		}
+		final Set<String> storedIds = new HashSet<>();
+		for (Map.Entry<String, List<IndexQuery>> indexQueries : queriesByIndex.entrySet()) {
+			final IndexCoordinates index = IndexCoordinates.of(indexQueries.getKey());
+			if (bulk) {
+				try {
+					elasticsearchOperations.bulkIndex(indexQueries.getValue(), index);
+				} catch (BulkFailureException e) {
+					// The other documents of the bulk request have been written
+					for (Map.Entry<String, BulkFailureException.FailureDetails> failure : e.getFailedDocuments().entrySet()) {
+						if (!Objects.equals(failure.getValue().status(), 409)) {
+							throw e;
+						}
+						storedIds.add(failure.getKey());
+					}
+				}
+			} else {
+				// A single index request per activity, some deployments block "/_bulk"
+				for (IndexQuery query : indexQueries.getValue()) {
+					try {
+						elasticsearchOperations.index(query, index);
+					} catch (RuntimeException e) {
+						if (!isConflict(e)) {
+							throw e;
+						}
+						storedIds.add(query.getId());
+					}
+				}
+			}
+			refresh(index);
+		}
+		return storedIds;
+	}
+
+	// A create request for an id which is already stored fails with a version conflict
+	private static boolean isConflict(Throwable e) {
+		for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+			if (cause instanceof OptimisticLockingFailureException
+					|| (cause instanceof ElasticsearchException elasticsearchException && elasticsearchException.status() == 409)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static IndexQuery indexQuery(Activity activity, String routing) {
+		return new IndexQueryBuilder().withId(activity.getId()).withObject(activity).withRouting(routing).build();
+	}
+
+	// Like the default repository methods, changes are visible to searches straight away unless the operations have a refresh policy
+	private void refresh(IndexCoordinates index) {
+		if (elasticsearchOperations.getRefreshPolicy() == null) {
+			elasticsearchOperations.indexOps(index).refresh();
+		}
+	}
+}
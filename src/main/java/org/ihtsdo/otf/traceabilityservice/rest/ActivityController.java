@@ -1,14 +1,20 @@
 package org.ihtsdo.otf.traceabilityservice.rest;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.util.StdDateFormat;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.ihtsdo.otf.traceabilityservice.domain.Activity;
 import org.ihtsdo.otf.traceabilityservice.domain.ActivityType;
+import org.ihtsdo.otf.traceabilityservice.domain.ComponentHistory;
 import org.ihtsdo.otf.traceabilityservice.repository.ActivityRepository;
 import org.ihtsdo.otf.traceabilityservice.service.ActivitySearchRequest;
 import org.ihtsdo.otf.traceabilityservice.service.ActivityService;
+import org.ihtsdo.otf.traceabilityservice.service.BulkConceptHistoryService;
+import org.ihtsdo.otf.traceabilityservice.service.ComponentHistoryService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springdoc.core.converters.models.PageableAsQueryParam;
@@ -19,11 +25,18 @@ import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.text.ParseException;
 import java.util.*;
+import java.util.zip.GZIPOutputStream;
 
 @RestController
 @Tag(name = "Activity")
@@ -38,7 +51,22 @@ public class ActivityController {
 	@Autowired
 	private ActivityService activityService;
 
+	@Autowired
+	private BulkConceptHistoryService bulkConceptHistoryService;
+
+	@Autowired
+	private ComponentHistoryService componentHistoryService;
+
+	@Value("${traceability.activities.bulk.max-concepts}")
+	private int maxBulkExportConcepts;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
 	public static final Sort COMMIT_DATE_SORT = Sort.by("commitDate").ascending();
+	public static final String NDJSON = "application/x-ndjson";
+	private static final String CURSOR_DESCRIPTION = "Page with a cursor rather than a page number, deep pages are as fast as the first and results do not change while paging. " +
+			"Use 'start' for the first page then the nextCursor of each page, nextCursor is absent on the last page. The page number is ignored.";
 	private static final Logger LOGGER = LoggerFactory.getLogger(ActivityController.class);
 
 	@GetMapping(value = "/activities")
@@ -63,6 +91,7 @@ public class ActivityController {
 			@RequestParam(required = false, defaultValue = "false") @Parameter(description = "Ignore changes made on non-International CodeSystems") boolean intOnly,
 			@RequestParam(required = false, defaultValue = "false") @Parameter(description = "Brief response without the concept changes.") boolean brief,
 			@RequestParam(required = false, defaultValue = "false") @Parameter(description = "Briefest response without any concept details") boolean summaryOnly,
+			@RequestParam(required = false) @Parameter(description = CURSOR_DESCRIPTION) String cursor,
 			Pageable page) {
 
 		if (brief || summaryOnly) {
@@ -75,6 +104,63 @@ public class ActivityController {
 			page = setPageDefaults(page, maxActivities);
 		}
 
+		ActivitySearchRequest searchRequest = createSearchRequest(originalBranch, onBranch, includeHigherPromotions, sourceBranch, branchPrefix, activityType,
+				conceptId, componentId, commitDate, commitFromDate, commitToDate, intOnly, brief, summaryOnly);
+		searchRequest.setCursor(cursor);
+		return activityService.getActivities(searchRequest, page);
+	}
+
+	@GetMapping(value = "/activities/export", produces = NDJSON)
+	@Operation(summary = "Export activities as newline delimited JSON.",
+			description = """
+            Stream every activity matching the filters in one response, one activity per line in commit date order. Takes the same filters as fetching activities, without paging.
+            Activities are read from the store as they are written so memory use does not depend on the number of activities.
+            The 'gzip' flag compresses the response, which is returned with a gzip content encoding.""")
+	public ResponseEntity<StreamingResponseBody> exportActivities(
+			@RequestParam(required = false) @Parameter(description = "Find commits by the branch they were originally written to.") String originalBranch,
+			@RequestParam(required = false) @Parameter(description = "Find commits by the original branch or highest promoted branch.") String onBranch,
+			@RequestParam(required = false, defaultValue = "false") @Parameter(description = "Include commits that have been promoted further, that may have been rebased down to specified branch") Boolean includeHigherPromotions,
+			@RequestParam(required = false) @Parameter(description = "Find rebase or promotion commits using the source branch.") String sourceBranch,
+			@RequestParam(required = false) @Parameter(description = "Find commits originally made on any branch starting with this prefix.") String branchPrefix,
+			@RequestParam(required = false) ActivityType activityType,
+			@RequestParam(required = false) @Parameter(description = "Find commits that changed a specific concept.") Long conceptId,
+			@RequestParam(required = false) @Parameter(description = "Find commits that changed a specific component.") String componentId,
+			@RequestParam(required = false) @Parameter(description = "Find commits by commit date. The format returned by the API can be used or epoch milliseconds.") String commitDate,
+			@RequestParam(required = false) @Parameter(description = "Find commits after specified date. The format returned by the API can be used or epoch milliseconds.") String commitFromDate,
+			@RequestParam(required = false) @Parameter(description = "Find commits before specified date. The format returned by the API can be used or epoch milliseconds.") String commitToDate,
+			@RequestParam(required = false, defaultValue = "false") @Parameter(description = "Ignore changes made on non-International CodeSystems") boolean intOnly,
+			@RequestParam(required = false, defaultValue = "false") @Parameter(description = "Brief response without the concept changes.") boolean brief,
+			@RequestParam(required = false, defaultValue = "false") @Parameter(description = "Briefest response without any concept details") boolean summaryOnly,
+			@RequestParam(required = false, defaultValue = "false") @Parameter(description = "Compress the response with gzip.") boolean gzip) {
+
+		final ActivitySearchRequest searchRequest = createSearchRequest(originalBranch, onBranch, includeHigherPromotions, sourceBranch, branchPrefix, activityType,
+				conceptId, componentId, commitDate, commitFromDate, commitToDate, intOnly, brief, summaryOnly);
+		LOGGER.info("Exporting activities {}", searchRequest);
+		final StreamingResponseBody body = responseStream -> {
+			final OutputStream outputStream = gzip ? new GZIPOutputStream(responseStream, 64 * 1024) : responseStream;
+			try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+				generator.setRootValueSeparator(new SerializedString("\n"));
+				activityService.exportActivities(searchRequest, activity -> {
+					try {
+						generator.writeObject(activity);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+				generator.writeRaw('\n');
+			}
+		};
+		final ResponseEntity.BodyBuilder response = ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON));
+		if (gzip) {
+			response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+		}
+		return response.body(body);
+	}
+
+	private ActivitySearchRequest createSearchRequest(String originalBranch, String onBranch, Boolean includeHigherPromotions, String sourceBranch, String branchPrefix,
+			ActivityType activityType, Long conceptId, String componentId, String commitDate, String commitFromDate, String commitToDate,
+			boolean intOnly, boolean brief, boolean summaryOnly) {
+
 		Date commitDateDate = getDate(commitDate);
 		Date commitFromDateDate = getDate(commitFromDate);
 		Date commitToDateDate = getDate(commitToDate);
@@ -94,7 +180,7 @@ public class ActivityController {
 		searchRequest.setIntOnly(intOnly);
 		searchRequest.setBrief(brief);
 		searchRequest.setSummaryOnly(summaryOnly);
-		return activityService.getActivities(searchRequest, page);
+		return searchRequest;
 	}
 	
 	private Date getDate(String commitDate) {
@@ -123,13 +209,45 @@ public class ActivityController {
 			@RequestParam(required = false) String user,
 			@RequestParam(required = false, defaultValue = "false") Boolean summary,
 			@RequestBody List<Long> conceptIds,
+			@RequestParam(required = false) @Parameter(description = CURSOR_DESCRIPTION) String cursor,
 			Pageable page) {
 		LOGGER.info("Finding {} activities for {} concepts", activityType, conceptIds.size());
 		if (conceptIds.size() > MAX_BULK_SIZE) {
 			throw new IllegalArgumentException(String.format("%d concept ids exceed the maximum size of %d", conceptIds.size(), MAX_BULK_SIZE));
 		}
 		page = setPageDefaults(page, MAX_BULK_SIZE);
-		return activityService.findActivitiesBy(conceptIds, activityType, user, summary, page);
+		return activityService.findActivitiesBy(conceptIds, activityType, user, summary, page, cursor);
+	}
+
+	@PostMapping(value = "/activitiesBulk/export", produces = NDJSON)
+	@Operation(summary = "Export the activities of many concepts as newline delimited JSON.",
+			description = """
+            Stream every activity that changed any of the given concepts, one activity per line, with only the changes to those concepts.
+            Accepts far more concepts than fetching activities in bulk, the concepts are looked up in parallel so activities are not in any particular order.
+            An activity too large to store in one document is returned once, with the changes from all of its parts, after the other activities.""")
+	public ResponseEntity<StreamingResponseBody> exportActivitiesBulk(
+			@RequestParam(required = false) ActivityType activityType,
+			@RequestParam(required = false) String user,
+			@RequestParam(required = false, defaultValue = "false") @Parameter(description = "Brief response without the component changes.") boolean summary,
+			@RequestBody List<Long> conceptIds) {
+		LOGGER.info("Exporting {} activities for {} concepts", activityType, conceptIds.size());
+		if (conceptIds.size() > maxBulkExportConcepts) {
+			throw new IllegalArgumentException(String.format("%d concept ids exceed the maximum size of %d", conceptIds.size(), maxBulkExportConcepts));
+		}
+		final StreamingResponseBody body = outputStream -> {
+			try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+				generator.setRootValueSeparator(new SerializedString("\n"));
+				bulkConceptHistoryService.findActivities(conceptIds, activityType, user, summary, activity -> {
+					try {
+						generator.writeObject(activity);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+				generator.writeRaw('\n');
+			}
+		};
+		return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON)).body(body);
 	}
 
 	@GetMapping(value = "/activitiesForUsersOnBranches")
@@ -144,10 +262,12 @@ public class ActivityController {
 			@DateTimeFormat(pattern = "yyyy-MM-dd")
 			Date since,
 
+			@RequestParam(required = false) @Parameter(description = CURSOR_DESCRIPTION) String cursor,
+
 			Pageable page) {
 		LOGGER.info("Finding updates to {} components by {} on {} branches (prefixed) since {}", componentSubType, users, branches, since);
 		page = setPageDefaults(page, MAX_BULK_SIZE);
-		return activityService.findActivitiesBy(componentSubType, users, branches, since, page);
+		return activityService.findActivitiesBy(componentSubType, users, branches, since, page, cursor);
 	}
 
 	@GetMapping(value="/activities/promotions")
@@ -160,21 +280,36 @@ public class ActivityController {
 
 	@GetMapping(value="/activities/{activityId}")
 	public Activity getActivity(@PathVariable String activityId) {
-		return activityRepository.findById(activityId).orElse(null);
+		return activityService.findById(activityId);
 	}
 
 	@PostMapping(value = "/activities/branches/last")
 	@Operation(summary = "Fetch the latest activity on multiple branches.")
-	public List<Activity> getLastModifiedOnBranches (@RequestBody List<String> branches) {
-		List<Activity> activities = new ArrayList<>();
-		final PageRequest sortedPage = PageRequest.of(0, 1, COMMIT_DATE_SORT.descending());
-		for (String branch : branches) {
-			final Page<Activity> page = activityRepository.findByBranch(branch, sortedPage);
-			if (!page.isEmpty()) {
-				activities.add(page.getContent().get(0));
-			}
-		}
-		return activities;
+	public List<Activity> getLastModifiedOnBranches (@RequestBody List<String> branches,
+			@RequestParam(required = false, defaultValue = "false") @Parameter(description = "Briefest response without any concept details") boolean summaryOnly) {
+		return activityService.findLatestOnBranches(branches, summaryOnly);
+	}
+
+	@GetMapping(value = "/component-history")
+	@PageableAsQueryParam
+	@Operation(summary = "Fetch the commits which changed a component.",
+			description = "One row per commit with the activity id, original branch, commit date and change type. Faster than filtering activities by component.")
+	public Page<ComponentHistory> getComponentHistory(@RequestParam String componentId, Pageable page) {
+		page = setPageDefaults(page, 1000);
+		return componentHistoryService.findByComponentId(componentId, page);
+	}
+
+	@GetMapping(value = "/component-history/branch")
+	@PageableAsQueryParam
+	@Operation(summary = "Fetch the components changed on a branch.",
+			description = "One row per component change made on the branch, changes promoted to the branch are not included.")
+	public Page<ComponentHistory> getBranchComponentHistory(
+			@RequestParam String branch,
+			@RequestParam(required = false) @Parameter(description = "Changes committed after specified date. The format returned by the API can be used or epoch milliseconds.") String commitFromDate,
+			@RequestParam(required = false) @Parameter(description = "Changes committed before specified date. The format returned by the API can be used or epoch milliseconds.") String commitToDate,
+			Pageable page) {
+		page = setPageDefaults(page, 1000);
+		return componentHistoryService.findByBranch(branch, getDate(commitFromDate), getDate(commitToDate), page);
 	}
 
 	private Pageable setPageDefaults(Pageable page, int maxSize) {
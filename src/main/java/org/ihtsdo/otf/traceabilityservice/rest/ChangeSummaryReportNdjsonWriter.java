@@ -0,0 +1,64 @@
+package org.ihtsdo.otf.traceabilityservice.rest;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.ihtsdo.otf.traceabilityservice.domain.Activity;
+import org.ihtsdo.otf.traceabilityservice.domain.ComponentType;
+import org.ihtsdo.otf.traceabilityservice.service.ChangeSummaryReportListener;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Writes a change summary report as newline delimited JSON, one line per component then one line per change not at task level:
+ * <pre>
+ * {"componentType":"CONCEPT","componentId":"100","conceptId":"100"}
+ * {"changeNotAtTaskLevel":{...}}
+ * </pre>
+ * The report ends with a newline, written by {@link #finish()} once the whole report has been written.
+ * A report which failed part way is not finished, so it is not mistaken for a complete one.
+ */
+class ChangeSummaryReportNdjsonWriter implements ChangeSummaryReportListener {
+
+	private final JsonGenerator generator;
+
+	ChangeSummaryReportNdjsonWriter(ObjectMapper objectMapper, OutputStream outputStream) throws IOException {
+		generator = objectMapper.getFactory().createGenerator(outputStream);
+		generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+		generator.setRootValueSeparator(new SerializedString("\n"));
+	}
+
+	@Override
+	public void componentChange(ComponentType componentType, String componentId, String conceptId) {
+		try {
+			generator.writeStartObject();
+			generator.writeStringField("componentType", componentType.name());
+			generator.writeStringField("componentId", componentId);
+			generator.writeStringField("conceptId", conceptId);
+			generator.writeEndObject();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void changeNotAtTaskLevel(Activity activity) {
+		try {
+			generator.writeStartObject();
+			generator.writeObjectField("changeNotAtTaskLevel", activity);
+			generator.writeEndObject();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Writes the trailing newline and flushes the report. Not called when the report fails, lines still buffered are then discarded.
+	 */
+	public void finish() throws IOException {
+		generator.writeRaw('\n');
+		generator.close();
+	}
+}
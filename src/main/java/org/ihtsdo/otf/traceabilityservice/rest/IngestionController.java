@@ -0,0 +1,27 @@
+package org.ihtsdo.otf.traceabilityservice.rest;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.ihtsdo.otf.traceabilityservice.service.IngestionMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@Tag(name = "Ingestion", description = "Activity ingestion")
+@RequestMapping(path = "/ingestion", produces = MediaType.APPLICATION_JSON_VALUE)
+public class IngestionController {
+
+	@Autowired
+	private IngestionMetrics ingestionMetrics;
+
+	@Operation(summary = "Ingestion lag and throughput.",
+			description = "Queue lag is the longest time between a commit being made and its activity being written, over the last write of each branch lineage partition.")
+	@GetMapping("/metrics")
+	public IngestionMetrics getMetrics() {
+		return ingestionMetrics;
+	}
+
+}
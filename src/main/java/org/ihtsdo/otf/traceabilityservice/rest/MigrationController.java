@@ -2,9 +2,14 @@ package org.ihtsdo.otf.traceabilityservice.rest;
 
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import org.ihtsdo.otf.traceabilityservice.migration.BranchPathFieldsMigrationTool;
+import org.ihtsdo.otf.traceabilityservice.migration.ComponentHistoryMigrationTool;
+import org.ihtsdo.otf.traceabilityservice.migration.DuplicateActivityTool;
+import org.ihtsdo.otf.traceabilityservice.migration.RoutingMigrationTool;
 import org.ihtsdo.otf.traceabilityservice.migration.V2MigrationTool;
 import org.ihtsdo.otf.traceabilityservice.migration.V3Point1MigrationTool;
 import org.ihtsdo.otf.traceabilityservice.migration.V3Point2MigrationTool;
+import org.ihtsdo.otf.traceabilityservice.service.ChangeSummaryReportCache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
@@ -26,6 +31,21 @@ public class MigrationController {
 	@Autowired
 	private V3Point2MigrationTool v3Point2MigrationTool;
 
+	@Autowired
+	private DuplicateActivityTool duplicateActivityTool;
+
+	@Autowired
+	private BranchPathFieldsMigrationTool branchPathFieldsMigrationTool;
+
+	@Autowired
+	private RoutingMigrationTool routingMigrationTool;
+
+	@Autowired
+	private ComponentHistoryMigrationTool componentHistoryMigrationTool;
+
+	@Autowired
+	private ChangeSummaryReportCache reportCache;
+
 	@Value("${migration.password}")
 	private String migrationPassword;
 
@@ -61,6 +81,7 @@ public class MigrationController {
 	public void startThreePointOneMigration(@RequestParam String migrationPassword) {
 		checkMigrationPassword(migrationPassword);
 		v3Point1MigrationTool.start();
+		reportCache.invalidateAll();
 	}
 
 	@Operation(summary = "Migrate store from 3.1.x to 3.2.x.",
@@ -70,6 +91,56 @@ public class MigrationController {
 	public void startThreePointTwoMigration(@RequestParam String migrationPassword) {
 		checkMigrationPassword(migrationPassword);
 		v3Point2MigrationTool.start();
+		reportCache.invalidateAll();
+	}
+
+	@Operation(summary = "Remove duplicate activities.",
+			description = "Removes activities stored more than once for the same branch and commit date, caused by redelivered messages " +
+					"before document ids were derived from branch and commit date. Returns the number of duplicates. Use dryRun to only log them.")
+	@PostMapping(value = "/remove-duplicates", produces = MediaType.APPLICATION_JSON_VALUE)
+	@ResponseBody
+	public long removeDuplicates(
+			@RequestParam(required = false, defaultValue = "true")
+			boolean dryRun,
+			@RequestParam
+			String migrationPassword) {
+
+		checkMigrationPassword(migrationPassword);
+		final long duplicates = duplicateActivityTool.removeDuplicates(dryRun);
+		reportCache.invalidateAll();
+		return duplicates;
+	}
+
+	@Operation(summary = "Fill the fields derived from the branch path.",
+			description = "Sets 'codeSystem', 'project' and 'ancestorBranches' on activities stored before these fields were added. " +
+					"Filtering by International only, or by a branch prefix ending in '/', needs these fields. Returns the number of documents updated.")
+	@PostMapping(value = "/branch-path-fields", produces = MediaType.APPLICATION_JSON_VALUE)
+	@ResponseBody
+	public long populateBranchPathFields(@RequestParam String migrationPassword) {
+		checkMigrationPassword(migrationPassword);
+		return branchPathFieldsMigrationTool.start();
+	}
+
+	@Operation(summary = "Route existing activities by code system.",
+			description = "Moves activities stored before 'traceability.activities.routing' was enabled to the shard of their code system. " +
+					"Run with ingestion stopped. Returns the number of documents moved.")
+	@PostMapping(value = "/route-by-code-system", produces = MediaType.APPLICATION_JSON_VALUE)
+	@ResponseBody
+	public long routeByCodeSystem(@RequestParam String migrationPassword) {
+		checkMigrationPassword(migrationPassword);
+		final long moved = routingMigrationTool.start();
+		reportCache.invalidateAll();
+		return moved;
+	}
+
+	@Operation(summary = "Fill the component history index.",
+			description = "Writes a component history row for every component change of activities stored before the index existed. " +
+					"Returns the number of rows written.")
+	@PostMapping(value = "/component-history", produces = MediaType.APPLICATION_JSON_VALUE)
+	@ResponseBody
+	public long fillComponentHistory(@RequestParam String migrationPassword) {
+		checkMigrationPassword(migrationPassword);
+		return componentHistoryMigrationTool.start();
 	}
 
 	private void checkMigrationPassword(String migrationPassword) {
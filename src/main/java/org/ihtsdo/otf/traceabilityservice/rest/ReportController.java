@@ -1,20 +1,29 @@
 package org.ihtsdo.otf.traceabilityservice.rest;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.ihtsdo.otf.traceabilityservice.domain.ChangeSummaryReport;
 import org.ihtsdo.otf.traceabilityservice.domain.DiffReport;
+import org.ihtsdo.otf.traceabilityservice.service.ArchiveDiffJob;
+import org.ihtsdo.otf.traceabilityservice.service.ArchiveDiffJobService;
+import org.ihtsdo.otf.traceabilityservice.service.ArchiveDiffProgress;
 import org.ihtsdo.otf.traceabilityservice.service.ArchiveDiffService;
 import org.ihtsdo.otf.traceabilityservice.service.ReportService;
+import org.ihtsdo.otf.traceabilityservice.service.Rf2Selection;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.server.ServerErrorException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController("/report")
 @Tag(name = "Report", description = "Change summary report")
@@ -27,6 +36,12 @@ public class ReportController {
 	@Autowired
 	private ArchiveDiffService archiveDiffService;
 
+	@Autowired
+	private ArchiveDiffJobService archiveDiffJobService;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
 	@Operation(summary = "Fetch change summary report on a branch since the last promotion (or versioning if a code system branch).",
 		 description = "When contentBaseTimestamp is not specified, the last promotion date will be used if present. Otherwise it will use epoch date.")
 	@GetMapping("/change-summary")
@@ -44,28 +59,134 @@ public class ReportController {
 
 			@RequestParam(defaultValue = "true") boolean includeRebasedToThisBranch) {
 
+		validateTimestamps(contentBaseTimestamp, contentHeadTimestamp);
+		return reportService.createChangeSummaryReport(branch, contentBaseTimestamp, contentHeadTimestamp, includeMadeOnThisBranch, includePromotedToThisBranch, includeRebasedToThisBranch);
+	}
+
+	@Operation(summary = "Stream change summary report on a branch as newline delimited JSON.",
+			description = "Same selection as the change summary report. Each line is a component expected in the delta, grouped by component type, " +
+					"followed by a line for each change not at task level. Component ids are not collected in memory before they are written.")
+	@GetMapping(value = "/change-summary/stream", produces = ActivityController.NDJSON)
+	public ResponseEntity<StreamingResponseBody> streamChangeSummaryReport(
+			@Parameter(required = true)
+			@RequestParam String branch,
+
+			@RequestParam(required = false) Long contentBaseTimestamp,
+
+			@RequestParam(required = false) Long contentHeadTimestamp,
+
+			@RequestParam(defaultValue = "true") boolean includeMadeOnThisBranch,
+
+			@RequestParam(defaultValue = "true") boolean includePromotedToThisBranch,
+
+			@RequestParam(defaultValue = "true") boolean includeRebasedToThisBranch) {
+
+		validateTimestamps(contentBaseTimestamp, contentHeadTimestamp);
+		// Changes are selected when the response is written, before the first line. The writer only flushes once the report is finished,
+		// or when its buffer fills, so a failed selection writes nothing and the error still sets the response status.
+		final StreamingResponseBody body = outputStream -> {
+			final ChangeSummaryReportNdjsonWriter writer = new ChangeSummaryReportNdjsonWriter(objectMapper, outputStream);
+			reportService.streamChangeSummaryReport(branch, contentBaseTimestamp, contentHeadTimestamp,
+					includeMadeOnThisBranch, includePromotedToThisBranch, includeRebasedToThisBranch, writer);
+			writer.finish();
+		};
+		return ResponseEntity.ok().contentType(MediaType.parseMediaType(ActivityController.NDJSON)).body(body);
+	}
+
+	private void validateTimestamps(Long contentBaseTimestamp, Long contentHeadTimestamp) {
 		if (contentBaseTimestamp != null && contentHeadTimestamp != null && contentBaseTimestamp > contentHeadTimestamp) {
 			throw new IllegalArgumentException(String.format("contentBaseTimestamp %d can't be later than contentHeadTimestamp %d", contentBaseTimestamp, contentHeadTimestamp));
 		}
-		return reportService.createChangeSummaryReport(branch, contentBaseTimestamp, contentHeadTimestamp, includeMadeOnThisBranch, includePromotedToThisBranch, includeRebasedToThisBranch);
 	}
 
-	@Operation(summary = "Branch change summary verses delta archive diff.",
-			description = "Report component changes that are in traceability but not in the RF2 delta archive and vice versa.")
+	@Operation(summary = "Branch change summary verses RF2 archive diff.",
+			description = "Report component changes that are in traceability but not in the RF2 archive and vice versa. " +
+					"Every row of a delta is a change. In a snapshot or full archive, or when an effectiveTime window is given, " +
+					"the changes are the rows with an empty effectiveTime or an effectiveTime in the window.")
 	@PostMapping(value = "/change-summary-archive-diff", consumes = "multipart/form-data")
 	public DiffReport changeSummaryArchiveDiff(
 			@Parameter(required = true)
 			@RequestParam String branch,
 
+			@Parameter(required = true, description = "RF2 archive, a delta unless another release type is given.")
+			@RequestParam MultipartFile rf2DeltaArchive,
+
+			@Parameter(description = "Files of the archive to read.")
+			@RequestParam(defaultValue = "DELTA") Rf2Selection.ReleaseType releaseType,
+
+			@Parameter(description = "First effectiveTime of published rows to include, yyyyMMdd.")
+			@RequestParam(required = false) Integer effectiveTimeFrom,
+
+			@Parameter(description = "Last effectiveTime of published rows to include, yyyyMMdd.")
+			@RequestParam(required = false) Integer effectiveTimeTo,
+
+			@Parameter(description = "Add the owning concept and the last commit of each component in the diff.")
+			@RequestParam(defaultValue = "false") boolean enrich) {
+
+		final Rf2Selection selection = new Rf2Selection(releaseType, effectiveTimeFrom, effectiveTimeTo);
+
+		try (final InputStream inputStream = rf2DeltaArchive.getInputStream()) {
+			return archiveDiffService.diff(branch, inputStream, selection, enrich);
+		} catch (IOException e) {
+			throw new ServerErrorException("Failed to process RF2 archive.", e);
+		}
+	}
+
+	@Operation(summary = "Start a branch change summary verses RF2 archive diff in the background.",
+			description = "Same diff as /change-summary-archive-diff. The archive is uploaded and the diff queued. Poll the job for progress and fetch the result once completed. " +
+					"Returns 503 when too many diffs are already waiting. " +
+					"Jobs are held by the instance which accepted them, with several instances the job requests must be routed to the same instance.")
+	@PostMapping(value = "/change-summary-archive-diff/jobs", consumes = "multipart/form-data")
+	public ResponseEntity<ArchiveDiffJob> startChangeSummaryArchiveDiff(
 			@Parameter(required = true)
-			@RequestParam MultipartFile rf2DeltaArchive) {
+			@RequestParam String branch,
+
+			@Parameter(required = true, description = "RF2 archive, a delta unless another release type is given.")
+			@RequestParam MultipartFile rf2DeltaArchive,
 
-		final ChangeSummaryReport storeReport = reportService.createChangeSummaryReport(branch);
+			@Parameter(description = "Files of the archive to read.")
+			@RequestParam(defaultValue = "DELTA") Rf2Selection.ReleaseType releaseType,
+
+			@Parameter(description = "First effectiveTime of published rows to include, yyyyMMdd.")
+			@RequestParam(required = false) Integer effectiveTimeFrom,
+
+			@Parameter(description = "Last effectiveTime of published rows to include, yyyyMMdd.")
+			@RequestParam(required = false) Integer effectiveTimeTo,
+
+			@Parameter(description = "Add the owning concept and the last commit of each component in the diff.")
+			@RequestParam(defaultValue = "false") boolean enrich) {
+
+		final Rf2Selection selection = new Rf2Selection(releaseType, effectiveTimeFrom, effectiveTimeTo);
+
+		// The archive must be read before the request completes, the multipart file is removed afterwards
 		try (final InputStream inputStream = rf2DeltaArchive.getInputStream()) {
-			return archiveDiffService.diff(storeReport, inputStream);
+			return ResponseEntity.status(HttpStatus.ACCEPTED).body(archiveDiffJobService.submit(branch, inputStream, selection, enrich));
+		} catch (RejectedExecutionException e) {
+			return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
 		} catch (IOException e) {
-			throw new ServerErrorException("Failed to process RF2 delta archive.", e);
+			throw new ServerErrorException("Failed to process RF2 archive.", e);
+		}
+	}
+
+	@Operation(summary = "Fetch the status and progress of a background archive diff.")
+	@GetMapping("/change-summary-archive-diff/jobs/{jobId}")
+	public ResponseEntity<ArchiveDiffJob> getChangeSummaryArchiveDiffJob(@PathVariable String jobId) {
+		final ArchiveDiffJob job = archiveDiffJobService.getJob(jobId);
+		return job != null ? ResponseEntity.ok(job) : ResponseEntity.notFound().build();
+	}
+
+	@Operation(summary = "Fetch the result of a background archive diff.",
+			description = "Returns 409 when the diff has not completed.")
+	@GetMapping("/change-summary-archive-diff/jobs/{jobId}/result")
+	public ResponseEntity<DiffReport> getChangeSummaryArchiveDiffResult(@PathVariable String jobId) {
+		final ArchiveDiffJob job = archiveDiffJobService.getJob(jobId);
+		if (job == null) {
+			return ResponseEntity.notFound().build();
+		}
+		if (job.getProgress().getPhase() != ArchiveDiffProgress.Phase.COMPLETED) {
+			return ResponseEntity.status(HttpStatus.CONFLICT).build();
 		}
+		return ResponseEntity.ok(job.getResult());
 	}
 
 }
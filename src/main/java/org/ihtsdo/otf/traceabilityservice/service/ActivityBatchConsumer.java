@@ -0,0 +1,146 @@
+package org.ihtsdo.otf.traceabilityservice.service;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.jms.*;
+import org.ihtsdo.otf.traceabilityservice.configuration.ApplicationProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Consumes the traceability queue in micro-batches when batch ingestion is enabled.
+ * Each batch is read within a transacted JMS session which is only committed after the batch has been written,
+ * so messages are acknowledged only once their activities are in the store.
+ * The JMS listener container is not started in this mode, see JmsConfiguration.
+ */
+@Service
+public class ActivityBatchConsumer {
+
+	private static final long RECONNECT_DELAY_MILLIS = 5_000;
+
+	@Value("${traceability.ingestion.batch.enabled}")
+	private boolean enabled;
+
+	@Value("${traceability.ingestion.batch.max-messages}")
+	private int maxMessages;
+
+	@Value("${traceability.ingestion.batch.max-bytes}")
+	private long maxBytes;
+
+	@Value("${traceability.ingestion.batch.window-millis}")
+	private long windowMillis;
+
+	@Value("${platform.name}")
+	private String platformName;
+
+	@Autowired
+	private ConnectionFactory connectionFactory;
+
+	@Autowired
+	private TraceabilityStreamConsumer traceabilityStreamConsumer;
+
+	private volatile boolean running;
+
+	private Thread consumerThread;
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void start() {
+		if (!enabled) {
+			return;
+		}
+		logger.info("Starting batch ingestion with max {} messages, max {} bytes and a window of {} milliseconds.", maxMessages, maxBytes, windowMillis);
+		running = true;
+		consumerThread = new Thread(this::consume, "traceability-batch-consumer");
+		consumerThread.start();
+	}
+
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		running = false;
+		if (consumerThread != null) {
+			consumerThread.join(RECONNECT_DELAY_MILLIS);
+		}
+	}
+
+	private void consume() {
+		final String queueName = platformName + "." + ApplicationProperties.TRACEABILITY_QUEUE_SUFFIX;
+		while (running) {
+			try (Connection connection = connectionFactory.createConnection()) {
+				final Session session = connection.createSession(true, Session.SESSION_TRANSACTED);
+				final MessageConsumer consumer = session.createConsumer(session.createQueue(queueName));
+				connection.start();
+
+				// After a failed batch the same number of messages are consumed one at a time,
+				// so that a single bad message is not redelivered together with good ones.
+				int singleMessageCount = 0;
+				while (running) {
+					final List<String> batch = readBatch(consumer, singleMessageCount > 0 ? 1 : maxMessages);
+					if (batch.isEmpty()) {
+						continue;
+					}
+					try {
+						traceabilityStreamConsumer.receiveMessages(batch);
+						session.commit();
+						if (singleMessageCount > 0) {
+							singleMessageCount--;
+						}
+					} catch (Exception e) {
+						logger.error("Failed to consume batch of {} messages, rolling back.", batch.size(), e);
+						session.rollback();
+						singleMessageCount = Math.max(singleMessageCount, batch.size());
+					}
+				}
+			} catch (JMSException e) {
+				logger.error("Batch consumer lost connection to the message broker, reconnecting.", e);
+				pause();
+			}
+		}
+		logger.info("Batch ingestion stopped.");
+	}
+
+	private List<String> readBatch(MessageConsumer consumer, int batchMaxMessages) throws JMSException {
+		final List<String> batch = new ArrayList<>();
+		Message message = consumer.receive(1_000);
+		if (message == null) {
+			return batch;
+		}
+		long bytes = add(message, batch);
+		final long windowEnd = System.currentTimeMillis() + windowMillis;
+		while (batch.size() < batchMaxMessages && bytes < maxBytes) {
+			final long remaining = windowEnd - System.currentTimeMillis();
+			if (remaining <= 0) {
+				break;
+			}
+			message = consumer.receive(remaining);
+			if (message == null) {
+				break;
+			}
+			bytes += add(message, batch);
+		}
+		return batch;
+	}
+
+	private long add(Message message, List<String> batch) throws JMSException {
+		final String body = message.getBody(String.class);
+		batch.add(body);
+		return body != null ? body.length() : 0;
+	}
+
+	private void pause() {
+		try {
+			Thread.sleep(RECONNECT_DELAY_MILLIS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			running = false;
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package org.ihtsdo.otf.traceabilityservice.service;
+
+import org.ihtsdo.otf.traceabilityservice.domain.Activity;
+import org.ihtsdo.otf.traceabilityservice.domain.ConceptChange;
+
+import java.util.*;
+
+/**
+ * Activities with very many component changes are stored as the activity document plus chunk documents.
+ * The activity document keeps the first chunk of concept changes, chunk documents hold the rest and link to the activity by parentId.
+ * Concept changes are never split across chunks.
+ */
+public final class ActivityChunks {
+
+	private ActivityChunks() {
+	}
+
+	/**
+	 * Removes concept changes beyond the first chunk from the activity.
+	 * @param activity activity to split, keeps the first chunk of concept changes
+	 * @param maxComponentChanges maximum number of component changes in each chunk, zero or less to disable chunking
+	 * @return the remaining chunks of concept changes, empty if the activity is not over the chunk size
+	 */
+	public static List<Set<ConceptChange>> split(Activity activity, int maxComponentChanges) {
+		final Set<ConceptChange> conceptChanges = activity.getConceptChanges();
+		if (maxComponentChanges <= 0 || conceptChanges == null
+				|| conceptChanges.stream().mapToLong(conceptChange -> conceptChange.getComponentChanges().size()).sum() <= maxComponentChanges) {
+			return Collections.emptyList();
+		}
+
+		final List<Set<ConceptChange>> chunks = new ArrayList<>();
+		Set<ConceptChange> chunk = new HashSet<>();
+		int chunkSize = 0;
+		for (ConceptChange conceptChange : conceptChanges) {
+			final int size = conceptChange.getComponentChanges().size();
+			if (!chunk.isEmpty() && chunkSize + size > maxComponentChanges) {
+				chunks.add(chunk);
+				chunk = new HashSet<>();
+				chunkSize = 0;
+			}
+			chunk.add(conceptChange);
+			chunkSize += size;
+		}
+		chunks.add(chunk);
+		activity.setConceptChanges(chunks.remove(0));
+		return chunks;
+	}
+
+	/**
+	 * Collapses activity and chunk documents into one activity each, in the order they were first seen.
+	 * A chunk found without its activity document stands in for the activity, they share the same metadata.
+	 * @param documents activity and chunk documents
+	 * @return activities with the concept changes of all the given documents
+	 */
+	public static List<Activity> collapse(List<Activity> documents) {
+		if (documents.stream().noneMatch(document -> document.getParentId() != null)) {
+			return documents;
+		}
+		final Map<String, Activity> activities = new LinkedHashMap<>();
+		for (Activity document : documents) {
+			final String activityId = document.getParentId() != null ? document.getParentId() : document.getId();
+			final Activity activity = activities.get(activityId);
+			if (activity == null) {
+				document.setId(activityId);
+				document.setParentId(null);
+				activities.put(activityId, document);
+			} else {
+				addConceptChanges(activity, document);
+			}
+		}
+		return new ArrayList<>(activities.values());
+	}
+
+	static void addConceptChanges(Activity activity, Activity chunk) {
+		if (chunk.getConceptChanges() == null || chunk.getConceptChanges().isEmpty()) {
+			return;
+		}
+		if (activity.getConceptChanges() == null) {
+			activity.setConceptChanges(new HashSet<>());
+		}
+		activity.getConceptChanges().addAll(chunk.getConceptChanges());
+	}
+}
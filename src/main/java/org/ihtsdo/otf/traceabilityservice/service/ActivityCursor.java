@@ -0,0 +1,65 @@
+package org.ihtsdo.otf.traceabilityservice.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Opaque cursor for paging activities with search_after over an Elasticsearch point in time.
+ * Holds the point in time id and the sort values of the last activity returned.
+ * Every page costs the same however deep and the results do not change while activities are written.
+ */
+final class ActivityCursor {
+
+	// Value of the cursor parameter requesting the first page
+	static final String START = "start";
+
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+	private String pointInTimeId;
+	private List<Object> searchAfter;
+
+	// For Jackson
+	private ActivityCursor() {
+	}
+
+	ActivityCursor(String pointInTimeId, List<Object> searchAfter) {
+		this.pointInTimeId = pointInTimeId;
+		this.searchAfter = searchAfter;
+	}
+
+	/**
+	 * @param cursor cursor from a previous page, or {@link #START}
+	 * @return the cursor, or null to start a new one
+	 */
+	static ActivityCursor decode(String cursor) {
+		if (START.equals(cursor)) {
+			return null;
+		}
+		try {
+			return OBJECT_MAPPER.readValue(Base64.getUrlDecoder().decode(cursor), ActivityCursor.class);
+		} catch (IllegalArgumentException | IOException e) {
+			throw new IllegalArgumentException(String.format("Invalid cursor, use '%s' for the first page and the nextCursor of the previous page after that.", START), e);
+		}
+	}
+
+	String encode() {
+		try {
+			return Base64.getUrlEncoder().withoutPadding().encodeToString(OBJECT_MAPPER.writeValueAsString(this).getBytes(StandardCharsets.UTF_8));
+		} catch (JsonProcessingException e) {
+			throw new IllegalStateException("Failed to write cursor.", e);
+		}
+	}
+
+	public String getPointInTimeId() {
+		return pointInTimeId;
+	}
+
+	public List<Object> getSearchAfter() {
+		return searchAfter;
+	}
+}
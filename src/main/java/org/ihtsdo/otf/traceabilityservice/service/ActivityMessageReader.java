@@ -0,0 +1,148 @@
+package org.ihtsdo.otf.traceabilityservice.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.ihtsdo.otf.traceabilityservice.domain.*;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Reads activity messages token by token straight into the persisted Activity document shape.
+ * Classification saves and versioning commits can hold hundreds of thousands of component changes,
+ * reading them into an intermediate message object first would allocate every change twice.
+ */
+@Component
+public class ActivityMessageReader {
+
+	private final JsonFactory jsonFactory;
+
+	public ActivityMessageReader(ObjectMapper objectMapper) {
+		jsonFactory = objectMapper.getFactory();
+	}
+
+	public Activity read(String message) throws IOException {
+		try (JsonParser parser = jsonFactory.createParser(message)) {
+			expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+
+			String userId = null;
+			String branchPath = null;
+			String sourceBranch = null;
+			ActivityType activityType = null;
+			Long commitTimestamp = null;
+			Set<ConceptChange> conceptChanges = new HashSet<>();
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				final String field = parser.currentName();
+				final JsonToken value = parser.nextToken();
+				if (value == JsonToken.VALUE_NULL) {
+					continue;
+				}
+				switch (field) {
+					case "userId" -> userId = parser.getText();
+					case "branchPath" -> branchPath = parser.getText();
+					case "sourceBranch" -> sourceBranch = parser.getText();
+					case "activityType" -> activityType = readEnum(parser, ActivityType.class);
+					case "commitTimestamp" -> commitTimestamp = parser.getValueAsLong();
+					case "changes" -> readConceptChanges(parser, conceptChanges);
+					default -> parser.skipChildren();
+				}
+			}
+			if (branchPath == null || commitTimestamp == null || activityType == null) {
+				throw new JsonParseException(parser, "Activity message must have branchPath, commitTimestamp and activityType.");
+			}
+
+			return new Activity(userId, branchPath, sourceBranch, new Date(commitTimestamp), activityType).setConceptChanges(conceptChanges);
+		}
+	}
+
+	private void readConceptChanges(JsonParser parser, Set<ConceptChange> conceptChanges) throws IOException {
+		expect(parser, parser.currentToken(), JsonToken.START_ARRAY);
+		while (nextArrayObject(parser)) {
+			String conceptId = null;
+			Set<ComponentChange> componentChanges = new HashSet<>();
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				final String field = parser.currentName();
+				final JsonToken value = parser.nextToken();
+				if (value == JsonToken.VALUE_NULL) {
+					continue;
+				}
+				switch (field) {
+					case "conceptId" -> conceptId = parser.getValueAsString();
+					case "componentChanges" -> readComponentChanges(parser, componentChanges);
+					default -> parser.skipChildren();
+				}
+			}
+			conceptChanges.add(new ConceptChange(conceptId).setComponentChanges(componentChanges));
+		}
+	}
+
+	private void readComponentChanges(JsonParser parser, Set<ComponentChange> componentChanges) throws IOException {
+		expect(parser, parser.currentToken(), JsonToken.START_ARRAY);
+		// Messages may repeat a component, the first change for each component is kept
+		final Set<String> componentIds = new HashSet<>();
+		while (nextArrayObject(parser)) {
+			String componentId = null;
+			ChangeType changeType = null;
+			ComponentType componentType = null;
+			String componentSubType = null;
+			boolean effectiveTimeNull = false;
+			boolean superseded = false;
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				final String field = parser.currentName();
+				final JsonToken value = parser.nextToken();
+				if (value == JsonToken.VALUE_NULL) {
+					continue;
+				}
+				switch (field) {
+					case "componentId" -> componentId = parser.getValueAsString();
+					case "changeType" -> changeType = readEnum(parser, ChangeType.class);
+					case "componentType" -> componentType = readEnum(parser, ComponentType.class);
+					case "componentSubType" -> componentSubType = parser.getValueAsString();
+					case "effectiveTimeNull" -> effectiveTimeNull = parser.getValueAsBoolean();
+					case "superseded" -> superseded = parser.getValueAsBoolean();
+					default -> parser.skipChildren();
+				}
+			}
+			if (componentIds.add(componentId)) {
+				componentChanges.add(new ComponentChange(componentId, changeType, componentType, componentSubType, effectiveTimeNull, superseded));
+			}
+		}
+	}
+
+	/**
+	 * Moves to the next object in an array, null elements are skipped.
+	 * @return false at the end of the array
+	 * @throws JsonParseException if an element is not an object or the message ends within the array
+	 */
+	private boolean nextArrayObject(JsonParser parser) throws IOException {
+		JsonToken token = parser.nextToken();
+		while (token == JsonToken.VALUE_NULL) {
+			token = parser.nextToken();
+		}
+		if (token == JsonToken.END_ARRAY) {
+			return false;
+		}
+		expect(parser, token, JsonToken.START_OBJECT);
+		return true;
+	}
+
+	private <E extends Enum<E>> E readEnum(JsonParser parser, Class<E> enumType) throws JsonParseException {
+		try {
+			return Enum.valueOf(enumType, parser.getText());
+		} catch (IllegalArgumentException | IOException e) {
+			throw new JsonParseException(parser, "Unknown " + enumType.getSimpleName() + " value.", e);
+		}
+	}
+
+	private void expect(JsonParser parser, JsonToken actual, JsonToken expected) throws JsonParseException {
+		if (actual != expected) {
+			throw new JsonParseException(parser, String.format("Expected %s but found %s.", expected, actual));
+		}
+	}
+}
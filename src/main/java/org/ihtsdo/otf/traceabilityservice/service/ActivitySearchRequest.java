@@ -30,6 +30,7 @@ public class ActivitySearchRequest {
     private boolean brief;
     private boolean summaryOnly;
     private boolean includeHigherPromotions;
+    private String cursor;
 
     public String getOriginalBranch() {
         return originalBranch;
@@ -161,4 +162,15 @@ public class ActivitySearchRequest {
 	public void setIncludeHigherPromotions(boolean includeHigherPromotions) {
 		this.includeHigherPromotions = includeHigherPromotions;
 	}
+
+    /**
+     * @return null to page by page number, otherwise "start" or the next cursor of the previous page
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
 }
@@ -3,34 +3,58 @@ package org.ihtsdo.otf.traceabilityservice.service;
 import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery;
 import co.elastic.clients.elasticsearch._types.query_dsl.Query;
 import co.elastic.clients.elasticsearch._types.query_dsl.RangeQuery;
+import co.elastic.clients.elasticsearch.core.search.FieldCollapse;
 import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import org.ihtsdo.otf.traceabilityservice.configuration.elasticsearch.ActivityIndices;
 import org.ihtsdo.otf.traceabilityservice.util.QueryHelper;
 import org.ihtsdo.otf.traceabilityservice.domain.*;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.elasticsearch.client.elc.NativeQuery;
 import org.springframework.data.elasticsearch.client.elc.NativeQueryBuilder;
 import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
 import org.springframework.data.elasticsearch.core.SearchHit;
 import org.springframework.data.elasticsearch.core.SearchHits;
+import org.springframework.data.elasticsearch.core.SearchHitsIterator;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
 import org.springframework.data.elasticsearch.core.query.*;
+import org.springframework.data.elasticsearch.core.query.Query.PointInTime;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import static co.elastic.clients.elasticsearch._types.query_dsl.QueryBuilders.bool;
 
 @Component
 public class ActivityService {
 
+	// Branches per collapsed search when finding the latest activities
+	private static final int LATEST_ON_BRANCHES_BATCH_SIZE = 1_000;
+
 	private final ElasticsearchOperations elasticsearchOperations;
 
-	public ActivityService(ElasticsearchOperations elasticsearchOperations) {
+	private final ActivityIndices activityIndices;
+
+	private final Duration cursorKeepAlive;
+
+	public ActivityService(ElasticsearchOperations elasticsearchOperations, ActivityIndices activityIndices,
+			@Value("${traceability.activities.cursor.keep-alive}") Duration cursorKeepAlive) {
 		this.elasticsearchOperations = elasticsearchOperations;
+		this.activityIndices = activityIndices;
+		this.cursorKeepAlive = cursorKeepAlive;
 	}
 
 	/**
+	 * When filtering by content, total elements counts the activity and chunk documents matched,
+	 * so it can be more than the number of activities when an oversized activity matches in several chunks.
 	 * @param request ActivitySearchRequest
 	 * @param page PageRequest
 	 * @return Activities matched and filtered depending on requests
@@ -41,20 +65,222 @@ public class ActivityService {
 		doBranchFiltering(query, request);
 		doContentFiltering(query, request);
 
+		// Chunks of oversized activities only need to be matched when filtering by content, otherwise they are loaded for the activities found.
+		final boolean contentFiltered = request.getConceptId() != null || request.getComponentId() != null;
+		if (!contentFiltered) {
+			query.mustNot(QueryHelper.existsQuery(Activity.Fields.PARENT_ID));
+		}
+
 		NativeQueryBuilder queryBuilder = new NativeQueryBuilder().withQuery(QueryHelper.toQuery(query));
+		// The full view filtered by content only returns the matching changes, these are selected in Elasticsearch
+		final boolean projected = contentFiltered && !request.isSummaryOnly() && !request.isBrief();
+		final FetchSourceFilter sourceFilter = getSourceFilter(request, projected);
+		if (sourceFilter != null) {
+			queryBuilder.withSourceFilter(sourceFilter);
+		}
+		final NativeQuery searchQuery = buildPagedQuery(queryBuilder, page, request.getCursor());
+		if (projected) {
+			getProjection(request).addTo(searchQuery);
+		}
+
+		final IndexCoordinates index;
+		if (request.getCursor() == null) {
+			index = getSearchIndex(searchQuery, request);
+			searchQuery.setRoute(getRouting(request));
+		} else {
+			index = activityIndices.getIndex();
+		}
+		final SearchHits<Activity> search = elasticsearchOperations.search(searchQuery, Activity.class, index);
+
+		final Function<SearchHit<Activity>, Activity> reader = projected ? ConceptChangeProjection::read : SearchHit::getContent;
+		final List<Activity> documents = search.stream().map(reader).toList();
+		final List<String> documentIds = documents.stream().map(Activity::getId).toList();
+		final List<Activity> activities = ActivityChunks.collapse(documents);
+		// When filtering the full view only the matching documents hold relevant changes, otherwise the whole activity is returned
+		if (!request.isSummaryOnly() && (!contentFiltered || request.isBrief())) {
+			loadChunks(activities, documentIds, sourceFilter);
+		}
+		return toPage(activities, searchQuery, search, page, request.getCursor());
+	}
+
+	/**
+	 * Finds the activities changing the concept. An oversized activity is returned under its own id
+	 * with the concept changes of the documents holding the concept, a concept change is never split across chunks.
+	 * Total elements counts the documents matched, as for {@link #getActivities(ActivitySearchRequest, Pageable)}.
+	 * @param conceptId concept id
+	 * @param page PageRequest
+	 * @return Activities changing the concept
+	 */
+	public Page<Activity> findByConceptId(Long conceptId, Pageable page) {
+		final NativeQuery searchQuery = new NativeQueryBuilder()
+				.withQuery(QueryHelper.termQuery(Activity.Fields.CONCEPT_CHANGES_CONCEPT_ID, conceptId))
+				.withPageable(page)
+				.build();
+		final SearchHits<Activity> search = elasticsearchOperations.search(searchQuery, Activity.class, activityIndices.getIndex());
+		return toPage(ActivityChunks.collapse(search.stream().map(SearchHit::getContent).toList()), searchQuery, search, page, null);
+	}
+
+	/**
+	 * Passes every activity matching the request to the consumer, in commit date order.
+	 * Activities are read from Elasticsearch a page at a time as the consumer takes them, paging parameters of the request are not used.
+	 * Chunks of oversized activities are combined with their activity before it is passed on.
+	 * @param request ActivitySearchRequest
+	 * @param consumer receives each activity
+	 */
+	public void exportActivities(ActivitySearchRequest request, Consumer<Activity> consumer) {
+		final BoolQuery.Builder query = bool();
+		doBranchFiltering(query, request);
+		doContentFiltering(query, request);
+
+		final boolean contentFiltered = request.getConceptId() != null || request.getComponentId() != null;
 		if (request.isSummaryOnly()) {
-			queryBuilder.withSourceFilter(new FetchSourceFilter(true, null, new String[]{Activity.Fields.CONCEPT_CHANGES}));
+			query.mustNot(QueryHelper.existsQuery(Activity.Fields.PARENT_ID));
+		}
+		final boolean projected = contentFiltered && !request.isSummaryOnly() && !request.isBrief();
+		final FetchSourceFilter sourceFilter = getSourceFilter(request, projected);
+		// Chunks share the branch and commit date of their activity so are read next to it.
+		// Use 1000 for anything but summaries because each activity doc can hold all changes which can be very large.
+		final NativeQueryBuilder queryBuilder = new NativeQueryBuilder().withQuery(QueryHelper.toQuery(query))
+				.withPageable(PageRequest.of(0, request.isSummaryOnly() ? 10_000 : 1_000, Sort.by(Activity.Fields.COMMIT_DATE, Activity.Fields.BRANCH)));
+		if (sourceFilter != null) {
+			queryBuilder.withSourceFilter(sourceFilter);
+		}
+		final NativeQuery searchQuery = queryBuilder.withRoute(getRouting(request)).build();
+		if (projected) {
+			getProjection(request).addTo(searchQuery);
+		}
+
+		final Function<SearchHit<Activity>, Activity> reader = projected ? ConceptChangeProjection::read : SearchHit::getContent;
+		// Brief activities filtered by content include the concept changes of chunks which did not match
+		final boolean loadOtherChunks = contentFiltered && request.isBrief();
+		final Consumer<List<Activity>> documentsConsumer = documents -> {
+			final List<String> documentIds = documents.stream().map(Activity::getId).toList();
+			final List<Activity> activities = ActivityChunks.collapse(documents);
+			if (loadOtherChunks) {
+				loadChunks(activities, documentIds, sourceFilter);
+			}
+			activities.forEach(consumer);
+		};
+		try (SearchHitsIterator<Activity> stream = elasticsearchOperations.searchForStream(searchQuery, Activity.class, getSearchIndex(searchQuery, request))) {
+			List<Activity> documents = new ArrayList<>();
+			while (stream.hasNext()) {
+				final Activity document = reader.apply(stream.next());
+				if (!documents.isEmpty() && !documents.get(0).equals(document)) {
+					documentsConsumer.accept(documents);
+					documents = new ArrayList<>();
+				}
+				documents.add(document);
+			}
+			if (!documents.isEmpty()) {
+				documentsConsumer.accept(documents);
+			}
+		}
+	}
+
+	private FetchSourceFilter getSourceFilter(ActivitySearchRequest request, boolean projected) {
+		if (request.isSummaryOnly()) {
+			return new FetchSourceFilter(true, null, new String[]{Activity.Fields.CONCEPT_CHANGES});
 		} else if (request.isBrief()) {
-			queryBuilder.withSourceFilter(new FetchSourceFilter(true, null, new String[]{Activity.Fields.CONCEPT_CHANGES_COMPONENT_CHANGES}));
+			return new FetchSourceFilter(true, null, new String[]{Activity.Fields.CONCEPT_CHANGES_COMPONENT_CHANGES});
+		} else if (projected) {
+			return ConceptChangeProjection.WITHOUT_CONCEPT_CHANGES;
 		}
+		return null;
+	}
 
-		final SearchHits<Activity> search = elasticsearchOperations.search(queryBuilder.withPageable(page).build(), Activity.class);
+	private ConceptChangeProjection getProjection(ActivitySearchRequest request) {
+		final ConceptChangeProjection projection = new ConceptChangeProjection();
+		if (request.getConceptId() != null) {
+			projection.conceptIds(List.of(request.getConceptId()));
+		}
+		if (request.getComponentId() != null) {
+			projection.componentId(request.getComponentId());
+		}
+		return projection;
+	}
+
+	/**
+	 * @param activityId id of the activity
+	 * @return the activity with the concept changes from all of its chunks, or null if not found
+	 */
+	public Activity findById(String activityId) {
+		final Activity activity;
+		if (activityIndices.isPartitioned() || activityIndices.isRouted()) {
+			// Get by id can not read through an alias of several partitions, or find a routed activity without its routing
+			final SearchHit<Activity> hit = elasticsearchOperations.searchOne(new NativeQueryBuilder().withQuery(QueryHelper.idsQuery(List.of(activityId))).build(), Activity.class);
+			activity = hit != null ? hit.getContent() : null;
+		} else {
+			activity = elasticsearchOperations.get(activityId, Activity.class);
+		}
+		if (activity == null) {
+			return null;
+		}
+		final List<Activity> activities = ActivityChunks.collapse(List.of(activity));
+		loadChunks(activities, List.of(activityId), null);
+		return activities.get(0);
+	}
+
+	/**
+	 * Finds the latest activity on each branch, collapsing the results on branch so that many branches take one request.
+	 * @param branches branch paths
+	 * @param summaryOnly leave out the concept changes
+	 * @return the latest activity of each branch with any activity, in the order of the branches given
+	 */
+	public List<Activity> findLatestOnBranches(List<String> branches, boolean summaryOnly) {
+		final FetchSourceFilter sourceFilter = summaryOnly ? new FetchSourceFilter(true, null, new String[]{Activity.Fields.CONCEPT_CHANGES}) : null;
+		final Map<String, Activity> latestByBranch = new HashMap<>();
+		for (List<String> batch : Lists.partition(new ArrayList<>(new LinkedHashSet<>(branches)), LATEST_ON_BRANCHES_BATCH_SIZE)) {
+			// Chunks share the commit date of their activity, so the activity is always one of the latest documents
+			final NativeQueryBuilder queryBuilder = new NativeQueryBuilder()
+					.withQuery(QueryHelper.toQuery(bool()
+							.must(QueryHelper.termsQuery(Activity.Fields.BRANCH, batch))
+							.mustNot(QueryHelper.existsQuery(Activity.Fields.PARENT_ID))))
+					.withFieldCollapse(FieldCollapse.of(collapse -> collapse.field(Activity.Fields.BRANCH)))
+					.withPageable(PageRequest.of(0, batch.size(), Sort.by(Activity.Fields.COMMIT_DATE).descending()));
+			if (sourceFilter != null) {
+				queryBuilder.withSourceFilter(sourceFilter);
+			}
+			elasticsearchOperations.search(queryBuilder.build(), Activity.class)
+					.forEach(hit -> latestByBranch.putIfAbsent(hit.getContent().getBranch(), hit.getContent()));
+		}
+		if (!summaryOnly) {
+			final List<Activity> activities = new ArrayList<>(latestByBranch.values());
+			loadChunks(activities, activities.stream().map(Activity::getId).toList(), null);
+		}
+		return branches.stream().map(latestByBranch::get).filter(Objects::nonNull).toList();
+	}
 
-		Page<Activity> results = new PageImpl<>(search.stream().map(SearchHit::getContent).toList(), page, search.getTotalHits());
-		if (!request.isBrief() && !request.isSummaryOnly()) {
-			filterResultsBy(request.getConceptId(), request.getComponentId(), results);
+	/**
+	 * Adds the concept changes from the documents of each activity which have not already been loaded.
+	 * @param activities activities, chunks already collapsed into their activity
+	 * @param loadedIds ids of the activity and chunk documents already loaded
+	 * @param sourceFilter source filter to use when loading the other documents, may be null
+	 */
+	private void loadChunks(List<Activity> activities, List<String> loadedIds, FetchSourceFilter sourceFilter) {
+		if (activities.isEmpty()) {
+			return;
+		}
+		final Map<String, Activity> activityMap = new HashMap<>();
+		activities.forEach(activity -> activityMap.put(activity.getId(), activity));
+
+		final BoolQuery.Builder query = bool()
+				.should(QueryHelper.termsQuery(Activity.Fields.PARENT_ID, activityMap.keySet()))
+				.should(QueryHelper.idsQuery(activityMap.keySet()))
+				.mustNot(QueryHelper.idsQuery(loadedIds));
+		NativeQueryBuilder queryBuilder = new NativeQueryBuilder().withQuery(QueryHelper.toQuery(query))
+				.withPageable(PageRequest.of(0, 100));
+		if (sourceFilter != null) {
+			queryBuilder.withSourceFilter(sourceFilter);
+		}
+		try (SearchHitsIterator<Activity> stream = elasticsearchOperations.searchForStream(queryBuilder.build(), Activity.class)) {
+			stream.forEachRemaining(hit -> {
+				final Activity document = hit.getContent();
+				final Activity activity = activityMap.get(document.getParentId() != null ? document.getParentId() : document.getId());
+				if (activity != null) {
+					ActivityChunks.addConceptChanges(activity, document);
+				}
+			});
 		}
-		return results;
 	}
 
 	private void doBranchFiltering(BoolQuery.Builder query, ActivitySearchRequest request) {
@@ -64,22 +290,30 @@ public class ActivityService {
 		if (request.getOnBranch() != null && !request.getOnBranch().isEmpty()) {
 			BoolQuery.Builder boolQuery = bool();
 			// One of these conditions must be true.  Either
-			boolQuery.should(QueryHelper.termQuery(Activity.Fields.BRANCH, request.getOnBranch()))
-					// Or
-					.should(QueryHelper.termQuery(Activity.Fields.HIGHEST_PROMOTED_BRANCH, request.getOnBranch()));
-			//Are we also checking for activity that might have been promoted higher, elsewhere?
+			boolQuery.should(QueryHelper.termQuery(Activity.Fields.BRANCH, request.getOnBranch()));
+			// Or
 			if (request.isIncludeHigherPromotions()) {
-				for (String higherBranch : BranchUtils.getAncestorBranches(request.getOnBranch())) {
-					boolQuery.should(QueryHelper.termQuery(Activity.Fields.HIGHEST_PROMOTED_BRANCH, higherBranch));
-				}
+				// Also checking for activity that might have been promoted higher, elsewhere
+				final Set<String> promotedBranches = BranchUtils.getAncestorBranches(request.getOnBranch());
+				promotedBranches.add(request.getOnBranch());
+				boolQuery.should(QueryHelper.termsQuery(Activity.Fields.HIGHEST_PROMOTED_BRANCH, promotedBranches));
+			} else {
+				boolQuery.should(QueryHelper.termQuery(Activity.Fields.HIGHEST_PROMOTED_BRANCH, request.getOnBranch()));
 			}
 			query.must(List.of(new Query(boolQuery.build())));
 		}
 		if (request.getSourceBranch() != null && !request.getSourceBranch().isEmpty()) {
 			query.must(QueryHelper.termQuery(Activity.Fields.SOURCE_BRANCH, request.getSourceBranch()));
 		}
-		if (request.getBranchPrefix() != null && !request.getBranchPrefix().isEmpty()) {
-			query.must(QueryHelper.prefixQuery(Activity.Fields.BRANCH, request.getBranchPrefix()));
+		final String branchPrefix = request.getBranchPrefix();
+		if (branchPrefix != null && !branchPrefix.isEmpty()) {
+			if (branchPrefix.endsWith("/") && branchPrefix.length() > 1) {
+				// Descendants of a branch, by prefix if the branch path fields have not been backfilled yet
+				query.must(withoutBranchPathFieldsFallback(QueryHelper.termQuery(Activity.Fields.ANCESTOR_BRANCHES, branchPrefix.substring(0, branchPrefix.length() - 1)),
+						QueryHelper.prefixQuery(Activity.Fields.BRANCH, branchPrefix), false));
+			} else {
+				query.must(QueryHelper.prefixQuery(Activity.Fields.BRANCH, branchPrefix));
+			}
 		}
 	}
 
@@ -111,8 +345,26 @@ public class ActivityService {
 		}
 
 		if (request.isIntOnly()) {
-			query.mustNot(QueryHelper.regexQuery(Activity.Fields.BRANCH, ".*SNOMEDCT-.*"));
+			query.must(withoutBranchPathFieldsFallback(QueryHelper.termQuery(Activity.Fields.CODE_SYSTEM, Activity.INTERNATIONAL_CODE_SYSTEM),
+					QueryHelper.regexQuery(Activity.Fields.BRANCH, ".*SNOMEDCT-.*"), true));
+		}
+	}
+
+	/**
+	 * Matches documents with the branch path fields by the stored field query,
+	 * and documents created before those fields existed, and not yet backfilled, by the branch path query.
+	 * @param negateBranchQuery match documents without the fields when the branch query does not match
+	 */
+	private static Query withoutBranchPathFieldsFallback(Query fieldQuery, Query branchQuery, boolean negateBranchQuery) {
+		final BoolQuery.Builder withoutFields = bool().mustNot(QueryHelper.existsQuery(Activity.Fields.CODE_SYSTEM));
+		if (negateBranchQuery) {
+			withoutFields.mustNot(branchQuery);
+		} else {
+			withoutFields.must(branchQuery);
 		}
+		return QueryHelper.toQuery(bool()
+				.should(fieldQuery)
+				.should(QueryHelper.toQuery(withoutFields)));
 	}
 
 
@@ -125,6 +377,13 @@ public class ActivityService {
 	 * @return Matched activities
 	 */
 	public Page<Activity> findActivitiesBy(List<Long> conceptIds, ActivityType activityType, String user, boolean summaryOnly, Pageable page) {
+		return findActivitiesBy(conceptIds, activityType, user, summaryOnly, page, null);
+	}
+
+	/**
+	 * @param cursor null to page by page number, otherwise {@link ActivityCursor#START} or the next cursor of the previous page
+	 */
+	public Page<Activity> findActivitiesBy(List<Long> conceptIds, ActivityType activityType, String user, boolean summaryOnly, Pageable page, String cursor) {
 		final BoolQuery.Builder query = bool();
 
 		if (conceptIds != null && !conceptIds.isEmpty()) {
@@ -137,26 +396,34 @@ public class ActivityService {
 			query.must(QueryHelper.termQuery(Activity.Fields.USERNAME, user));
 		}
 		NativeQueryBuilder queryBuilder = new NativeQueryBuilder().withQuery(QueryHelper.toQuery(query));
-		if (summaryOnly) {
+		if (conceptIds != null) {
+			// Only the changes to the concepts requested are returned
+			queryBuilder.withSourceFilter(ConceptChangeProjection.WITHOUT_CONCEPT_CHANGES);
+		} else if (summaryOnly) {
 			queryBuilder.withSourceFilter(new FetchSourceFilter(true, null, new String[]{Activity.Fields.CONCEPT_CHANGES_COMPONENT_CHANGES}));
 		}
-		final SearchHits<Activity> search = elasticsearchOperations.search(queryBuilder.withPageable(page).build(), Activity.class);
-
-		Page<Activity> results = new PageImpl<>(search.stream().map(SearchHit::getContent).toList(), page, search.getTotalHits());
-
-		// Filter out concept ids not relevant
-		for (Activity activity : results.getContent()) {
-			if (conceptIds != null) {
-				Set<ConceptChange> relevantChanges = activity.getConceptChanges().stream()
-						.filter(change -> conceptIds.contains(Long.parseLong(change.getConceptId())))
-						.collect(Collectors.toSet());
-				activity.setConceptChanges(relevantChanges);
+		final NativeQuery searchQuery = buildPagedQuery(queryBuilder, page, cursor);
+		if (conceptIds != null) {
+			final ConceptChangeProjection projection = new ConceptChangeProjection().conceptIds(conceptIds);
+			if (summaryOnly) {
+				projection.conceptOnly();
 			}
+			projection.addTo(searchQuery);
 		}
-		return results;
+		final SearchHits<Activity> search = elasticsearchOperations.search(searchQuery, Activity.class);
+
+		final Function<SearchHit<Activity>, Activity> reader = conceptIds != null ? ConceptChangeProjection::read : SearchHit::getContent;
+		return toPage(ActivityChunks.collapse(search.stream().map(reader).toList()), searchQuery, search, page, cursor);
 	}
 
 	public Page<Activity> findActivitiesBy(String componentSubType, String usersStr, String branchesStr, Date since, Pageable page) {
+		return findActivitiesBy(componentSubType, usersStr, branchesStr, since, page, null);
+	}
+
+	/**
+	 * @param cursor null to page by page number, otherwise {@link ActivityCursor#START} or the next cursor of the previous page
+	 */
+	public Page<Activity> findActivitiesBy(String componentSubType, String usersStr, String branchesStr, Date since, Pageable page, String cursor) {
 		final BoolQuery.Builder query = bool();
 
 		query.must(QueryHelper.termQuery(Activity.Fields.ACTIVITY_TYPE, ActivityType.CONTENT_CHANGE.name()));
@@ -186,48 +453,74 @@ public class ActivityService {
 		}
 
 		NativeQueryBuilder queryBuilder = new NativeQueryBuilder().withQuery(QueryHelper.toQuery(query));
+		if (componentSubType != null) {
+			// Only the component changes of the subtype requested are returned
+			queryBuilder.withSourceFilter(ConceptChangeProjection.WITHOUT_CONCEPT_CHANGES);
+		}
+		final NativeQuery searchQuery = buildPagedQuery(queryBuilder, page, cursor);
+		if (componentSubType != null) {
+			new ConceptChangeProjection().componentSubType(componentSubType).addTo(searchQuery);
+		}
 
-		final SearchHits<Activity> search = elasticsearchOperations.search(queryBuilder.withPageable(page).build(), Activity.class);
-
-		//Now remove any component change that isn't the subtype we're looking for
-		search.stream().map(SearchHit::getContent).forEach(activity -> {
-			Set<ConceptChange> conceptChanges = new HashSet<>();
-			for (ConceptChange conceptChange : activity.getConceptChanges()) {
-				Set<ComponentChange> componentChanges = conceptChange.getComponentChanges().stream()
-						.filter(componentChange -> componentSubType.equals(componentChange.getComponentSubType()))
-						.collect(Collectors.toSet());
-				if (!componentChanges.isEmpty()) {
-					conceptChange.setComponentChanges(componentChanges);
-					conceptChanges.add(conceptChange);
-				}
-			}
-			activity.setConceptChanges(conceptChanges);
-		});
+		final IndexCoordinates index = cursor == null && since != null ? activityIndices.getSearchIndex(searchQuery, since.getTime(), null) : activityIndices.getIndex();
+		final SearchHits<Activity> search = elasticsearchOperations.search(searchQuery, Activity.class, index);
 
-		return new PageImpl<>(search.stream().map(SearchHit::getContent).toList(), page, search.getTotalHits());
+		final Function<SearchHit<Activity>, Activity> reader = componentSubType != null ? ConceptChangeProjection::read : SearchHit::getContent;
+		return toPage(ActivityChunks.collapse(search.stream().map(reader).toList()), searchQuery, search, page, cursor);
 	}
 
-	private void filterResultsBy(Long conceptId, String componentId, Page<Activity> activities) {
-		for (Activity activity : activities.getContent()) {
-			if (conceptId != null) {
-				Set<ConceptChange> relevantChanges = activity.getConceptChanges().stream()
-						.filter(change -> conceptId.equals(Long.parseLong(change.getConceptId())))
-						.collect(Collectors.toSet());
-				activity.setConceptChanges(relevantChanges);
-			}
-			if (activity.getConceptChanges() != null && componentId != null) {
-				Set<ConceptChange> conceptChanges = new HashSet<>();
-				for (ConceptChange conceptChange : activity.getConceptChanges()) {
-					Set<ComponentChange> componentChanges = conceptChange.getComponentChanges().stream()
-							.filter(componentChange -> componentId.equals(componentChange.getComponentId()))
-							.collect(Collectors.toSet());
-					if (!componentChanges.isEmpty()) {
-						conceptChange.setComponentChanges(componentChanges);
-						conceptChanges.add(conceptChange);
-					}
-				}
-				activity.setConceptChanges(conceptChanges);
-			}
+	// Only the partitions which can hold the commit dates requested are searched
+	private IndexCoordinates getSearchIndex(NativeQuery query, ActivitySearchRequest request) {
+		if (request.getCommitDate() != null) {
+			return activityIndices.getSearchIndex(query, request.getCommitDate().getTime(), request.getCommitDate().getTime());
+		}
+		return activityIndices.getSearchIndex(query, request.getFromDate() != null ? request.getFromDate().getTime() : null,
+				request.getToDate() != null ? request.getToDate().getTime() : null);
+	}
+
+	// Searches for one branch only read the shard of its code system, activities promoted to the branch are in the same code system
+	private String getRouting(ActivitySearchRequest request) {
+		if (request.getOriginalBranch() != null && !request.getOriginalBranch().isEmpty()) {
+			return activityIndices.getRouting(request.getOriginalBranch());
+		}
+		if (request.getOnBranch() != null && !request.getOnBranch().isEmpty() && !request.isIncludeHigherPromotions()) {
+			return activityIndices.getRouting(request.getOnBranch());
+		}
+		return null;
+	}
+
+	/**
+	 * Pages by page number, or with search_after over a point in time when a cursor is given.
+	 * A point in time is opened for the first page of a cursor.
+	 */
+	private NativeQuery buildPagedQuery(NativeQueryBuilder queryBuilder, Pageable page, String cursor) {
+		if (cursor == null) {
+			return queryBuilder.withPageable(page).build();
+		}
+		final ActivityCursor activityCursor = ActivityCursor.decode(cursor);
+		final String pointInTimeId = activityCursor != null ? activityCursor.getPointInTimeId()
+				: elasticsearchOperations.openPointInTime(activityIndices.getIndex(), cursorKeepAlive);
+		queryBuilder.withPageable(PageRequest.of(0, page.getPageSize(), page.getSort()))
+				.withPointInTime(new PointInTime(pointInTimeId, cursorKeepAlive));
+		if (activityCursor != null) {
+			queryBuilder.withSearchAfter(activityCursor.getSearchAfter());
+		}
+		return queryBuilder.build();
+	}
+
+	private Page<Activity> toPage(List<Activity> activities, NativeQuery query, SearchHits<Activity> search, Pageable page, String cursor) {
+		if (cursor == null) {
+			return new PageImpl<>(activities, page, search.getTotalHits());
+		}
+		final String pointInTimeId = search.getPointInTimeId() != null ? search.getPointInTimeId() : query.getPointInTime().id();
+		String nextCursor = null;
+		if (search.getSearchHits().size() < page.getPageSize()) {
+			// Last page
+			elasticsearchOperations.closePointInTime(pointInTimeId);
+		} else {
+			final List<Object> lastSortValues = search.getSearchHit(search.getSearchHits().size() - 1).getSortValues();
+			nextCursor = new ActivityCursor(pointInTimeId, lastSortValues).encode();
 		}
+		return new CursorPage<>(activities, PageRequest.of(0, page.getPageSize(), page.getSort()), search.getTotalHits(), nextCursor);
 	}
 }
@@ -0,0 +1,80 @@
+package org.ihtsdo.otf.traceabilityservice.service;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.ihtsdo.otf.traceabilityservice.domain.DiffReport;
+
+import java.util.Date;
+
+/**
+ * Archive diff run in the background, see {@link ArchiveDiffJobService}.
+ */
+public class ArchiveDiffJob {
+
+	private final String id;
+	private final String branch;
+	private final Rf2Selection selection;
+	private final boolean enriched;
+	private final Date created;
+	private final ArchiveDiffProgress progress = new ArchiveDiffProgress();
+	private volatile Date finished;
+	private volatile DiffReport result;
+	private volatile String errorMessage;
+
+	ArchiveDiffJob(String id, String branch, Rf2Selection selection, boolean enriched) {
+		this.id = id;
+		this.branch = branch;
+		this.selection = selection;
+		this.enriched = enriched;
+		this.created = new Date();
+	}
+
+	void complete(DiffReport result) {
+		this.result = result;
+		progress.setPhase(ArchiveDiffProgress.Phase.COMPLETED);
+		finished = new Date();
+	}
+
+	void fail(String errorMessage) {
+		this.errorMessage = errorMessage;
+		progress.setPhase(ArchiveDiffProgress.Phase.FAILED);
+		finished = new Date();
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getBranch() {
+		return branch;
+	}
+
+	public Rf2Selection getSelection() {
+		return selection;
+	}
+
+	public boolean isEnriched() {
+		return enriched;
+	}
+
+	public Date getCreated() {
+		return created;
+	}
+
+	public Date getFinished() {
+		return finished;
+	}
+
+	public ArchiveDiffProgress getProgress() {
+		return progress;
+	}
+
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+
+	// Fetched separately once the job has completed
+	@JsonIgnore
+	public DiffReport getResult() {
+		return result;
+	}
+}
@@ -0,0 +1,150 @@
+package org.ihtsdo.otf.traceabilityservice.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs archive diffs in the background so that diffs of release size archives do not hold a request open.
+ * The archive is spooled to disk when the job is submitted, only a few jobs run at once and a bounded number wait,
+ * so concurrent release validations can not exhaust the heap. A full queue is checked before the archive is spooled.
+ * Finished jobs and their results are kept for a while then removed, only the most recently finished are kept when there are many.
+ * Jobs and their results are held in memory by the instance they were submitted to and are lost when it stops.
+ * Results can be as large as the archive so they are not stored. With more than one instance, requests for a job must be routed
+ * to the instance which accepted it, e.g. with sticky sessions on the load balancer, or go to a single instance.
+ */
+@Service
+public class ArchiveDiffJobService {
+
+	@Autowired
+	private ArchiveDiffService archiveDiffService;
+
+	@Value("${traceability.report.archive-diff.jobs.threads}")
+	private int threads;
+
+	@Value("${traceability.report.archive-diff.jobs.max-queued}")
+	private int maxQueued;
+
+	@Value("${traceability.report.archive-diff.jobs.ttl-minutes}")
+	private long ttlMinutes;
+
+	@Value("${traceability.report.archive-diff.jobs.max-finished}")
+	private int maxFinished;
+
+	private ThreadPoolExecutor jobExecutor;
+
+	private final Map<String, ArchiveDiffJob> jobs = new ConcurrentHashMap<>();
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+
+	@PostConstruct
+	public void init() {
+		jobExecutor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(maxQueued));
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		for (Runnable queued : jobExecutor.shutdownNow()) {
+			if (queued instanceof QueuedDiff queuedDiff) {
+				queuedDiff.job.fail("Stopped before the diff started.");
+				deleteArchive(queuedDiff.archiveFile);
+			}
+		}
+	}
+
+	/**
+	 * @param branch branch of the change summary report
+	 * @param rf2Archive archive, read fully before returning
+	 * @param selection files and rows of the archive which are changes
+	 * @param enrich add the concept and last commit of each component in the diff
+	 * @return the job, queued
+	 * @throws RejectedExecutionException if too many jobs are already waiting
+	 */
+	public ArchiveDiffJob submit(String branch, InputStream rf2Archive, Rf2Selection selection, boolean enrich) throws IOException {
+		removeExpiredJobs();
+		// Refused before the archive is spooled, the executor still refuses a job when another takes the last place first
+		if (jobExecutor.getQueue().remainingCapacity() == 0) {
+			throw new RejectedExecutionException("Too many archive diff jobs waiting.");
+		}
+		final Path archiveFile = archiveDiffService.spool(rf2Archive);
+		final ArchiveDiffJob job = new ArchiveDiffJob(UUID.randomUUID().toString(), branch, selection, enrich);
+		jobs.put(job.getId(), job);
+		try {
+			jobExecutor.execute(new QueuedDiff(job, archiveFile));
+		} catch (RejectedExecutionException e) {
+			jobs.remove(job.getId());
+			Files.deleteIfExists(archiveFile);
+			throw e;
+		}
+		logger.info("Archive diff job {} on {} queued", job.getId(), branch);
+		return job;
+	}
+
+	/**
+	 * @return the job or null if there is no such job, it has expired or too many jobs have finished since
+	 */
+	public ArchiveDiffJob getJob(String jobId) {
+		removeExpiredJobs();
+		return jobs.get(jobId);
+	}
+
+	private void run(ArchiveDiffJob job, Path archiveFile) {
+		try {
+			job.complete(archiveDiffService.diff(job.getBranch(), archiveFile, job.getSelection(), job.getProgress(), job.isEnriched()));
+			logger.info("Archive diff job {} on {} completed", job.getId(), job.getBranch());
+		} catch (Exception e) {
+			logger.error("Archive diff job {} on {} failed", job.getId(), job.getBranch(), e);
+			job.fail(e.getMessage());
+		} finally {
+			deleteArchive(archiveFile);
+			removeExpiredJobs();
+		}
+	}
+
+	private void deleteArchive(Path archiveFile) {
+		try {
+			Files.deleteIfExists(archiveFile);
+		} catch (IOException e) {
+			logger.warn("Failed to delete archive {}", archiveFile, e);
+		}
+	}
+
+	private void removeExpiredJobs() {
+		final long expiredBefore = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(ttlMinutes);
+		jobs.values().removeIf(job -> job.getFinished() != null && job.getFinished().getTime() < expiredBefore);
+		// Results are held in memory, only the most recently finished are kept
+		final List<ArchiveDiffJob> finished = new ArrayList<>(jobs.values().stream().filter(job -> job.getFinished() != null).toList());
+		if (finished.size() > maxFinished) {
+			finished.sort(Comparator.comparing(ArchiveDiffJob::getFinished));
+			finished.subList(0, finished.size() - maxFinished).forEach(job -> jobs.remove(job.getId()));
+		}
+	}
+
+	// Keeps the spooled archive of a job waiting in the queue, so that it can be deleted if the job never runs
+	private final class QueuedDiff implements Runnable {
+
+		private final ArchiveDiffJob job;
+		private final Path archiveFile;
+
+		private QueuedDiff(ArchiveDiffJob job, Path archiveFile) {
+			this.job = job;
+			this.archiveFile = archiveFile;
+		}
+
+		@Override
+		public void run() {
+			ArchiveDiffJobService.this.run(job, archiveFile);
+		}
+	}
+}
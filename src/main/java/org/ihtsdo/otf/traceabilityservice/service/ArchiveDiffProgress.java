@@ -0,0 +1,66 @@
+package org.ihtsdo.otf.traceabilityservice.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Progress of an archive diff, updated by the threads doing the diff and read while it runs.
+ */
+public class ArchiveDiffProgress {
+
+	public enum Phase {
+		QUEUED, SELECTING_CHANGES, READING_ARCHIVE, RESOLVING_CONCEPTS, COMPLETED, FAILED
+	}
+
+	private volatile Phase phase = Phase.QUEUED;
+	private volatile int storeComponents;
+	private volatile int entries;
+	private final AtomicInteger entriesRead = new AtomicInteger();
+	private final LongAdder rowsParsed = new LongAdder();
+
+	public Phase getPhase() {
+		return phase;
+	}
+
+	void setPhase(Phase phase) {
+		this.phase = phase;
+	}
+
+	/**
+	 * @return number of components expected in the delta, known once the changes have been selected
+	 */
+	public int getStoreComponents() {
+		return storeComponents;
+	}
+
+	void setStoreComponents(int storeComponents) {
+		this.storeComponents = storeComponents;
+	}
+
+	/**
+	 * @return number of RF2 files to read in the archive, known once reading starts
+	 */
+	public int getEntries() {
+		return entries;
+	}
+
+	void setEntries(int entries) {
+		this.entries = entries;
+	}
+
+	public int getEntriesRead() {
+		return entriesRead.get();
+	}
+
+	void entryRead() {
+		entriesRead.incrementAndGet();
+	}
+
+	public long getRowsParsed() {
+		return rowsParsed.sum();
+	}
+
+	LongAdder getRowsParsedCounter() {
+		return rowsParsed;
+	}
+}
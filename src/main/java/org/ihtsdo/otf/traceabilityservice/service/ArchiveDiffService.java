@@ -1,76 +1,203 @@
 package org.ihtsdo.otf.traceabilityservice.service;
 
-import com.google.common.collect.Sets;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.ihtsdo.otf.traceabilityservice.domain.Activity;
 import org.ihtsdo.otf.traceabilityservice.domain.ChangeSummaryReport;
 import org.ihtsdo.otf.traceabilityservice.domain.ComponentType;
 import org.ihtsdo.otf.traceabilityservice.domain.DiffReport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.zip.ZipFile;
 
 @Service
 public class ArchiveDiffService {
 
+	@Autowired
+	private ReportService reportService;
+
+	@Autowired
+	private DiffReportEnrichmentService enrichmentService;
+
+	@Value("${traceability.report.archive-diff.threads}")
+	private int threads;
+
+	private ExecutorService fileExecutor;
+
 	private final Logger logger = LoggerFactory.getLogger(getClass());
 
-	public DiffReport diff(ChangeSummaryReport reportFromStore, InputStream rf2DeltaArchive) throws IOException {
-		ChangeSummaryReport reportFromArchive = readArchive(rf2DeltaArchive);
+	@PostConstruct
+	public void init() {
+		fileExecutor = Executors.newFixedThreadPool(threads);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		fileExecutor.shutdown();
+	}
 
-		final Map<ComponentType, Set<String>> storeChanges = reportFromStore.getComponentChanges();
-		final Map<ComponentType, Set<String>> deltaChanges = reportFromArchive.getComponentChanges();
+	/**
+	 * Diff of the default change summary report of the branch against an RF2 archive.
+	 * The report is streamed into the diff index rather than collected into sets of ids.
+	 * @param selection files and rows of the archive which are changes
+	 * @param enrich add the concept and last commit of each component in the diff
+	 */
+	public DiffReport diff(String branch, InputStream rf2Archive, Rf2Selection selection, boolean enrich) throws IOException {
+		final Path archiveFile = spool(rf2Archive);
+		try {
+			return diff(branch, archiveFile, selection, new ArchiveDiffProgress(), enrich);
+		} finally {
+			Files.deleteIfExists(archiveFile);
+		}
+	}
 
-		final Map<ComponentType, Set<String>> missingFromDelta = new EnumMap<>(ComponentType.class);
-		final Map<ComponentType, Set<String>> missingFromStore = new EnumMap<>(ComponentType.class);
+	/**
+	 * @param archiveFile RF2 archive, see {@link #spool(InputStream)}
+	 * @param selection files and rows of the archive which are changes
+	 * @param progress updated as the diff runs
+	 * @param enrich add the concept and last commit of each component in the diff
+	 */
+	public DiffReport diff(String branch, Path archiveFile, Rf2Selection selection, ArchiveDiffProgress progress, boolean enrich) throws IOException {
+		progress.setPhase(ArchiveDiffProgress.Phase.SELECTING_CHANGES);
+		final Rf2DeltaDiff deltaDiff = new Rf2DeltaDiff(selection);
+		// Only kept when enriching, the diff index does not hold concept ids
+		final Map<String, String> componentToConceptIdMap = new HashMap<>();
+		reportService.streamChangeSummaryReport(branch, null, null, true, true, true, new ChangeSummaryReportListener() {
+			@Override
+			public void componentChange(ComponentType componentType, String componentId, String conceptId) {
+				deltaDiff.addStoreComponent(componentType, componentId);
+				if (enrich) {
+					componentToConceptIdMap.put(componentId, conceptId);
+				}
+			}
 
-		putDiff(missingFromDelta, ComponentType.CONCEPT, storeChanges, deltaChanges);
-		putDiff(missingFromDelta, ComponentType.DESCRIPTION, storeChanges, deltaChanges);
-		putDiff(missingFromDelta, ComponentType.RELATIONSHIP, storeChanges, deltaChanges);
-		putDiff(missingFromDelta, ComponentType.REFERENCE_SET_MEMBER, storeChanges, deltaChanges);
+			@Override
+			public void changeNotAtTaskLevel(Activity activity) {
+				// Not part of the diff
+			}
+		});
+		final DiffReport report = diff(deltaDiff, archiveFile, selection, progress);
+		if (!enrich) {
+			return report;
+		}
+		progress.setPhase(ArchiveDiffProgress.Phase.RESOLVING_CONCEPTS);
+		return enrichmentService.enrich(report, componentToConceptIdMap, branch);
+	}
 
-		putDiff(missingFromStore, ComponentType.CONCEPT, deltaChanges, storeChanges);
-		putDiff(missingFromStore, ComponentType.DESCRIPTION, deltaChanges, storeChanges);
-		putDiff(missingFromStore, ComponentType.RELATIONSHIP, deltaChanges, storeChanges);
-		putDiff(missingFromStore, ComponentType.REFERENCE_SET_MEMBER, deltaChanges, storeChanges);
+	public DiffReport diff(ChangeSummaryReport reportFromStore, InputStream rf2DeltaArchive) throws IOException {
+		return diff(reportFromStore, rf2DeltaArchive, Rf2Selection.DELTA, false);
+	}
 
-		return new DiffReport(missingFromDelta, missingFromStore);
+	/**
+	 * @param selection files and rows of the archive which are changes
+	 * @param enrich add the concept and last commit of each component in the diff, using the component to concept map of the report where it has one
+	 */
+	public DiffReport diff(ChangeSummaryReport reportFromStore, InputStream rf2Archive, Rf2Selection selection, boolean enrich) throws IOException {
+		final Rf2DeltaDiff deltaDiff = new Rf2DeltaDiff(selection);
+		reportFromStore.getComponentChanges().forEach((componentType, ids) -> ids.forEach(id -> deltaDiff.addStoreComponent(componentType, id)));
+		final Path archiveFile = spool(rf2Archive);
+		final DiffReport report;
+		try {
+			report = diff(deltaDiff, archiveFile, selection, new ArchiveDiffProgress());
+		} finally {
+			Files.deleteIfExists(archiveFile);
+		}
+		if (!enrich) {
+			return report;
+		}
+		final Map<String, String> componentToConceptIdMap = reportFromStore.getComponentToConceptIdMap();
+		return enrichmentService.enrich(report, componentToConceptIdMap != null ? componentToConceptIdMap : Collections.emptyMap(), null);
 	}
 
-	private void putDiff(Map<ComponentType, Set<String>> results, ComponentType type, Map<ComponentType, Set<String>> leftSide, Map<ComponentType, Set<String>> rightSide) {
-		results.put(type, Sets.difference(leftSide.getOrDefault(type, Collections.emptySet()), rightSide.getOrDefault(type, Collections.emptySet())));
+	/**
+	 * Copies the archive to a temporary file so that its entries can be read independently. The caller deletes the file.
+	 */
+	public Path spool(InputStream rf2Archive) throws IOException {
+		final Path archiveFile = Files.createTempFile("rf2-", ".zip");
+		try {
+			Files.copy(rf2Archive, archiveFile, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			Files.deleteIfExists(archiveFile);
+			throw e;
+		}
+		return archiveFile;
 	}
 
-	private ChangeSummaryReport readArchive(InputStream rf2DeltaArchive) throws IOException {
-		Map<ComponentType, Set<String>> componentChangesMap = new EnumMap<>(ComponentType.class);
-
-		try (ZipInputStream zipStream = new ZipInputStream(rf2DeltaArchive, StandardCharsets.UTF_8)) {
-			ZipEntry entry;
-			while ((entry = zipStream.getNextEntry()) != null) {
-				BufferedReader reader = new BufferedReader(new InputStreamReader(zipStream));
-				final String header = reader.readLine();
-				logger.info("Reading file {} with header {}", entry.getName(), header);
-				String line;
-				String[] columns;
-				String id;
-				while ((line = reader.readLine()) != null) {
-					columns = line.split("\\t");
-					id = columns[0];
-					ComponentType componentType = ComponentIdUtil.getComponentType(id);
-					if (componentType != null) {
-						componentChangesMap.computeIfAbsent(componentType, type -> new HashSet<>()).add(id);
-					}
+	// Each RF2 file of the release type is scanned concurrently and the scans merged
+	private DiffReport diff(Rf2DeltaDiff deltaDiff, Path archiveFile, Rf2Selection selection, ArchiveDiffProgress progress) throws IOException {
+		logger.info("Scanning RF2 archive of {} bytes for {} store components, {}", Files.size(archiveFile), deltaDiff.size(), selection);
+		progress.setStoreComponents(deltaDiff.size());
+		progress.setPhase(ArchiveDiffProgress.Phase.READING_ARCHIVE);
+		try (ZipFile zipFile = new ZipFile(archiveFile.toFile(), StandardCharsets.UTF_8)) {
+			final List<ZipEntry> releaseFiles = new ArrayList<>();
+			final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+			while (entries.hasMoreElements()) {
+				final ZipEntry entry = entries.nextElement();
+				if (isReleaseFile(entry, selection)) {
+					releaseFiles.add(entry);
+				} else {
+					logger.debug("Skipping {}", entry.getName());
 				}
 			}
+			progress.setEntries(releaseFiles.size());
+			final List<Future<Rf2DeltaDiff.Scan>> futures = new ArrayList<>();
+			for (ZipEntry entry : releaseFiles) {
+				futures.add(fileExecutor.submit(() -> scan(deltaDiff, zipFile, entry, progress)));
+			}
+			return deltaDiff.getReport(getScans(futures));
+		}
+	}
+
+	private Rf2DeltaDiff.Scan scan(Rf2DeltaDiff deltaDiff, ZipFile zipFile, ZipEntry entry, ArchiveDiffProgress progress) throws IOException {
+		logger.info("Reading file {}", entry.getName());
+		final Rf2DeltaDiff.Scan scan = deltaDiff.newScan(progress.getRowsParsedCounter());
+		try (InputStream inputStream = zipFile.getInputStream(entry)) {
+			deltaDiff.scan(inputStream, scan);
+		}
+		progress.entryRead();
+		return scan;
+	}
+
+	private List<Rf2DeltaDiff.Scan> getScans(List<Future<Rf2DeltaDiff.Scan>> futures) throws IOException {
+		final List<Rf2DeltaDiff.Scan> scans = new ArrayList<>();
+		try {
+			for (Future<Rf2DeltaDiff.Scan> future : futures) {
+				scans.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while reading RF2 archive.", e);
+		} catch (ExecutionException e) {
+			futures.forEach(future -> future.cancel(true));
+			if (e.getCause() instanceof IOException ioException) {
+				throw ioException;
+			}
+			if (e.getCause() instanceof RuntimeException runtimeException) {
+				throw runtimeException;
+			}
+			throw new IllegalStateException("Failed to read RF2 archive.", e.getCause());
 		}
-		return new ChangeSummaryReport(componentChangesMap, null);
+		return scans;
+	}
+
+	static boolean isReleaseFile(ZipEntry entry, Rf2Selection selection) {
+		return !entry.isDirectory() && selection.isReleaseFile(entry.getName().substring(entry.getName().lastIndexOf('/') + 1));
 	}
 
 }
@@ -11,6 +11,36 @@ public class BranchUtils {
 	public static boolean isCodeSystemBranch(String branch) {
 		return branch.equals("MAIN") || branch.startsWith("SNOMEDCT-", branch.lastIndexOf("/") + 1);
 	}
+
+	/**
+	 * The lineage of a branch is the lowest code system branch in its path, or the project branch directly below it.
+	 * Commits on the same lineage depend on each other through rebase and promotion, commits on different lineages do not.
+	 * e.g. MAIN/PROJECT/PROJECT-1 -> MAIN/PROJECT, MAIN/SNOMEDCT-BE/BE/BE-1 -> MAIN/SNOMEDCT-BE/BE, MAIN -> MAIN
+	 * @param branchPath branch path
+	 * @return lineage branch path
+	 */
+	public static String getLineageBranch(String branchPath) {
+		int codeSystemEnd = branchPath.indexOf('/');
+		if (codeSystemEnd == -1) {
+			return branchPath;
+		}
+		int start = codeSystemEnd + 1;
+		while (start < branchPath.length()) {
+			int end = branchPath.indexOf('/', start);
+			if (end == -1) {
+				end = branchPath.length();
+			}
+			if (branchPath.startsWith("SNOMEDCT-", start)) {
+				codeSystemEnd = end;
+			}
+			start = end + 1;
+		}
+		if (codeSystemEnd >= branchPath.length()) {
+			return branchPath;
+		}
+		final int projectEnd = branchPath.indexOf('/', codeSystemEnd + 1);
+		return projectEnd == -1 ? branchPath : branchPath.substring(0, projectEnd);
+	}
 	
 	public static Set<String> getAncestorBranches(String branchPath) {
 		Set<String> ancestorBranches = new HashSet<>();
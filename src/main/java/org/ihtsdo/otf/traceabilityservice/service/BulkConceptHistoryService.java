@@ -0,0 +1,211 @@
+package org.ihtsdo.otf.traceabilityservice.service;
+
+import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery;
+import com.google.common.collect.Lists;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.ihtsdo.otf.traceabilityservice.domain.Activity;
+import org.ihtsdo.otf.traceabilityservice.domain.ActivityType;
+import org.ihtsdo.otf.traceabilityservice.domain.ConceptChange;
+import org.ihtsdo.otf.traceabilityservice.util.QueryHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.elasticsearch.client.elc.NativeQueryBuilder;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.SearchHitsIterator;
+import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import static co.elastic.clients.elasticsearch._types.query_dsl.QueryBuilders.bool;
+
+/**
+ * History of many concepts at once. The concept ids are partitioned into shards, each shard is read with its own terms query
+ * and the shards are read concurrently. Activities are passed on as they are read rather than collected.
+ */
+@Service
+public class BulkConceptHistoryService {
+
+	@Autowired
+	private ElasticsearchOperations elasticsearchOperations;
+
+	@Value("${traceability.activities.bulk.shard-size}")
+	private int shardSize;
+
+	@Value("${traceability.activities.bulk.threads}")
+	private int threads;
+
+	private ExecutorService shardExecutor;
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(BulkConceptHistoryService.class);
+
+	@PostConstruct
+	public void init() {
+		shardExecutor = Executors.newFixedThreadPool(threads);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		shardExecutor.shutdown();
+	}
+
+	/**
+	 * Passes each activity which changed any of the concepts to the consumer, with only the changes to those concepts.
+	 * Activities are passed in no particular order, the consumer is never called concurrently.
+	 * An oversized activity stored in chunks is passed once, with the changes from all of its chunks, after the other activities.
+	 * @param conceptIds concepts to find the history of
+	 * @param activityType only activities of this type, may be null
+	 * @param user only activities by this user, may be null
+	 * @param summaryOnly leave out the component changes
+	 * @param consumer receives each activity
+	 */
+	public void findActivities(Collection<Long> conceptIds, ActivityType activityType, String user, boolean summaryOnly, Consumer<Activity> consumer) {
+		final List<Long> distinctConceptIds = new ArrayList<>(new LinkedHashSet<>(conceptIds));
+		final List<List<Long>> shards = Lists.partition(distinctConceptIds, shardSize);
+		// Shard of each concept. An activity changing concepts from several shards is found by each of them and only passed on by the shard of its first concept.
+		final Long2IntOpenHashMap conceptShards = new Long2IntOpenHashMap(distinctConceptIds.size());
+		conceptShards.defaultReturnValue(-1);
+		for (int shard = 0; shard < shards.size(); shard++) {
+			for (Long conceptId : shards.get(shard)) {
+				conceptShards.put(conceptId.longValue(), shard);
+			}
+		}
+		LOGGER.info("Finding activities for {} concepts in {} shards", distinctConceptIds.size(), shards.size());
+
+		// Chunks of one activity may hold concepts of different shards, so the shard of the first concept can not tell from its own documents.
+		// Oversized activities are rare, the activities with chunks holding any of the concepts are found first and their documents merged across shards.
+		final Set<String> chunkedActivityIds = ConcurrentHashMap.newKeySet();
+		final List<Future<?>> chunkFutures = new ArrayList<>();
+		for (List<Long> shardConceptIds : shards) {
+			chunkFutures.add(shardExecutor.submit(() -> chunkedActivityIds.addAll(findChunkedActivityIds(shardConceptIds, activityType, user))));
+		}
+		await(chunkFutures);
+
+		final ChunkedActivities chunkedActivities = new ChunkedActivities();
+		final Consumer<Activity> serialConsumer = activity -> {
+			synchronized (consumer) {
+				consumer.accept(activity);
+			}
+		};
+		final List<Future<?>> futures = new ArrayList<>();
+		for (int shard = 0; shard < shards.size(); shard++) {
+			final int shardIndex = shard;
+			futures.add(shardExecutor.submit(() -> findShardActivities(shards.get(shardIndex), shardIndex, conceptShards, activityType, user, summaryOnly,
+					chunkedActivityIds, chunkedActivities, serialConsumer)));
+		}
+		await(futures);
+		chunkedActivities.getActivities().forEach(consumer);
+	}
+
+	private void await(List<Future<?>> futures) {
+		try {
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			futures.forEach(future -> future.cancel(true));
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while finding concept activities.", e);
+		} catch (ExecutionException e) {
+			futures.forEach(future -> future.cancel(true));
+			if (e.getCause() instanceof RuntimeException runtimeException) {
+				throw runtimeException;
+			}
+			throw new IllegalStateException("Failed to find concept activities.", e.getCause());
+		}
+	}
+
+	private Set<String> findChunkedActivityIds(List<Long> shardConceptIds, ActivityType activityType, String user) {
+		final BoolQuery.Builder query = getShardQuery(shardConceptIds, activityType, user).must(QueryHelper.existsQuery(Activity.Fields.PARENT_ID));
+		final Set<String> activityIds = new HashSet<>();
+		try (SearchHitsIterator<Activity> stream = elasticsearchOperations.searchForStream(new NativeQueryBuilder().withQuery(QueryHelper.toQuery(query))
+				.withSourceFilter(new FetchSourceFilter(true, new String[]{Activity.Fields.PARENT_ID}, null))
+				.withPageable(PageRequest.of(0, 10_000))
+				.build(), Activity.class)) {
+			stream.forEachRemaining(hit -> activityIds.add(hit.getContent().getParentId()));
+		}
+		return activityIds;
+	}
+
+	private void findShardActivities(List<Long> shardConceptIds, int shard, Long2IntOpenHashMap conceptShards,
+			ActivityType activityType, String user, boolean summaryOnly, Set<String> chunkedActivityIds, ChunkedActivities chunkedActivities,
+			Consumer<Activity> consumer) {
+
+		final NativeQueryBuilder queryBuilder = new NativeQueryBuilder().withQuery(QueryHelper.toQuery(getShardQuery(shardConceptIds, activityType, user)))
+				// Use 1000 because each activity doc can hold all changes which can be very large
+				.withPageable(PageRequest.of(0, 1_000));
+		if (summaryOnly) {
+			queryBuilder.withSourceFilter(new FetchSourceFilter(true, null, new String[]{Activity.Fields.CONCEPT_CHANGES_COMPONENT_CHANGES}));
+		}
+		try (SearchHitsIterator<Activity> stream = elasticsearchOperations.searchForStream(queryBuilder.build(), Activity.class)) {
+			while (stream.hasNext()) {
+				final Activity activity = stream.next().getContent();
+				int firstShard = Integer.MAX_VALUE;
+				final Set<ConceptChange> conceptChanges = new HashSet<>();
+				for (ConceptChange conceptChange : activity.getConceptChanges()) {
+					final int conceptShard = conceptShards.get(ComponentChangeMap.parseSctid(conceptChange.getConceptId()));
+					if (conceptShard != -1) {
+						conceptChanges.add(conceptChange);
+						firstShard = Math.min(firstShard, conceptShard);
+					}
+				}
+				activity.setConceptChanges(conceptChanges);
+				if (chunkedActivityIds.contains(activity.getParentId() != null ? activity.getParentId() : activity.getId())) {
+					chunkedActivities.add(activity);
+				} else if (firstShard == shard) {
+					consumer.accept(ActivityChunks.collapse(List.of(activity)).get(0));
+				}
+			}
+		}
+	}
+
+	private static BoolQuery.Builder getShardQuery(List<Long> shardConceptIds, ActivityType activityType, String user) {
+		final BoolQuery.Builder query = bool().must(QueryHelper.termsQuery(Activity.Fields.CONCEPT_CHANGES_CONCEPT_ID, shardConceptIds));
+		if (activityType != null) {
+			query.must(QueryHelper.termQuery(Activity.Fields.ACTIVITY_TYPE, activityType.name()));
+		}
+		if (user != null && !user.isEmpty()) {
+			query.must(QueryHelper.termQuery(Activity.Fields.USERNAME, user));
+		}
+		return query;
+	}
+
+	/**
+	 * Documents of oversized activities found by any shard, merged into one activity each.
+	 * A document holding concepts of several shards is found by each of them, concept changes are kept once by concept id.
+	 */
+	private static final class ChunkedActivities {
+
+		private final Map<String, Activity> activities = new LinkedHashMap<>();
+		private final Map<String, Map<String, ConceptChange>> conceptChanges = new HashMap<>();
+
+		synchronized void add(Activity document) {
+			final String activityId = document.getParentId() != null ? document.getParentId() : document.getId();
+			activities.computeIfAbsent(activityId, id -> document);
+			final Map<String, ConceptChange> activityConceptChanges = conceptChanges.computeIfAbsent(activityId, id -> new HashMap<>());
+			document.getConceptChanges().forEach(conceptChange -> activityConceptChanges.putIfAbsent(conceptChange.getConceptId(), conceptChange));
+		}
+
+		synchronized List<Activity> getActivities() {
+			final List<Activity> merged = new ArrayList<>();
+			activities.forEach((activityId, activity) -> {
+				activity.setId(activityId);
+				activity.setParentId(null);
+				activity.setConceptChanges(new HashSet<>(conceptChanges.get(activityId).values()));
+				merged.add(activity);
+			});
+			return merged;
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package org.ihtsdo.otf.traceabilityservice.service;
+
+import org.ihtsdo.otf.traceabilityservice.domain.Activity;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-branch cache of the state behind the default change summary report.
+ * Changes made or promoted to the branch itself are kept separately from changes rebased from ancestor branches,
+ * new commits on the branch can then be added to the cached state without processing everything again.
+ * Entries are invalidated for the branch and its descendants when a promotion, rebase or code system version changes which commits the report selects.
+ */
+@Component
+public class ChangeSummaryReportCache {
+
+	@Value("${traceability.report.cache.enabled}")
+	private boolean enabled;
+
+	@Value("${traceability.report.cache.max-entries}")
+	private int maxEntries;
+
+	@Value("${traceability.report.cache.ttl-seconds}")
+	private long ttlSeconds;
+
+	// Incremented on every invalidation so that reports computed before an invalidation are not cached after it
+	private final AtomicLong generation = new AtomicLong();
+
+	private final Map<String, CachedReport> reports = new LinkedHashMap<>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CachedReport> eldest) {
+			return size() > maxEntries;
+		}
+	};
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public long getGeneration() {
+		return generation.get();
+	}
+
+	public synchronized CachedReport get(String branch) {
+		final CachedReport report = reports.get(branch);
+		if (report != null && System.currentTimeMillis() - report.created > ttlSeconds * 1_000) {
+			reports.remove(branch);
+			return null;
+		}
+		return report;
+	}
+
+	/**
+	 * @param generation cache generation read before the report state was computed, the report is not cached if there has been an invalidation since
+	 */
+	public synchronized void put(String branch, CachedReport report, long generation) {
+		if (enabled && this.generation.get() == generation) {
+			reports.put(branch, report);
+		}
+	}
+
+	/**
+	 * Removes the cached reports of the branch and all its descendants.
+	 */
+	public synchronized void invalidate(String branch) {
+		generation.incrementAndGet();
+		final String descendantPrefix = branch + "/";
+		reports.keySet().removeIf(key -> key.equals(branch) || key.startsWith(descendantPrefix));
+	}
+
+	public synchronized void invalidateAll() {
+		generation.incrementAndGet();
+		reports.clear();
+	}
+
+	/**
+	 * Report state for one branch. Never modified once cached, an updated copy is cached instead.
+	 */
+	public static final class CachedReport {
+
+		// Changes made on or promoted to the branch, with the latest dates covered
+		final ComponentChangeMap ownChanges;
+		final List<Activity> ownChangesNotAtTaskLevel;
+		final long latestCommitDate;
+		final long latestPromotionDate;
+
+		// Changes rebased to the branch from its ancestors
+		final ComponentChangeMap rebasedChanges;
+		final List<Activity> rebasedChangesNotAtTaskLevel;
+
+		private final long created;
+
+		CachedReport(ComponentChangeMap ownChanges, List<Activity> ownChangesNotAtTaskLevel, long latestCommitDate, long latestPromotionDate,
+				ComponentChangeMap rebasedChanges, List<Activity> rebasedChangesNotAtTaskLevel, long created) {
+			this.ownChanges = ownChanges;
+			this.ownChangesNotAtTaskLevel = ownChangesNotAtTaskLevel;
+			this.latestCommitDate = latestCommitDate;
+			this.latestPromotionDate = latestPromotionDate;
+			this.rebasedChanges = rebasedChanges;
+			this.rebasedChangesNotAtTaskLevel = rebasedChangesNotAtTaskLevel;
+			this.created = created;
+		}
+
+		long getCreated() {
+			return created;
+		}
+	}
+}
@@ -0,0 +1,21 @@
+package org.ihtsdo.otf.traceabilityservice.service;
+
+import org.ihtsdo.otf.traceabilityservice.domain.Activity;
+import org.ihtsdo.otf.traceabilityservice.domain.ComponentType;
+
+/**
+ * Receives a change summary report one entry at a time, see {@link ReportService#streamChangeSummaryReport}.
+ */
+public interface ChangeSummaryReportListener {
+
+	/**
+	 * Called for each component expected in the delta, grouped by component type.
+	 */
+	void componentChange(ComponentType componentType, String componentId, String conceptId);
+
+	/**
+	 * Called for each content change not made at task level, after all component changes.
+	 */
+	void changeNotAtTaskLevel(Activity activity);
+
+}
@@ -0,0 +1,238 @@
+package org.ihtsdo.otf.traceabilityservice.service;
+
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.ihtsdo.otf.traceabilityservice.domain.ChangeType;
+import org.ihtsdo.otf.traceabilityservice.domain.ComponentChange;
+import org.ihtsdo.otf.traceabilityservice.domain.ComponentType;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * Component changes selected for a change summary report, with the concept id of each component.
+ * Reports on code system branches can hold millions of components so only what the report needs is kept:
+ * the component type, change type and whether the effective time is null, packed in a byte.
+ * SCTIDs are held as longs and refset member UUIDs as two longs, any other id is held as a string.
+ * Not thread safe, must not be modified once shared.
+ */
+public final class ComponentChangeMap {
+
+	private static final int CHANGE_TYPE_SHIFT = 2;
+	private static final int EFFECTIVE_TIME_NULL = 1 << 4;
+	private static final int KIND_SHIFT = 5;
+
+	// Kinds of component id
+	private static final int SCTID = 0;
+	private static final int UUID_ID = 1;
+	private static final int OTHER_ID = 2;
+
+	private static final ComponentType[] COMPONENT_TYPES = ComponentType.values();
+	private static final ChangeType[] CHANGE_TYPES = ChangeType.values();
+
+	private final Long2IntOpenHashMap sctidIndexes = new Long2IntOpenHashMap();
+	// Indexed by the most significant bits, a UUID sharing them with another one is held as a string
+	private final Long2IntOpenHashMap uuidIndexes = new Long2IntOpenHashMap();
+	private final Object2IntOpenHashMap<String> otherIdIndexes = new Object2IntOpenHashMap<>();
+	private final List<String> otherIds = new ArrayList<>();
+	// Concept ids which are not SCTIDs, referenced by negative concept ids
+	private final List<String> otherConceptIds = new ArrayList<>();
+
+	// By index: the SCTID, the UUID bits or the index of the other id, the concept id and the change
+	private long[] idHighs = new long[16];
+	private long[] idLows = new long[16];
+	private long[] conceptIds = new long[16];
+	private byte[] changes = new byte[16];
+	private int size;
+
+	public ComponentChangeMap() {
+		sctidIndexes.defaultReturnValue(-1);
+		uuidIndexes.defaultReturnValue(-1);
+		otherIdIndexes.defaultReturnValue(-1);
+	}
+
+	/**
+	 * Adds the change unless there is already a change for the component.
+	 */
+	public void putIfAbsent(ComponentChange componentChange, String conceptId) {
+		final String componentId = componentChange.getComponentId();
+		final byte change = (byte) (componentChange.getComponentType().ordinal()
+				| componentChange.getChangeType().ordinal() << CHANGE_TYPE_SHIFT
+				| (componentChange.isEffectiveTimeNull() ? EFFECTIVE_TIME_NULL : 0));
+		final long sctid = parseSctid(componentId);
+		if (sctid != -1) {
+			putIfAbsent(SCTID, sctid, 0, null, change, parseSctid(conceptId), conceptId);
+		} else if (isUuid(componentId)) {
+			final UUID uuid = UUID.fromString(componentId);
+			putIfAbsent(UUID_ID, uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), null, change, parseSctid(conceptId), conceptId);
+		} else {
+			putIfAbsent(OTHER_ID, 0, 0, componentId, change, parseSctid(conceptId), conceptId);
+		}
+	}
+
+	/**
+	 * Adds the changes of the other map for components without a change in this one.
+	 */
+	public void putAllAbsent(ComponentChangeMap other) {
+		for (int index = 0; index < other.size; index++) {
+			final int kind = other.kind(index);
+			final String otherId = kind == OTHER_ID ? other.otherIds.get((int) other.idHighs[index]) : null;
+			final long conceptId = other.conceptIds[index];
+			putIfAbsent(kind, other.idHighs[index], other.idLows[index], otherId, other.changes[index],
+					conceptId, conceptId < 0 ? other.otherConceptIds.get((int) (-1 - conceptId)) : null);
+		}
+	}
+
+	public boolean containsKey(String componentId) {
+		final long sctid = parseSctid(componentId);
+		if (sctid != -1) {
+			return indexOf(SCTID, sctid, 0, null) != -1;
+		} else if (isUuid(componentId)) {
+			final UUID uuid = UUID.fromString(componentId);
+			return indexOf(UUID_ID, uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), null) != -1;
+		}
+		return indexOf(OTHER_ID, 0, 0, componentId) != -1;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Adds the ids of the components expected in the delta to the component changes by type, and their concept ids to the concept map.
+	 * Deleted components and components with an effective time are not expected in the delta.
+	 */
+	public void addTo(Map<ComponentType, Set<String>> componentChanges, Map<String, String> componentToConceptIdMap) {
+		// Many components share a concept
+		final Long2ObjectOpenHashMap<String> conceptIdStrings = new Long2ObjectOpenHashMap<>();
+		for (int index = 0; index < size; index++) {
+			final Set<String> ids = componentChanges.computeIfAbsent(COMPONENT_TYPES[changes[index] & 3], type -> new HashSet<>());
+			if (isInDelta(index)) {
+				final String componentId = getComponentId(index);
+				ids.add(componentId);
+				final long conceptId = conceptIds[index];
+				componentToConceptIdMap.put(componentId, conceptId < 0 ? otherConceptIds.get((int) (-1 - conceptId))
+						: conceptIdStrings.computeIfAbsent(conceptId, Long::toString));
+			}
+		}
+	}
+
+	/**
+	 * Passes the id and concept id of each component of the type expected in the delta to the consumer, without collecting them.
+	 */
+	public void forEachInDelta(ComponentType componentType, BiConsumer<String, String> componentIdAndConceptIdConsumer) {
+		for (int index = 0; index < size; index++) {
+			if ((changes[index] & 3) == componentType.ordinal() && isInDelta(index)) {
+				final long conceptId = conceptIds[index];
+				componentIdAndConceptIdConsumer.accept(getComponentId(index),
+						conceptId < 0 ? otherConceptIds.get((int) (-1 - conceptId)) : Long.toString(conceptId));
+			}
+		}
+	}
+
+	/**
+	 * @param conceptId the concept SCTID, or negative if the concept id is not an SCTID
+	 * @param otherConceptId the concept id, used when it is not an SCTID
+	 */
+	private void putIfAbsent(int kind, long idHigh, long idLow, String otherId, byte change, long conceptId, String otherConceptId) {
+		if (indexOf(kind, idHigh, idLow, otherId) != -1) {
+			return;
+		}
+		if (kind == UUID_ID && uuidIndexes.containsKey(idHigh)) {
+			kind = OTHER_ID;
+			otherId = new UUID(idHigh, idLow).toString();
+		}
+		if (size == changes.length) {
+			final int capacity = size * 2;
+			idHighs = Arrays.copyOf(idHighs, capacity);
+			idLows = Arrays.copyOf(idLows, capacity);
+			conceptIds = Arrays.copyOf(conceptIds, capacity);
+			changes = Arrays.copyOf(changes, capacity);
+		}
+		final int index = size++;
+		switch (kind) {
+			case SCTID -> sctidIndexes.put(idHigh, index);
+			case UUID_ID -> uuidIndexes.put(idHigh, index);
+			default -> {
+				otherIdIndexes.put(otherId, index);
+				idHigh = otherIds.size();
+				otherIds.add(otherId);
+			}
+		}
+		idHighs[index] = idHigh;
+		idLows[index] = idLow;
+		if (conceptId < 0) {
+			otherConceptIds.add(otherConceptId);
+			conceptId = -otherConceptIds.size();
+		}
+		conceptIds[index] = conceptId;
+		changes[index] = (byte) (change | kind << KIND_SHIFT);
+	}
+
+	private int indexOf(int kind, long idHigh, long idLow, String otherId) {
+		return switch (kind) {
+			case SCTID -> sctidIndexes.get(idHigh);
+			case UUID_ID -> {
+				final int index = uuidIndexes.get(idHigh);
+				yield index == -1 || idLows[index] == idLow ? index : otherIdIndexes.getInt(new UUID(idHigh, idLow).toString());
+			}
+			default -> otherIdIndexes.getInt(otherId);
+		};
+	}
+
+	private boolean isInDelta(int index) {
+		final byte change = changes[index];
+		return CHANGE_TYPES[(change >> CHANGE_TYPE_SHIFT) & 3] != ChangeType.DELETE && (change & EFFECTIVE_TIME_NULL) != 0;
+	}
+
+	private int kind(int index) {
+		return changes[index] >> KIND_SHIFT;
+	}
+
+	private String getComponentId(int index) {
+		return switch (kind(index)) {
+			case SCTID -> Long.toString(idHighs[index]);
+			case UUID_ID -> new UUID(idHighs[index], idLows[index]).toString();
+			default -> otherIds.get((int) idHighs[index]);
+		};
+	}
+
+	/**
+	 * @return the id as a long if it is written exactly as the long would be, otherwise -1
+	 */
+	static long parseSctid(String id) {
+		if (id == null || id.isEmpty() || id.length() > 18 || (id.charAt(0) == '0' && id.length() > 1)) {
+			return -1;
+		}
+		long value = 0;
+		for (int i = 0; i < id.length(); i++) {
+			final char c = id.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	/**
+	 * @return true if the id is a UUID written exactly as {@link UUID#toString()} would write it
+	 */
+	static boolean isUuid(String id) {
+		if (id == null || id.length() != 36) {
+			return false;
+		}
+		for (int i = 0; i < 36; i++) {
+			final char c = id.charAt(i);
+			if (i == 8 || i == 13 || i == 18 || i == 23) {
+				if (c != '-') {
+					return false;
+				}
+			} else if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,128 @@
+package org.ihtsdo.otf.traceabilityservice.service;
+
+import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery;
+import co.elastic.clients.elasticsearch._types.query_dsl.RangeQuery;
+import org.ihtsdo.otf.traceabilityservice.domain.*;
+import org.ihtsdo.otf.traceabilityservice.repository.ComponentHistoryRepository;
+import org.ihtsdo.otf.traceabilityservice.util.QueryHelper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.elasticsearch.client.elc.NativeQuery;
+import org.springframework.data.elasticsearch.client.elc.NativeQueryBuilder;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.SearchHit;
+import org.springframework.data.elasticsearch.core.SearchHits;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+import static co.elastic.clients.elasticsearch._types.query_dsl.QueryBuilders.bool;
+
+/**
+ * Maintains the component history index, one row per component change, written when activities are ingested.
+ */
+@Service
+public class ComponentHistoryService {
+
+	@Autowired
+	private ComponentHistoryRepository componentHistoryRepository;
+
+	@Autowired
+	private ElasticsearchOperations elasticsearchOperations;
+
+	@Value("${traceability.component-history.enabled}")
+	private boolean enabled;
+
+	@Value("${traceability.ingestion.bulk-enabled}")
+	private boolean bulkEnabled;
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Writes a row for every component change of the documents. Rows of chunk documents refer to the activity of the chunk.
+	 * The rows are written like the activities, in one bulk request or one at a time, and the index is refreshed once for all of them.
+	 * @param documents activity and chunk documents
+	 * @return number of rows written
+	 */
+	public int save(Collection<Activity> documents) {
+		if (!enabled) {
+			return 0;
+		}
+		final List<ComponentHistory> rows = new ArrayList<>();
+		documents.forEach(document -> rows.addAll(createRows(document)));
+		if (rows.isEmpty()) {
+			return 0;
+		}
+		// Through the operations rather than the repository, which refreshes the index after every save
+		if (bulkEnabled) {
+			elasticsearchOperations.save(rows);
+		} else {
+			rows.forEach(elasticsearchOperations::save);// Saving one at a time to avoid AWS permissions issue when using "/_bulk" URI
+		}
+		elasticsearchOperations.indexOps(ComponentHistory.class).refresh();
+		return rows.size();
+	}
+
+	static List<ComponentHistory> createRows(Activity document) {
+		final String activityId = document.getParentId() != null ? document.getParentId() : document.getId();
+		final List<ComponentHistory> rows = new ArrayList<>();
+		for (ConceptChange conceptChange : document.getConceptChanges()) {
+			for (ComponentChange componentChange : conceptChange.getComponentChanges()) {
+				rows.add(new ComponentHistory(componentChange.getComponentId(), conceptChange.getConceptId(), activityId,
+						document.getBranch(), document.getCommitDate(), componentChange.getChangeType()));
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * @param componentId component
+	 * @param page page and sort
+	 * @return the changes to the component, one for each commit which changed it
+	 */
+	public Page<ComponentHistory> findByComponentId(String componentId, Pageable page) {
+		return componentHistoryRepository.findByComponentId(componentId, page);
+	}
+
+	/**
+	 * @param branch branch the changes were made on
+	 * @param fromDate only changes committed at or after this, may be null
+	 * @param toDate only changes committed at or before this, may be null
+	 * @param page page and sort
+	 * @return component changes made on the branch
+	 */
+	public Page<ComponentHistory> findByBranch(String branch, Date fromDate, Date toDate, Pageable page) {
+		final BoolQuery.Builder query = bool().must(QueryHelper.termQuery(ComponentHistory.Fields.BRANCH, branch));
+		if (fromDate != null || toDate != null) {
+			final RangeQuery.Builder rangeQuery = QueryHelper.rangeQueryBuilder(ComponentHistory.Fields.COMMIT_DATE);
+			if (fromDate != null) {
+				QueryHelper.withFrom(rangeQuery, fromDate.getTime());
+			}
+			if (toDate != null) {
+				QueryHelper.withTo(rangeQuery, toDate.getTime());
+			}
+			query.must(QueryHelper.toQuery(rangeQuery));
+		}
+		final NativeQuery searchQuery = new NativeQueryBuilder().withQuery(QueryHelper.toQuery(query)).withPageable(page).build();
+		final SearchHits<ComponentHistory> search = elasticsearchOperations.search(searchQuery, ComponentHistory.class);
+		return new PageImpl<>(search.stream().map(SearchHit::getContent).toList(), page, search.getTotalHits());
+	}
+
+	/**
+	 * Removes the rows of deleted activities.
+	 * @param activityIds ids of the activities, not of their chunks
+	 */
+	public void deleteByActivityIds(Collection<String> activityIds) {
+		if (!enabled || activityIds.isEmpty()) {
+			return;
+		}
+		elasticsearchOperations.delete(new NativeQueryBuilder().withQuery(QueryHelper.termsQuery(ComponentHistory.Fields.ACTIVITY_ID, activityIds)).build(),
+				ComponentHistory.class);
+		elasticsearchOperations.indexOps(ComponentHistory.class).refresh();
+	}
+}
@@ -0,0 +1,129 @@
+package org.ihtsdo.otf.traceabilityservice.service;
+
+import org.ihtsdo.otf.traceabilityservice.domain.*;
+import org.springframework.data.elasticsearch.core.SearchHit;
+import org.springframework.data.elasticsearch.core.query.BaseQuery;
+import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
+import org.springframework.data.elasticsearch.core.query.ScriptData;
+import org.springframework.data.elasticsearch.core.query.ScriptType;
+import org.springframework.data.elasticsearch.core.query.ScriptedField;
+
+import java.util.*;
+
+/**
+ * Returns only the matching concept and component changes of each activity, filtered in Elasticsearch by a script field.
+ * Concept changes are mapped as objects rather than nested documents so inner hits can not be used,
+ * instead the concept changes are excluded from the source and the script returns the matching ones.
+ * Activities can hold hundreds of thousands of changes, so only the matching changes are sent and deserialized.
+ */
+final class ConceptChangeProjection {
+
+	static final FetchSourceFilter WITHOUT_CONCEPT_CHANGES = new FetchSourceFilter(true, null, new String[]{Activity.Fields.CONCEPT_CHANGES});
+
+	private static final String FIELD = "matchingConceptChanges";
+
+	// Params, each optional: conceptIds, componentId, componentSubType and conceptOnly to leave out component changes
+	private static final String SCRIPT = """
+			def matches = [];
+			def conceptChanges = params['_source']['conceptChanges'];
+			if (conceptChanges == null) {
+				return matches;
+			}
+			boolean filterComponents = params.containsKey('componentId') || params.containsKey('componentSubType');
+			for (def conceptChange : conceptChanges) {
+				if (params.containsKey('conceptIds') && !params.conceptIds.contains(conceptChange.conceptId)) {
+					continue;
+				}
+				if (params.containsKey('conceptOnly')) {
+					matches.add(['conceptId': conceptChange.conceptId]);
+				} else if (!filterComponents) {
+					matches.add(conceptChange);
+				} else if (conceptChange.componentChanges != null) {
+					def componentChanges = [];
+					for (def componentChange : conceptChange.componentChanges) {
+						if ((!params.containsKey('componentId') || params.componentId == componentChange.componentId)
+								&& (!params.containsKey('componentSubType') || params.componentSubType == componentChange.componentSubType)) {
+							componentChanges.add(componentChange);
+						}
+					}
+					if (!componentChanges.isEmpty()) {
+						matches.add(['conceptId': conceptChange.conceptId, 'componentChanges': componentChanges]);
+					}
+				}
+			}
+			return matches;
+			""";
+
+	private final Map<String, Object> params = new HashMap<>();
+
+	ConceptChangeProjection conceptIds(Collection<Long> conceptIds) {
+		params.put("conceptIds", conceptIds.stream().map(Object::toString).toList());
+		return this;
+	}
+
+	ConceptChangeProjection componentId(String componentId) {
+		params.put("componentId", componentId);
+		return this;
+	}
+
+	ConceptChangeProjection componentSubType(String componentSubType) {
+		params.put("componentSubType", componentSubType);
+		return this;
+	}
+
+	ConceptChangeProjection conceptOnly() {
+		params.put("conceptOnly", true);
+		return this;
+	}
+
+	/**
+	 * Adds the script field to the query, the query should also exclude the concept changes from the source.
+	 */
+	void addTo(BaseQuery query) {
+		query.addScriptedField(new ScriptedField(FIELD, new ScriptData(ScriptType.INLINE, "painless", SCRIPT, null, params)));
+	}
+
+	/**
+	 * Sets the concept changes of the activity from the script field of the hit.
+	 */
+	static Activity read(SearchHit<Activity> hit) {
+		final Activity activity = hit.getContent();
+		final Set<ConceptChange> conceptChanges = new HashSet<>();
+		final List<Object> values = hit.getFields().get(FIELD);
+		if (values != null) {
+			for (Object value : values) {
+				if (value instanceof Map<?, ?> conceptChangeMap) {
+					conceptChanges.add(toConceptChange(conceptChangeMap));
+				}
+			}
+		}
+		activity.setConceptChanges(conceptChanges);
+		return activity;
+	}
+
+	private static ConceptChange toConceptChange(Map<?, ?> conceptChangeMap) {
+		final ConceptChange conceptChange = new ConceptChange(toString(conceptChangeMap.get("conceptId")));
+		if (conceptChangeMap.get("componentChanges") instanceof Collection<?> componentChanges) {
+			for (Object componentChange : componentChanges) {
+				if (componentChange instanceof Map<?, ?> componentChangeMap) {
+					conceptChange.addComponentChange(new ComponentChange(
+							toString(componentChangeMap.get("componentId")),
+							toEnum(ChangeType.class, componentChangeMap.get("changeType")),
+							toEnum(ComponentType.class, componentChangeMap.get("componentType")),
+							toString(componentChangeMap.get("componentSubType")),
+							Boolean.TRUE.equals(componentChangeMap.get("effectiveTimeNull")),
+							Boolean.TRUE.equals(componentChangeMap.get("superseded"))));
+				}
+			}
+		}
+		return conceptChange;
+	}
+
+	private static String toString(Object value) {
+		return value != null ? value.toString() : null;
+	}
+
+	private static <E extends Enum<E>> E toEnum(Class<E> type, Object value) {
+		return value != null ? Enum.valueOf(type, value.toString()) : null;
+	}
+}
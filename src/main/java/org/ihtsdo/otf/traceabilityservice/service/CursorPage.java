@@ -0,0 +1,26 @@
+package org.ihtsdo.otf.traceabilityservice.service;
+
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+
+import java.util.List;
+
+/**
+ * Page of results fetched with a cursor rather than a page number.
+ */
+public class CursorPage<T> extends PageImpl<T> {
+
+	private final String nextCursor;
+
+	public CursorPage(List<T> content, Pageable pageable, long total, String nextCursor) {
+		super(content, pageable, total);
+		this.nextCursor = nextCursor;
+	}
+
+	/**
+	 * @return cursor to fetch the next page with, null when this is the last page
+	 */
+	public String getNextCursor() {
+		return nextCursor;
+	}
+}
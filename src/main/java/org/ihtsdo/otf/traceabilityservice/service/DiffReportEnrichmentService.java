@@ -0,0 +1,170 @@
+package org.ihtsdo.otf.traceabilityservice.service;
+
+import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery;
+import com.google.common.collect.Iterables;
+import org.ihtsdo.otf.traceabilityservice.domain.Activity;
+import org.ihtsdo.otf.traceabilityservice.domain.ComponentChange;
+import org.ihtsdo.otf.traceabilityservice.domain.ComponentHistory;
+import org.ihtsdo.otf.traceabilityservice.domain.ConceptChange;
+import org.ihtsdo.otf.traceabilityservice.domain.DiffReport;
+import org.ihtsdo.otf.traceabilityservice.util.QueryHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.elasticsearch.client.elc.NativeQueryBuilder;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.SearchHitsIterator;
+import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+import static co.elastic.clients.elasticsearch._types.query_dsl.QueryBuilders.bool;
+
+/**
+ * Adds the owning concept and the last commit of each component in a diff report,
+ * so that the cause of a difference can be found without searching activities for each component.
+ * The last commit is looked up in the component history index, or in the activities when that is not enabled.
+ */
+@Service
+public class DiffReportEnrichmentService {
+
+	// Component ids per terms query
+	private static final int BATCH_SIZE = 1_000;
+
+	// Component history rows read per page, the activities of a page are looked up together
+	private static final int PAGE_SIZE = 1_000;
+
+	@Autowired
+	private ElasticsearchOperations elasticsearchOperations;
+
+	@Autowired
+	private ComponentHistoryService componentHistoryService;
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+
+	/**
+	 * @param report report to enrich
+	 * @param componentToConceptIdMap concept of each component in the change summary report, the concept of other components is taken from their last commit
+	 * @param branch branch of the report, only commits on this branch or its ancestors, or promoted to them, are looked up. Null to look up commits on any branch.
+	 * @return the report with the details of every component missing from the delta or the store
+	 */
+	public DiffReport enrich(DiffReport report, Map<String, String> componentToConceptIdMap, String branch) {
+		final Set<String> componentIds = new HashSet<>();
+		report.missingFromDelta().values().forEach(componentIds::addAll);
+		report.missingFromStore().values().forEach(componentIds::addAll);
+		logger.info("Looking up the last commit of {} components", componentIds.size());
+
+		// Content on the branch is its own commits and commits promoted to it or to one of its ancestors
+		final Set<String> branches;
+		if (branch != null) {
+			branches = BranchUtils.getAncestorBranches(branch);
+			branches.add(branch);
+		} else {
+			branches = null;
+		}
+		final Map<String, DiffReport.ComponentDetail> componentDetails = new HashMap<>();
+		for (List<String> batch : Iterables.partition(componentIds, BATCH_SIZE)) {
+			if (componentHistoryService.isEnabled()) {
+				findLastCommits(batch, branches, componentDetails);
+			} else {
+				findLastCommitsInActivities(batch, branches, componentDetails);
+			}
+		}
+
+		for (String componentId : componentIds) {
+			final DiffReport.ComponentDetail lastCommit = componentDetails.get(componentId);
+			final String conceptId = componentToConceptIdMap.get(componentId);
+			if (lastCommit == null) {
+				componentDetails.put(componentId, new DiffReport.ComponentDetail(conceptId, null, null, null));
+			} else if (conceptId != null && !conceptId.equals(lastCommit.conceptId())) {
+				componentDetails.put(componentId, new DiffReport.ComponentDetail(conceptId, lastCommit.branch(), lastCommit.username(), lastCommit.commitDate()));
+			}
+		}
+		return new DiffReport(report.missingFromDelta(), report.missingFromStore(), componentDetails);
+	}
+
+	// Rows are read most recent first so the first row in scope for a component is its last commit.
+	// Rows do not hold the user or the branch the change was promoted to, which are read from the activities of each page of rows without their changes.
+	private void findLastCommits(Collection<String> componentIds, Set<String> branches, Map<String, DiffReport.ComponentDetail> componentDetails) {
+		final Set<String> remaining = new HashSet<>(componentIds);
+		final Map<String, Activity> activities = new HashMap<>();
+		final List<ComponentHistory> page = new ArrayList<>(PAGE_SIZE);
+		try (SearchHitsIterator<ComponentHistory> stream = elasticsearchOperations.searchForStream(new NativeQueryBuilder()
+				.withQuery(QueryHelper.termsQuery(ComponentHistory.Fields.COMPONENT_ID, componentIds))
+				.withPageable(PageRequest.of(0, PAGE_SIZE, Sort.by(Sort.Direction.DESC, ComponentHistory.Fields.COMMIT_DATE)))
+				.build(), ComponentHistory.class)) {
+			while (stream.hasNext() && !remaining.isEmpty()) {
+				final ComponentHistory row = stream.next().getContent();
+				if (remaining.contains(row.getComponentId())) {
+					page.add(row);
+				}
+				if (page.size() == PAGE_SIZE || !stream.hasNext()) {
+					readActivities(page, activities);
+					for (ComponentHistory pageRow : page) {
+						final Activity activity = activities.get(pageRow.getActivityId());
+						if (activity != null && isInScope(activity, branches) && remaining.remove(pageRow.getComponentId())) {
+							componentDetails.put(pageRow.getComponentId(), new DiffReport.ComponentDetail(pageRow.getConceptId(),
+									pageRow.getBranch(), activity.getUsername(), pageRow.getCommitDate()));
+						}
+					}
+					page.clear();
+				}
+			}
+		}
+	}
+
+	private void readActivities(List<ComponentHistory> rows, Map<String, Activity> activities) {
+		final Set<String> activityIds = new HashSet<>();
+		rows.forEach(row -> {
+			if (!activities.containsKey(row.getActivityId())) {
+				activityIds.add(row.getActivityId());
+			}
+		});
+		if (activityIds.isEmpty()) {
+			return;
+		}
+		try (SearchHitsIterator<Activity> stream = elasticsearchOperations.searchForStream(new NativeQueryBuilder()
+				.withQuery(QueryHelper.idsQuery(activityIds))
+				.withSourceFilter(new FetchSourceFilter(true, new String[]{Activity.Fields.USERNAME, Activity.Fields.BRANCH, Activity.Fields.HIGHEST_PROMOTED_BRANCH}, null))
+				.withPageable(PageRequest.of(0, 1_000))
+				.build(), Activity.class)) {
+			stream.forEachRemaining(hit -> activities.put(hit.getId(), hit.getContent()));
+		}
+	}
+
+	private static boolean isInScope(Activity activity, Set<String> branches) {
+		return branches == null || branches.contains(activity.getBranch()) || branches.contains(activity.getHighestPromotedBranch());
+	}
+
+	// Activities are read most recent first so the first commit found for a component is its last
+	private void findLastCommitsInActivities(Collection<String> componentIds, Set<String> branches, Map<String, DiffReport.ComponentDetail> componentDetails) {
+		final BoolQuery.Builder query = bool().must(QueryHelper.termsQuery(Activity.Fields.COMPONENT_CHANGES_COMPONENT_ID, componentIds));
+		if (branches != null) {
+			query.must(QueryHelper.toQuery(bool()
+					.should(QueryHelper.termsQuery(Activity.Fields.BRANCH, branches))
+					.should(QueryHelper.termsQuery(Activity.Fields.HIGHEST_PROMOTED_BRANCH, branches))));
+		}
+		final Set<String> remaining = new HashSet<>(componentIds);
+		try (SearchHitsIterator<Activity> stream = elasticsearchOperations.searchForStream(new NativeQueryBuilder()
+				.withQuery(QueryHelper.toQuery(query))
+				.withSourceFilter(new FetchSourceFilter(true, new String[]{Activity.Fields.USERNAME, Activity.Fields.BRANCH, Activity.Fields.COMMIT_DATE,
+						Activity.Fields.CONCEPT_CHANGES_CONCEPT_ID, Activity.Fields.COMPONENT_CHANGES_COMPONENT_ID}, null))
+				.withPageable(PageRequest.of(0, 1_000, Sort.by(Sort.Direction.DESC, Activity.Fields.COMMIT_DATE)))
+				.build(), Activity.class)) {
+			while (stream.hasNext() && !remaining.isEmpty()) {
+				final Activity activity = stream.next().getContent();
+				for (ConceptChange conceptChange : activity.getConceptChanges()) {
+					for (ComponentChange componentChange : conceptChange.getComponentChanges()) {
+						if (remaining.remove(componentChange.getComponentId())) {
+							componentDetails.put(componentChange.getComponentId(), new DiffReport.ComponentDetail(conceptChange.getConceptId(),
+									activity.getBranch(), activity.getUsername(), activity.getCommitDate()));
+						}
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package org.ihtsdo.otf.traceabilityservice.service;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ingestion throughput and lag, per branch lineage partition.
+ * Lag is the time between a commit being made and its activity being written to the store.
+ */
+@Component
+public class IngestionMetrics {
+
+	// Queue lag only counts partitions which consumed within this time, the last lag of an idle partition is out of date
+	private static final long QUEUE_LAG_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+	private final long startTime = System.currentTimeMillis();
+
+	private final Map<String, PartitionMetrics> partitions = new ConcurrentHashMap<>();
+
+	public void record(String partition, int activities, long lastCommitTimestamp, long writeMillis) {
+		final PartitionMetrics metrics = partitions.computeIfAbsent(partition, p -> new PartitionMetrics());
+		metrics.activities.addAndGet(activities);
+		metrics.writeMillis.addAndGet(writeMillis);
+		metrics.lastCommitTimestamp = lastCommitTimestamp;
+		metrics.lastConsumedTimestamp = System.currentTimeMillis();
+	}
+
+	public long getQueueLagMillis() {
+		final long consumedSince = System.currentTimeMillis() - QUEUE_LAG_WINDOW_MILLIS;
+		return partitions.values().stream()
+				.filter(metrics -> metrics.getLastConsumedTimestamp() >= consumedSince)
+				.mapToLong(PartitionMetrics::getLagMillis).max().orElse(0);
+	}
+
+	public long getActivities() {
+		return partitions.values().stream().mapToLong(PartitionMetrics::getActivities).sum();
+	}
+
+	public long getUptimeSeconds() {
+		return (System.currentTimeMillis() - startTime) / 1_000;
+	}
+
+	public Map<String, PartitionMetrics> getPartitions() {
+		return new TreeMap<>(partitions);
+	}
+
+	public static final class PartitionMetrics {
+
+		private final AtomicLong activities = new AtomicLong();
+		private final AtomicLong writeMillis = new AtomicLong();
+		private volatile long lastCommitTimestamp;
+		private volatile long lastConsumedTimestamp;
+
+		public long getActivities() {
+			return activities.get();
+		}
+
+		public long getWriteMillis() {
+			return writeMillis.get();
+		}
+
+		public double getActivitiesPerSecond() {
+			final long millis = writeMillis.get();
+			return millis == 0 ? 0 : activities.get() * 1_000d / millis;
+		}
+
+		public long getLagMillis() {
+			return lastConsumedTimestamp - lastCommitTimestamp;
+		}
+
+		public long getLastConsumedTimestamp() {
+			return lastConsumedTimestamp;
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package org.ihtsdo.otf.traceabilityservice.service;
 
+import org.ihtsdo.otf.traceabilityservice.configuration.elasticsearch.ActivityIndices;
 import org.ihtsdo.otf.traceabilityservice.util.QueryHelper;
 import org.ihtsdo.otf.traceabilityservice.domain.*;
 import org.ihtsdo.otf.traceabilityservice.repository.ActivityRepository;
@@ -26,15 +27,23 @@ public class PatchService {
 	@Autowired
 	private ActivityRepository activityRepository;
 
+	@Autowired
+	private ChangeSummaryReportCache reportCache;
+
+	@Autowired
+	private ActivityIndices activityIndices;
+
 	public ChangeSummaryReport patchHistory(String branch, Set<String> componentsWithEffectiveTime, Set<String> componentsWithoutEffectiveTime) {
 
 		final SearchHit<Activity> latestCommit = elasticsearchOperations.searchOne(new NativeQueryBuilder()
-				.withQuery(QueryHelper.termQuery(Activity.Fields.BRANCH, branch)).withSort(Sort.by(Activity.Fields.COMMIT_DATE).descending()).build(), Activity.class);
+				.withQuery(QueryHelper.termQuery(Activity.Fields.BRANCH, branch)).withRoute(activityIndices.getRouting(branch))
+				.withSort(Sort.by(Activity.Fields.COMMIT_DATE).descending()).build(), Activity.class);
 
 		Date patchCommitDate = latestCommit != null ? latestCommit.getContent().getCommitDate() : new Date();
 
 		activityRepository.save(new Activity(HISTORY_PATCH_USERNAME, branch, null, patchCommitDate, ActivityType.CONTENT_CHANGE).addConceptChange(new ConceptChange(ROOT_CONCEPT)
 				.setComponentChanges(getComponentChanges(componentsWithEffectiveTime, componentsWithoutEffectiveTime))));
+		reportCache.invalidate(branch);
 
 		return null;
 	}
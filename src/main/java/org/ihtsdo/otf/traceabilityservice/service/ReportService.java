@@ -1,11 +1,15 @@
 package org.ihtsdo.otf.traceabilityservice.service;
 
 import co.elastic.clients.elasticsearch._types.query_dsl.*;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.ihtsdo.otf.traceabilityservice.configuration.elasticsearch.ActivityIndices;
 import org.ihtsdo.otf.traceabilityservice.util.QueryHelper;
 import org.ihtsdo.otf.traceabilityservice.domain.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.elasticsearch.client.elc.NativeQuery;
@@ -13,9 +17,15 @@ import org.springframework.data.elasticsearch.client.elc.NativeQueryBuilder;
 import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
 import org.springframework.data.elasticsearch.core.SearchHit;
 import org.springframework.data.elasticsearch.core.SearchHitsIterator;
+import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 import static co.elastic.clients.elasticsearch._types.query_dsl.QueryBuilders.bool;
 
@@ -29,8 +39,29 @@ public class ReportService {
 	@Autowired
 	private ElasticsearchOperations elasticsearchOperations;
 
+	@Autowired
+	private ChangeSummaryReportCache reportCache;
+
+	@Autowired
+	private ActivityIndices activityIndices;
+
+	@Value("${traceability.report.level-threads}")
+	private int levelThreads;
+
+	private ExecutorService levelExecutor;
+
 	private static final Logger LOGGER = LoggerFactory.getLogger(ReportService.class);
 
+	@PostConstruct
+	public void init() {
+		levelExecutor = Executors.newFixedThreadPool(levelThreads);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		levelExecutor.shutdown();
+	}
+
 	public ChangeSummaryReport createChangeSummaryReport(String branch) {
 		return createChangeSummaryReport(branch, null, null, true, true, true);
 	}
@@ -40,9 +71,32 @@ public class ReportService {
 	}
 
 	public ChangeSummaryReport createChangeSummaryReport(String branch, Long contentBaseTimeStamp, Long contentHeadTimestamp, boolean includeMadeOnThisBranch, boolean includePromotedToThisBranch, boolean includeRebasedToThisBranch) {
-		Map<String, ComponentChange> componentChangeMap = new HashMap<>();
-		List<Activity> changesNotAtTaskLevel = new ArrayList<>();
-		Map<String, String> componentToConceptIdMap = new HashMap<>();
+		final SelectedChanges changes = selectChanges(branch, contentBaseTimeStamp, contentHeadTimestamp, includeMadeOnThisBranch, includePromotedToThisBranch, includeRebasedToThisBranch);
+		return createReport(changes.componentChangeMap, changes.changesNotAtTaskLevel);
+	}
+
+	/**
+	 * Same selection as {@link #createChangeSummaryReport(String, Long, Long, boolean, boolean, boolean)}
+	 * but the report is passed to the listener one entry at a time rather than collected into sets and maps of ids.
+	 * Component ids are passed grouped by component type, then the changes not at task level.
+	 */
+	public void streamChangeSummaryReport(String branch, Long contentBaseTimeStamp, Long contentHeadTimestamp, boolean includeMadeOnThisBranch, boolean includePromotedToThisBranch,
+			boolean includeRebasedToThisBranch, ChangeSummaryReportListener listener) {
+		final SelectedChanges changes = selectChanges(branch, contentBaseTimeStamp, contentHeadTimestamp, includeMadeOnThisBranch, includePromotedToThisBranch, includeRebasedToThisBranch);
+		for (ComponentType componentType : ComponentType.values()) {
+			changes.componentChangeMap.forEachInDelta(componentType, (componentId, conceptId) -> listener.componentChange(componentType, componentId, conceptId));
+		}
+		ActivityChunks.collapse(changes.changesNotAtTaskLevel).forEach(listener::changeNotAtTaskLevel);
+	}
+
+	private SelectedChanges selectChanges(String branch, Long contentBaseTimeStamp, Long contentHeadTimestamp, boolean includeMadeOnThisBranch, boolean includePromotedToThisBranch, boolean includeRebasedToThisBranch) {
+		if (reportCache.isEnabled() && contentBaseTimeStamp == null && contentHeadTimestamp == null
+				&& includeMadeOnThisBranch && includePromotedToThisBranch && includeRebasedToThisBranch) {
+			return selectCachedChanges(branch);
+		}
+		final SelectedChanges changes = new SelectedChanges();
+		ComponentChangeMap componentChangeMap = changes.componentChangeMap;
+		List<Activity> changesNotAtTaskLevel = changes.changesNotAtTaskLevel;
 		Date startDate = getStartDate(branch, contentHeadTimestamp != null ? new Date(contentHeadTimestamp) : new Date());
 		if (contentHeadTimestamp != null) {
 			LOGGER.info("selecting changes with cut off time {} ({}) on branch {}", contentHeadTimestamp, new Date(contentHeadTimestamp), branch);
@@ -62,7 +116,7 @@ public class ReportService {
 			final BoolQuery.Builder query = bool()
 					.must(QueryHelper.termQuery(Activity.Fields.HIGHEST_PROMOTED_BRANCH, branch))
 					.must(QueryHelper.toQuery(rangeQueryBuilder));
-			processCommits(query, componentChangeMap, changesNotAtTaskLevel, componentToConceptIdMap);
+			processCommits(branch, query, componentChangeMap, changesNotAtTaskLevel);
 		} else if (includePromotedToThisBranch) {
 			// Changes made on child branches, promoted to this one only
 			if (contentBaseTimeStamp != null && contentBaseTimeStamp > startDate.getTime()) {
@@ -79,7 +133,7 @@ public class ReportService {
 					.mustNot(QueryHelper.termQuery(Activity.Fields.BRANCH, branch))
 					.must(QueryHelper.termQuery(Activity.Fields.HIGHEST_PROMOTED_BRANCH, branch))
 					.must(QueryHelper.toQuery(rangeQueryBuilder));
-			processCommits(onDescendantBranches, componentChangeMap, changesNotAtTaskLevel, componentToConceptIdMap);
+			processCommits(branch, onDescendantBranches, componentChangeMap, changesNotAtTaskLevel);
 		} else if (includeMadeOnThisBranch) {
 			// Changes made on this branch only
 			if (contentBaseTimeStamp != null && contentBaseTimeStamp > startDate.getTime()) {
@@ -94,88 +148,256 @@ public class ReportService {
 			final BoolQuery.Builder onThisBranchQuery = bool()
 					.must(QueryHelper.termQuery(Activity.Fields.BRANCH, branch))
 					.must(QueryHelper.toQuery(rangeQueryBuilder));
-			processCommits(onThisBranchQuery, componentChangeMap, changesNotAtTaskLevel, componentToConceptIdMap);
+			processCommits(branch, onThisBranchQuery, componentChangeMap, changesNotAtTaskLevel);
 		}
 
 		if (includeRebasedToThisBranch) {
-			processChangesRebasedToBranch(branch, contentBaseTimeStamp, componentChangeMap, changesNotAtTaskLevel, componentToConceptIdMap);
+			processChangesRebasedToBranch(branch, contentBaseTimeStamp, componentChangeMap, changesNotAtTaskLevel);
 		}
+		return changes;
+	}
 
-		Map<ComponentType, Set<String>> componentChanges = processComponentChanges(componentChangeMap.values(), componentToConceptIdMap);
+	private ChangeSummaryReport createReport(ComponentChangeMap componentChangeMap, List<Activity> changesNotAtTaskLevel) {
+		Map<ComponentType, Set<String>> componentChanges = new EnumMap<>(ComponentType.class);
+		Map<String, String> componentToConceptIdMap = new HashMap<>();
+		componentChangeMap.addTo(componentChanges, componentToConceptIdMap);
 
 		componentChanges.entrySet().removeIf(entry -> entry.getValue().isEmpty());
 
-		ChangeSummaryReport changeSummaryReport = new ChangeSummaryReport(componentChanges, changesNotAtTaskLevel);
+		// Chunks of oversized activities are reported as part of their activity
+		ChangeSummaryReport changeSummaryReport = new ChangeSummaryReport(componentChanges, ActivityChunks.collapse(changesNotAtTaskLevel));
 		if (!componentChanges.isEmpty()) {
 			changeSummaryReport.setComponentToConceptIdMap(componentToConceptIdMap);
 		}
 		return changeSummaryReport;
 	}
 
-	private Map<ComponentType, Set<String>> processComponentChanges(Collection<ComponentChange> changeSet, Map<String, String> componentToConceptMap) {
-		Map<ComponentType, Set<String>> componentChanges = new EnumMap<>(ComponentType.class);
-		changeSet.forEach(componentChange -> {
-			final Set<String> ids = componentChanges.computeIfAbsent(componentChange.getComponentType(), type -> new HashSet<>());
-			if (componentChange.getChangeType() == ChangeType.DELETE) {
-				componentToConceptMap.remove(componentChange.getComponentId());
-			} else {
-				if (componentChange.isEffectiveTimeNull()) {
-					ids.add(componentChange.getComponentId());
-				} else {
-					// new commit may have restored effectiveTime,
-					// remove component id from set because we no longer expect a row in the delta
-					componentToConceptMap.remove(componentChange.getComponentId());
-				}
+	/**
+	 * Default report selection using the cached state for the branch. Only commits made or promoted to the branch since the state was cached are processed.
+	 */
+	private SelectedChanges selectCachedChanges(String branch) {
+		final long generation = reportCache.getGeneration();
+		ChangeSummaryReportCache.CachedReport report = reportCache.get(branch);
+		if (report != null) {
+			final ChangeSummaryReportCache.CachedReport updated = addNewCommits(branch, report);
+			if (updated != report && updated != null) {
+				reportCache.put(branch, updated, generation);
 			}
-		});
-		return componentChanges;
+			report = updated;
+		}
+		if (report == null) {
+			report = computeCachedReport(branch);
+			reportCache.put(branch, report, generation);
+		}
+
+		// Changes on the branch take precedence over rebased changes, as when processed in order
+		final SelectedChanges changes = new SelectedChanges();
+		changes.componentChangeMap.putAllAbsent(report.ownChanges);
+		changes.componentChangeMap.putAllAbsent(report.rebasedChanges);
+		changes.changesNotAtTaskLevel.addAll(report.ownChangesNotAtTaskLevel);
+		changes.changesNotAtTaskLevel.addAll(report.rebasedChangesNotAtTaskLevel);
+		return changes;
+	}
+
+	private ChangeSummaryReportCache.CachedReport computeCachedReport(String branch) {
+		final long created = System.currentTimeMillis();
+		final Date startDate = getStartDate(branch, new Date(created));
+		LOGGER.info("Caching changes promoted/committed after {} ({}) on branch {}", startDate.getTime(), startDate, branch);
+		final ComponentChangeMap ownChanges = new ComponentChangeMap();
+		final List<Activity> ownChangesNotAtTaskLevel = new ArrayList<>();
+		final long[] latestDates = {startDate.getTime() - 1, startDate.getTime() - 1};
+		processCommits(branch, onThisBranchSince(branch, startDate.getTime()), ownChanges, ownChangesNotAtTaskLevel, new SupersededChanges(),
+				activity -> updateLatestDates(activity, latestDates));
+
+		final ComponentChangeMap rebasedChanges = new ComponentChangeMap();
+		final List<Activity> rebasedChangesNotAtTaskLevel = new ArrayList<>();
+		processChangesRebasedToBranch(branch, null, rebasedChanges, rebasedChangesNotAtTaskLevel);
+
+		// Chunks are collapsed before caching, cached activities must not be modified by later reports
+		return new ChangeSummaryReportCache.CachedReport(ownChanges, ActivityChunks.collapse(ownChangesNotAtTaskLevel), latestDates[0], latestDates[1],
+				rebasedChanges, ActivityChunks.collapse(rebasedChangesNotAtTaskLevel), created);
+	}
+
+	/**
+	 * @return the cached report if there are no new commits, an updated copy with the new commits,
+	 * or null if the new commits can not be added to the cached state and the report must be computed again
+	 */
+	private ChangeSummaryReportCache.CachedReport addNewCommits(String branch, ChangeSummaryReportCache.CachedReport report) {
+		final ComponentChangeMap newChanges = new ComponentChangeMap();
+		final List<Activity> newChangesNotAtTaskLevel = new ArrayList<>();
+		final SupersededChanges newSupersededChanges = new SupersededChanges();
+		final long[] latestDates = {report.latestCommitDate, report.latestPromotionDate};
+		final boolean[] outOfOrder = {false};
+		final int[] commits = {0};
+		processCommits(branch, onThisBranchSince(branch, report.latestPromotionDate + 1), newChanges, newChangesNotAtTaskLevel, newSupersededChanges,
+				activity -> {
+					commits[0]++;
+					if (activity.getCommitDate().getTime() <= report.latestCommitDate) {
+						outOfOrder[0] = true;
+					}
+					updateLatestDates(activity, latestDates);
+				});
+		if (commits[0] == 0) {
+			return report;
+		}
+		// Cached changes win over older changes, new commits must all be later than the cached ones to take precedence over them
+		if (outOfOrder[0]) {
+			LOGGER.info("Older commits found on branch {}, computing report again", branch);
+			return null;
+		}
+		// A superseded change hides older changes which may have been hiding even older changes that are not cached
+		if (newSupersededChanges.getComponentIds().stream().anyMatch(componentId -> report.ownChanges.containsKey(componentId) && !newChanges.containsKey(componentId))) {
+			LOGGER.info("Superseded changes found on branch {}, computing report again", branch);
+			return null;
+		}
+		LOGGER.info("Adding {} new commits to cached report on branch {}", commits[0], branch);
+
+		newChanges.putAllAbsent(report.ownChanges);
+		final List<Activity> ownChangesNotAtTaskLevel = new ArrayList<>(ActivityChunks.collapse(newChangesNotAtTaskLevel));
+		ownChangesNotAtTaskLevel.addAll(report.ownChangesNotAtTaskLevel);
+		return new ChangeSummaryReportCache.CachedReport(newChanges, ownChangesNotAtTaskLevel, latestDates[0], latestDates[1],
+				report.rebasedChanges, report.rebasedChangesNotAtTaskLevel, report.getCreated());
+	}
+
+	private BoolQuery.Builder onThisBranchSince(String branch, long promotionDateFrom) {
+		// Changes made on a branch will have the highestPromotedBranch set to itself initially
+		RangeQuery.Builder rangeQueryBuilder = QueryHelper.rangeQueryBuilder(Activity.Fields.PROMOTION_DATE);
+		QueryHelper.withFrom(rangeQueryBuilder, promotionDateFrom);
+		return bool()
+				.must(QueryHelper.termQuery(Activity.Fields.HIGHEST_PROMOTED_BRANCH, branch))
+				.must(QueryHelper.toQuery(rangeQueryBuilder));
 	}
 
-	private void processChangesRebasedToBranch(String branch, Long contentBaseTimeStamp, Map<String, ComponentChange> componentChangeMap,
-											   List<Activity> changesNotAtTaskLevel, Map<String, String> componentToConceptIdMap) {
+	private void updateLatestDates(Activity activity, long[] latestDates) {
+		latestDates[0] = Math.max(latestDates[0], activity.getCommitDate().getTime());
+		if (activity.getPromotionDate() != null) {
+			latestDates[1] = Math.max(latestDates[1], activity.getPromotionDate().getTime());
+		}
+	}
+
+	private void processChangesRebasedToBranch(String branch, Long contentBaseTimeStamp, ComponentChangeMap componentChangeMap,
+											   List<Activity> changesNotAtTaskLevel) {
 		if (!BranchUtils.isCodeSystemBranch(branch)) {
 			if (contentBaseTimeStamp != null) {
 				LOGGER.info("Processing rebased changes with base time {} ({}) on branch {}", contentBaseTimeStamp, new Date(contentBaseTimeStamp), branch);
 			}
 			// Changes made on ancestor branches, starting with the parent branch and working up.
-			final Deque<String> ancestors = createAncestorDeque(branch);
+			// Stop at any code system level, we don't expect to inherit unversioned content from other code systems.
+			final List<String> ancestors = new ArrayList<>();
+			for (String ancestor : createAncestorDeque(branch)) {
+				ancestors.add(ancestor);
+				if (BranchUtils.isCodeSystemBranch(ancestor)) {
+					break;
+				}
+			}
+
+			// Resolve the dates of every level up front from one query
+			final BranchEvents events = getBranchEvents(branch, ancestors);
+			final List<BoolQuery.Builder> selections = new ArrayList<>();
 			String previousLevel = branch;
 			Date previousLevelBaseDate = null;
-			while (!ancestors.isEmpty()) {
+			for (String ancestor : ancestors) {
 				// Select content on this level, promoted before last rebase
 				// Only need to set start date if code system branch using last version commit
-				final String ancestor = ancestors.pop();
 				// previousLevelBaseDate is the head time for current ancestor
 				if (previousLevelBaseDate == null) {
-					previousLevelBaseDate = contentBaseTimeStamp != null ? new Date(contentBaseTimeStamp) : getBaseDateUsingBestGuess(branch);
+					previousLevelBaseDate = contentBaseTimeStamp != null ? new Date(contentBaseTimeStamp) : getBaseDateUsingBestGuess(branch, events);
 				} else {
-					previousLevelBaseDate = getBaseDate(previousLevel, previousLevelBaseDate);
+					previousLevelBaseDate = events.getBaseDate(previousLevel, previousLevelBaseDate);
 				}
-				Date startDate = getStartDate(ancestor, previousLevelBaseDate);
+				Date startDate = events.getStartDate(ancestor, previousLevelBaseDate);
 				LOGGER.info("Selecting changes from {}({}) to {}({}) on branch {}", startDate, startDate.getTime(), previousLevelBaseDate, previousLevelBaseDate.getTime(), ancestor);
 				// Changes made on ancestor branches, rebased to this one
-				final BoolQuery.Builder onAncestorBranch =
-						bool()
-								// Changes made on ancestor
-								.should(QueryHelper.toQuery(bool()
-										.must(QueryHelper.termQuery(Activity.Fields.BRANCH, ancestor))
-										.must(QueryHelper.rangeQuery(Activity.Fields.COMMIT_DATE, startDate.getTime(), previousLevelBaseDate.getTime()))))
-								// Changes promoted to ancestor
-								.should(QueryHelper.toQuery(bool()
-										.must(QueryHelper.termQuery(Activity.Fields.HIGHEST_PROMOTED_BRANCH, ancestor))
-										.must(QueryHelper.rangeQuery(Activity.Fields.PROMOTION_DATE, startDate.getTime(), previousLevelBaseDate.getTime()))));
-				processCommits(onAncestorBranch, componentChangeMap, changesNotAtTaskLevel, componentToConceptIdMap);
-
+				selections.add(bool()
+						// Changes made on ancestor
+						.should(QueryHelper.toQuery(bool()
+								.must(QueryHelper.termQuery(Activity.Fields.BRANCH, ancestor))
+								.must(QueryHelper.rangeQuery(Activity.Fields.COMMIT_DATE, startDate.getTime(), previousLevelBaseDate.getTime()))))
+						// Changes promoted to ancestor
+						.should(QueryHelper.toQuery(bool()
+								.must(QueryHelper.termQuery(Activity.Fields.HIGHEST_PROMOTED_BRANCH, ancestor))
+								.must(QueryHelper.rangeQuery(Activity.Fields.PROMOTION_DATE, startDate.getTime(), previousLevelBaseDate.getTime())))));
 				previousLevel = ancestor;
-				if (BranchUtils.isCodeSystemBranch(ancestor)) {
-					// Stop at any code system level
-					// We don't expect to inherit unversioned content from other code systems.
-					break;
-				}
+			}
+
+			// Levels are processed concurrently then merged in order, changes on lower levels take precedence
+			for (SelectedChanges levelChanges : processCommitsConcurrently(branch, selections)) {
+				componentChangeMap.putAllAbsent(levelChanges.componentChangeMap);
+				changesNotAtTaskLevel.addAll(levelChanges.changesNotAtTaskLevel);
 			}
 		}
 	}
 
+	private List<SelectedChanges> processCommitsConcurrently(String branch, List<BoolQuery.Builder> selections) {
+		final List<SelectedChanges> results = new ArrayList<>();
+		if (selections.size() == 1) {
+			final SelectedChanges changes = new SelectedChanges();
+			processCommits(branch, selections.get(0), changes.componentChangeMap, changes.changesNotAtTaskLevel);
+			results.add(changes);
+			return results;
+		}
+		final List<Future<SelectedChanges>> futures = new ArrayList<>();
+		for (BoolQuery.Builder selection : selections) {
+			futures.add(levelExecutor.submit(() -> {
+				final SelectedChanges changes = new SelectedChanges();
+				processCommits(branch, selection, changes.componentChangeMap, changes.changesNotAtTaskLevel);
+				return changes;
+			}));
+		}
+		try {
+			for (Future<SelectedChanges> future : futures) {
+				results.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while selecting rebased changes.", e);
+		} catch (ExecutionException e) {
+			futures.forEach(future -> future.cancel(true));
+			if (e.getCause() instanceof RuntimeException runtimeException) {
+				throw runtimeException;
+			}
+			throw new IllegalStateException("Failed to select rebased changes.", e.getCause());
+		}
+		return results;
+	}
+
+	/**
+	 * Loads the rebases and promotions of the branch and its ancestors, and the versions of ancestor code systems.
+	 * Only the fields needed to resolve dates are fetched.
+	 */
+	private BranchEvents getBranchEvents(String branch, List<String> ancestors) {
+		final List<String> branches = new ArrayList<>(ancestors);
+		branches.add(branch);
+		final List<String> codeSystemBranches = ancestors.stream().filter(BranchUtils::isCodeSystemBranch).toList();
+
+		final BoolQuery.Builder query = bool()
+				.should(QueryHelper.toQuery(bool()
+						.must(QueryHelper.termQuery(Activity.Fields.ACTIVITY_TYPE, ActivityType.REBASE.name()))
+						.must(QueryHelper.termsQuery(Activity.Fields.BRANCH, branches))))
+				.should(QueryHelper.toQuery(bool()
+						.must(QueryHelper.termQuery(Activity.Fields.ACTIVITY_TYPE, ActivityType.PROMOTION.name()))
+						.must(QueryHelper.termsQuery(Activity.Fields.SOURCE_BRANCH, branches))))
+				.mustNot(QueryHelper.existsQuery(Activity.Fields.PARENT_ID))
+				.minimumShouldMatch("1");
+		if (!codeSystemBranches.isEmpty()) {
+			query.should(QueryHelper.toQuery(bool()
+					.must(QueryHelper.termQuery(Activity.Fields.ACTIVITY_TYPE, ActivityType.CREATE_CODE_SYSTEM_VERSION.name()))
+					.must(QueryHelper.termsQuery(Activity.Fields.BRANCH, codeSystemBranches))));
+		}
+		final NativeQuery nativeQuery = new NativeQueryBuilder().withQuery(QueryHelper.toQuery(query))
+				.withRoute(activityIndices.getRouting(branch))
+				.withSourceFilter(new FetchSourceFilter(true, new String[]{Activity.Fields.ACTIVITY_TYPE, Activity.Fields.BRANCH,
+						Activity.Fields.SOURCE_BRANCH, Activity.Fields.COMMIT_DATE}, null))
+				.withPageable(PageRequest.of(0, 10_000))
+				.build();
+
+		final BranchEvents events = new BranchEvents();
+		try (SearchHitsIterator<Activity> stream = elasticsearchOperations.searchForStream(nativeQuery, Activity.class)) {
+			stream.forEachRemaining(hit -> events.add(hit.getContent()));
+		}
+		return events;
+	}
+
 	private Date getStartDate(String branch, Date previousLevelBaseDate) {
 		Date startDate;
 		if (BranchUtils.isCodeSystemBranch(branch)) {
@@ -187,29 +409,37 @@ public class ReportService {
 		return startDate;
 	}
 
-	private void processCommits(BoolQuery.Builder selection, Map<String, ComponentChange> componentChangeMap,
-	                            List<Activity> changesNotAtTaskLevel, Map<String, String> componentToConceptMap) {
+	private void processCommits(String branch, BoolQuery.Builder selection, ComponentChangeMap componentChangeMap, List<Activity> changesNotAtTaskLevel) {
+		processCommits(branch, selection, componentChangeMap, changesNotAtTaskLevel, new SupersededChanges(), activity -> {});
+	}
+
+	/**
+	 * @param branch branch of the report, every commit selected is in its code system
+	 */
+	private void processCommits(String branch, BoolQuery.Builder selection, ComponentChangeMap componentChangeMap, List<Activity> changesNotAtTaskLevel,
+	                            SupersededChanges supersededChanges, Consumer<Activity> activityListener) {
 		NativeQuery query = new NativeQueryBuilder().withQuery(QueryHelper.toQuery(selection))
+				.withRoute(activityIndices.getRouting(branch))
 				// Use 1000 instead of 10_000 because each activity doc containing all changes which can be very large
 				// Sort by descending order to discard superseded changes
 				.withPageable(PageRequest.of(0, 1_000, Sort.by(Sort.Direction.DESC, Activity.Fields.COMMIT_DATE)))
 				.build();
-		final Map<String, Set<String>> supersededChangeComponentToPaths = new HashMap<>();
 		try (SearchHitsIterator<Activity> stream = elasticsearchOperations.searchForStream(query, Activity.class)) {
 			stream.forEachRemaining(hit -> {
 				final Activity activity = hit.getContent();
+				activityListener.accept(activity);
 				if (activity.getActivityType() == ActivityType.CONTENT_CHANGE && activity.getBranchDepth() != 3 && !PatchService.HISTORY_PATCH_USERNAME.equals(activity.getUsername())) {
 					changesNotAtTaskLevel.add(activity);
 				}
+				final int branchId = supersededChanges.getBranchId(activity.getBranch());
 				activity.getConceptChanges().forEach(conceptChange -> {
 					final String conceptId = conceptChange.getConceptId();
 					conceptChange.getComponentChanges().forEach(componentChange -> {
 						if (componentChange.isSuperseded()) {
-							supersededChangeComponentToPaths.computeIfAbsent(componentChange.getComponentId(), values -> new HashSet<>()).add(activity.getBranch());
+							supersededChanges.add(componentChange.getComponentId(), branchId);
 						}
-						if (!superseded(supersededChangeComponentToPaths, componentChange.getComponentId(), activity.getBranch())) {
-							componentChangeMap.putIfAbsent(componentChange.getComponentId(), componentChange);
-							componentToConceptMap.putIfAbsent(componentChange.getComponentId(), conceptId);
+						if (!supersededChanges.isSuperseded(componentChange.getComponentId(), branchId)) {
+							componentChangeMap.putIfAbsent(componentChange, conceptId);
 						}
 					});
 				});
@@ -218,29 +448,6 @@ public class ReportService {
 	}
 
 
-	/**
-	 * Superseded changes apply only for a given branch. Any changes before this commit on this branch should be ignored
-	 * Changes from other branch should apply however if the superseded branch is at project level
-	 * and any changes on task before this commit should be ignored too.
-	 * @param supersededChangesByComponent superseded component id to paths map
-	 * @param componentId componentId
-	 * @param branch branch for component change
-	 * @return true if superseded
-	 */
-	private boolean superseded(Map<String, Set<String>> supersededChangesByComponent, String componentId, String branch) {
-		if (!supersededChangesByComponent.containsKey(componentId)) {
-			return false;
-		}
-		Set<String> branches = supersededChangesByComponent.getOrDefault(componentId, Collections.emptySet());
-		for (String branchPath : branches) {
-			// A change is superseded when the branch is the same or child branch of superseded branch path
-			if (branchPath.equals(branch) || BranchUtils.getAncestorBranches(branch).contains(branchPath)) {
-				return true;
-			}
-		}
-		return false;
-	}
-
 	private Date getLastVersionDateOrEpoch(String branch, Date before) {
 		// If Code System branch; use the last version creation date, because versioning sets all the effectiveTimes so delta would be empty at that point.
 		if (BranchUtils.isCodeSystemBranch(branch)) {
@@ -251,6 +458,7 @@ public class ReportService {
 					.must(QueryHelper.termQuery(Activity.Fields.BRANCH, branch))
 					.must(QueryHelper.toQuery(rangeQueryBuilder));
 			final SearchHit<Activity> activityHit = elasticsearchOperations.searchOne(new NativeQueryBuilder().withQuery(QueryHelper.toQuery(query))
+					.withRoute(activityIndices.getRouting(branch))
 					.withSort(Sort.by(Activity.Fields.COMMIT_DATE).descending())
 					.build(), Activity.class);
 			if (activityHit != null) {
@@ -260,24 +468,15 @@ public class ReportService {
 		return EPOCH_DATE;
 	}
 
-	private Date getBaseDateUsingBestGuess(String branch) {
-		final SearchHit<Activity> activitySearchHit = elasticsearchOperations.searchOne(new NativeQueryBuilder()
-				.withQuery(QueryHelper.toQuery(bool()
-						.should(QueryHelper.toQuery(bool()
-								.must(QueryHelper.termQuery(Activity.Fields.BRANCH, branch))
-								.must(QueryHelper.termQuery(Activity.Fields.ACTIVITY_TYPE, ActivityType.REBASE.name()))))
-						.should(QueryHelper.toQuery(bool()
-								.must(QueryHelper.termQuery(Activity.Fields.SOURCE_BRANCH, branch))
-								.must(QueryHelper.termQuery(Activity.Fields.ACTIVITY_TYPE, ActivityType.PROMOTION.name()))))))
-				.withPageable(MOST_RECENT_COMMIT)
-				.build(), Activity.class);
-
-		if (activitySearchHit != null) {
-			return activitySearchHit.getContent().getCommitDate();
+	private Date getBaseDateUsingBestGuess(String branch, BranchEvents events) {
+		final Long lastRebaseOrPromotion = events.getLastRebaseOrPromotion(branch, Long.MAX_VALUE);
+		if (lastRebaseOrPromotion != null) {
+			return new Date(lastRebaseOrPromotion);
 		} else {
 			// Select first commit on the branch
 			final SearchHit<Activity> firstCommitSearchHit = elasticsearchOperations.searchOne(new NativeQueryBuilder()
 					.withQuery(QueryHelper.termQuery(Activity.Fields.BRANCH, branch))
+					.withRoute(activityIndices.getRouting(branch))
 					.withPageable(MOST_RECENT_COMMIT)
 					.build(), Activity.class);
 			if (firstCommitSearchHit != null) {
@@ -288,33 +487,6 @@ public class ReportService {
 		}
 	}
 
-	private Date getBaseDate(String branch, Date previousLevelBaseDate) {
-		if (previousLevelBaseDate == null) {
-			throw new IllegalArgumentException("previousLevelBaseDate can't be null");
-		}
-
-		RangeQuery.Builder rangeQueryBuilder = QueryHelper.rangeQueryBuilder(Activity.Fields.COMMIT_DATE);
-		QueryHelper.withTo(rangeQueryBuilder, previousLevelBaseDate.getTime());
-		final SearchHit<Activity> activitySearchHit = elasticsearchOperations.searchOne(new NativeQueryBuilder()
-				.withQuery(QueryHelper.toQuery(bool()
-						.should(QueryHelper.toQuery(bool()
-								.must(QueryHelper.termQuery(Activity.Fields.BRANCH, branch))
-								.must(QueryHelper.termQuery(Activity.Fields.ACTIVITY_TYPE, ActivityType.REBASE.name()))))
-						.should(QueryHelper.toQuery(bool()
-								.must(QueryHelper.termQuery(Activity.Fields.SOURCE_BRANCH, branch))
-								.must(QueryHelper.termQuery(Activity.Fields.ACTIVITY_TYPE, ActivityType.PROMOTION.name()))))
-						.must(QueryHelper.toQuery(rangeQueryBuilder)))
-				)
-				.withPageable(MOST_RECENT_COMMIT)
-				.build(), Activity.class);
-
-		if (activitySearchHit != null) {
-			return activitySearchHit.getContent().getCommitDate();
-		} else {
-			return previousLevelBaseDate;
-		}
-	}
-
 	private Date getLastPromotionDate(String branch, Date baseDateTime) {
 		RangeQuery.Builder rangeQueryBuilder = QueryHelper.rangeQueryBuilder(Activity.Fields.COMMIT_DATE);
 		QueryHelper.withTo(rangeQueryBuilder, baseDateTime.getTime());
@@ -323,6 +495,8 @@ public class ReportService {
 						.must(QueryHelper.termQuery(Activity.Fields.SOURCE_BRANCH, branch))
 						.must(QueryHelper.termQuery(Activity.Fields.ACTIVITY_TYPE, ActivityType.PROMOTION.name()))
 						.must(QueryHelper.toQuery(rangeQueryBuilder))))
+				// Only used for branches below a code system, the promotion is on the parent branch in the same code system
+				.withRoute(activityIndices.getRouting(branch))
 				.withPageable(MOST_RECENT_COMMIT)
 				.build(), Activity.class);
 
@@ -346,4 +520,59 @@ public class ReportService {
 
 		return ancestors;
 	}
+
+	private static final class SelectedChanges {
+		private final ComponentChangeMap componentChangeMap = new ComponentChangeMap();
+		private final List<Activity> changesNotAtTaskLevel = new ArrayList<>();
+	}
+
+	/**
+	 * Commit dates of the rebases, promotions and code system versions which decide the changes selected at each ancestor level.
+	 */
+	private static final class BranchEvents {
+
+		// Rebases on a branch and promotions from it, by branch
+		private final Map<String, TreeSet<Long>> rebasesAndPromotions = new HashMap<>();
+		// Promotions from a branch, by source branch
+		private final Map<String, TreeSet<Long>> promotions = new HashMap<>();
+		// Code system versions, by code system branch
+		private final Map<String, TreeSet<Long>> versions = new HashMap<>();
+
+		private void add(Activity activity) {
+			final long commitDate = activity.getCommitDate().getTime();
+			switch (activity.getActivityType()) {
+				case REBASE -> rebasesAndPromotions.computeIfAbsent(activity.getBranch(), b -> new TreeSet<>()).add(commitDate);
+				case PROMOTION -> {
+					rebasesAndPromotions.computeIfAbsent(activity.getSourceBranch(), b -> new TreeSet<>()).add(commitDate);
+					promotions.computeIfAbsent(activity.getSourceBranch(), b -> new TreeSet<>()).add(commitDate);
+				}
+				case CREATE_CODE_SYSTEM_VERSION -> versions.computeIfAbsent(activity.getBranch(), b -> new TreeSet<>()).add(commitDate);
+				default -> {
+					// Not selected
+				}
+			}
+		}
+
+		private Long getLastRebaseOrPromotion(String branch, long atOrBefore) {
+			return latest(rebasesAndPromotions, branch, atOrBefore);
+		}
+
+		// Date of the last rebase or promotion of the branch at or before the base date of the level below
+		private Date getBaseDate(String branch, Date previousLevelBaseDate) {
+			final Long baseDate = getLastRebaseOrPromotion(branch, previousLevelBaseDate.getTime());
+			return baseDate != null ? new Date(baseDate) : previousLevelBaseDate;
+		}
+
+		// Code system branches start at the last version, other branches at the last promotion, epoch if there is none.
+		// Changes promoted before will be part of ancestor branch.
+		private Date getStartDate(String branch, Date previousLevelBaseDate) {
+			final Long startDate = latest(BranchUtils.isCodeSystemBranch(branch) ? versions : promotions, branch, previousLevelBaseDate.getTime());
+			return startDate != null ? new Date(startDate) : EPOCH_DATE;
+		}
+
+		private static Long latest(Map<String, TreeSet<Long>> dates, String branch, long atOrBefore) {
+			final TreeSet<Long> branchDates = dates.get(branch);
+			return branchDates != null ? branchDates.floor(atOrBefore) : null;
+		}
+	}
 }
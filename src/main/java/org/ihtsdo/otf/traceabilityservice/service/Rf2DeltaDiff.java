@@ -0,0 +1,336 @@
+package org.ihtsdo.otf.traceabilityservice.service;
+
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.ihtsdo.otf.traceabilityservice.domain.ComponentType;
+import org.ihtsdo.otf.traceabilityservice.domain.DiffReport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Diff of the components expected in an RF2 delta against the rows of the delta files.
+ * The store components are indexed once, SCTIDs as longs and refset member UUIDs as two longs like {@link ComponentChangeMap}.
+ * Delta files are then scanned as bytes: only the id column of each row is read, no line or column strings are created
+ * unless the id is missing from the store. Each store component found in the delta is marked, the unmarked ones are missing from the delta.
+ * Memory is the index and the differences, not the delta.
+ * <p>
+ * When rows are selected by effectiveTime, see {@link Rf2Selection}, the effectiveTime column is read as a number as well
+ * and rows which are not changes are skipped before their id is looked up, so snapshot and full files can be scanned in the same way.
+ * <p>
+ * The index must not be modified once scanning starts. Each scan has its own {@link Scan} state so files can be scanned concurrently.
+ */
+public final class Rf2DeltaDiff {
+
+	// Kinds of component id
+	private static final int SCTID = 0;
+	private static final int UUID_ID = 1;
+	private static final int OTHER_ID = 2;
+	private static final int KIND_SHIFT = 2;
+
+	private static final ComponentType[] COMPONENT_TYPES = ComponentType.values();
+	private static final ComponentType[] DIFF_TYPES = {ComponentType.CONCEPT, ComponentType.DESCRIPTION, ComponentType.RELATIONSHIP, ComponentType.REFERENCE_SET_MEMBER};
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final Long2IntOpenHashMap sctidIndexes = new Long2IntOpenHashMap();
+	// Indexed by the most significant bits, a UUID sharing them with another one is held as a string
+	private final Long2IntOpenHashMap uuidIndexes = new Long2IntOpenHashMap();
+	private final Object2IntOpenHashMap<String> otherIdIndexes = new Object2IntOpenHashMap<>();
+	private final List<String> otherIds = new ArrayList<>();
+
+	// By index: the SCTID, the UUID bits or the index of the other id, and the component type and kind of id
+	private long[] idHighs = new long[16];
+	private long[] idLows = new long[16];
+	private byte[] types = new byte[16];
+	private int size;
+
+	private final Rf2Selection selection;
+	private final boolean effectiveTimeFiltered;
+
+	public Rf2DeltaDiff() {
+		this(Rf2Selection.DELTA);
+	}
+
+	/**
+	 * @param selection rows of the files which are changes
+	 */
+	public Rf2DeltaDiff(Rf2Selection selection) {
+		this.selection = selection;
+		this.effectiveTimeFiltered = selection.isEffectiveTimeFiltered();
+		sctidIndexes.defaultReturnValue(-1);
+		uuidIndexes.defaultReturnValue(-1);
+		otherIdIndexes.defaultReturnValue(-1);
+	}
+
+	/**
+	 * Adds a component the store expects in the delta. Adding a component again does nothing.
+	 */
+	public void addStoreComponent(ComponentType componentType, String componentId) {
+		final long sctid = ComponentChangeMap.parseSctid(componentId);
+		if (sctid != -1) {
+			add(componentType, SCTID, sctid, 0, null);
+		} else if (ComponentChangeMap.isUuid(componentId)) {
+			final UUID uuid = UUID.fromString(componentId);
+			add(componentType, UUID_ID, uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), null);
+		} else {
+			add(componentType, OTHER_ID, 0, 0, componentId);
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public Scan newScan() {
+		return new Scan(null);
+	}
+
+	/**
+	 * @param rowsParsed counter the number of rows is added to while scanning, may be shared by scans
+	 */
+	public Scan newScan(LongAdder rowsParsed) {
+		return new Scan(rowsParsed);
+	}
+
+	/**
+	 * Reads the rows of one file, the first line is the header and is skipped.
+	 * @param file content of the file, not closed
+	 * @param scan state of the scan, not shared with another thread while scanning
+	 */
+	public void scan(InputStream file, Scan scan) throws IOException {
+		final byte[] buffer = new byte[BUFFER_SIZE];
+		byte[] id = new byte[64];
+		int idLength = 0;
+		// The effectiveTime as a number, its length is -1 once a character other than a digit is read
+		int effectiveTime = 0;
+		int effectiveTimeLength = 0;
+		boolean header = true;
+		int column = 0;
+		int rows = 0;
+		int read;
+		while ((read = file.read(buffer)) != -1) {
+			for (int i = 0; i < read; i++) {
+				final byte b = buffer[i];
+				if (b == '\n') {
+					if (!header) {
+						if (isSelected(effectiveTime, effectiveTimeLength)) {
+							scan.row(id, idLength);
+						}
+						rows++;
+					}
+					header = false;
+					column = 0;
+					idLength = 0;
+					effectiveTime = 0;
+					effectiveTimeLength = 0;
+				} else if (header || b == '\r') {
+					// Skipped
+				} else if (b == '\t') {
+					column++;
+				} else if (column == 0) {
+					if (idLength == id.length) {
+						id = Arrays.copyOf(id, idLength * 2);
+					}
+					id[idLength++] = b;
+				} else if (column == 1 && effectiveTimeFiltered && effectiveTimeLength != -1) {
+					if (b >= '0' && b <= '9' && effectiveTimeLength < 8) {
+						effectiveTime = effectiveTime * 10 + (b - '0');
+						effectiveTimeLength++;
+					} else {
+						effectiveTimeLength = -1;
+					}
+				}
+			}
+			if (scan.rowsParsed != null) {
+				scan.rowsParsed.add(rows);
+				rows = 0;
+			}
+		}
+		if (!header && idLength > 0) {
+			// Last row without a line end
+			if (isSelected(effectiveTime, effectiveTimeLength)) {
+				scan.row(id, idLength);
+			}
+			if (scan.rowsParsed != null) {
+				scan.rowsParsed.increment();
+			}
+		}
+	}
+
+	// An empty effectiveTime is an unpublished change, a malformed one is never in the window
+	private boolean isSelected(int effectiveTime, int effectiveTimeLength) {
+		return !effectiveTimeFiltered || effectiveTimeLength == 0 || (effectiveTimeLength == 8 && selection.isInWindow(effectiveTime));
+	}
+
+	/**
+	 * @param scans the state of every file scanned
+	 * @return the store components not found by any scan, and the delta components not in the store, by component type
+	 */
+	public DiffReport getReport(Collection<Scan> scans) {
+		final BitSet found = new BitSet(size);
+		final Map<ComponentType, Set<String>> missingFromDelta = new EnumMap<>(ComponentType.class);
+		final Map<ComponentType, Set<String>> missingFromStore = new EnumMap<>(ComponentType.class);
+		for (ComponentType componentType : DIFF_TYPES) {
+			missingFromDelta.put(componentType, new HashSet<>());
+			missingFromStore.put(componentType, new HashSet<>());
+		}
+		for (Scan scan : scans) {
+			found.or(scan.found);
+			scan.missingFromStore.forEach((componentType, ids) -> missingFromStore.computeIfAbsent(componentType, type -> new HashSet<>()).addAll(ids));
+		}
+		for (int index = found.nextClearBit(0); index < size; index = found.nextClearBit(index + 1)) {
+			missingFromDelta.computeIfAbsent(COMPONENT_TYPES[types[index] & 3], type -> new HashSet<>()).add(getComponentId(index));
+		}
+		return new DiffReport(missingFromDelta, missingFromStore);
+	}
+
+	private void add(ComponentType componentType, int kind, long idHigh, long idLow, String otherId) {
+		if (indexOf(kind, idHigh, idLow, otherId) != -1) {
+			return;
+		}
+		if (kind == UUID_ID && uuidIndexes.containsKey(idHigh)) {
+			kind = OTHER_ID;
+			otherId = new UUID(idHigh, idLow).toString();
+		}
+		if (size == types.length) {
+			final int capacity = size * 2;
+			idHighs = Arrays.copyOf(idHighs, capacity);
+			idLows = Arrays.copyOf(idLows, capacity);
+			types = Arrays.copyOf(types, capacity);
+		}
+		final int index = size++;
+		switch (kind) {
+			case SCTID -> sctidIndexes.put(idHigh, index);
+			case UUID_ID -> uuidIndexes.put(idHigh, index);
+			default -> {
+				otherIdIndexes.put(otherId, index);
+				idHigh = otherIds.size();
+				otherIds.add(otherId);
+			}
+		}
+		idHighs[index] = idHigh;
+		idLows[index] = idLow;
+		types[index] = (byte) (componentType.ordinal() | kind << KIND_SHIFT);
+	}
+
+	private int indexOf(int kind, long idHigh, long idLow, String otherId) {
+		return switch (kind) {
+			case SCTID -> sctidIndexes.get(idHigh);
+			case UUID_ID -> {
+				final int index = uuidIndexes.get(idHigh);
+				yield index == -1 || idLows[index] == idLow ? index : otherIdIndexes.getInt(new UUID(idHigh, idLow).toString());
+			}
+			default -> otherIdIndexes.getInt(otherId);
+		};
+	}
+
+	private String getComponentId(int index) {
+		return switch (types[index] >> KIND_SHIFT) {
+			case SCTID -> Long.toString(idHighs[index]);
+			case UUID_ID -> new UUID(idHighs[index], idLows[index]).toString();
+			default -> otherIds.get((int) idHighs[index]);
+		};
+	}
+
+	/**
+	 * @return the id as a long if it is written exactly as the long would be, otherwise -1. Same rules as {@link ComponentChangeMap#parseSctid}.
+	 */
+	static long parseSctid(byte[] id, int length) {
+		if (length == 0 || length > 18 || (id[0] == '0' && length > 1)) {
+			return -1;
+		}
+		long value = 0;
+		for (int i = 0; i < length; i++) {
+			final byte c = id[i];
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	/**
+	 * @return true if the id is a UUID written exactly as {@link UUID#toString()} would write it. Same rules as {@link ComponentChangeMap#isUuid}.
+	 */
+	static boolean isUuid(byte[] id, int length) {
+		if (length != 36) {
+			return false;
+		}
+		for (int i = 0; i < 36; i++) {
+			final byte c = id[i];
+			if (i == 8 || i == 13 || i == 18 || i == 23) {
+				if (c != '-') {
+					return false;
+				}
+			} else if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Hex digits of a UUID from start to end, skipping the dashes
+	private static long parseUuidBits(byte[] id, int start, int end) {
+		long bits = 0;
+		for (int i = start; i < end; i++) {
+			final byte c = id[i];
+			if (c != '-') {
+				bits = bits << 4 | (c <= '9' ? c - '0' : c - 'a' + 10);
+			}
+		}
+		return bits;
+	}
+
+	/**
+	 * State of the scan of one or more files: the store components found and the delta components missing from the store.
+	 */
+	public final class Scan {
+
+		private final BitSet found = new BitSet(size);
+		private final Map<ComponentType, Set<String>> missingFromStore = new EnumMap<>(ComponentType.class);
+		private final LongAdder rowsParsed;
+
+		private Scan(LongAdder rowsParsed) {
+			this.rowsParsed = rowsParsed;
+		}
+
+		private void row(byte[] id, int length) {
+			if (length == 0) {
+				return;
+			}
+			final long sctid = parseSctid(id, length);
+			if (sctid != -1) {
+				final ComponentType componentType = switch ((int) (sctid / 10 % 10)) {
+					case 0 -> ComponentType.CONCEPT;
+					case 1 -> ComponentType.DESCRIPTION;
+					case 2 -> ComponentType.RELATIONSHIP;
+					default -> null;
+				};
+				if (componentType != null) {
+					check(componentType, indexOf(SCTID, sctid, 0, null), id, length);
+				}
+			} else if (isUuid(id, length)) {
+				check(ComponentType.REFERENCE_SET_MEMBER, indexOf(UUID_ID, parseUuidBits(id, 0, 18), parseUuidBits(id, 19, 36), null), id, length);
+			} else {
+				final String otherId = new String(id, 0, length, StandardCharsets.UTF_8);
+				final ComponentType componentType = ComponentIdUtil.getComponentType(otherId);
+				if (componentType != null) {
+					check(componentType, indexOf(OTHER_ID, 0, 0, otherId), id, length);
+				}
+			}
+		}
+
+		private void check(ComponentType componentType, int index, byte[] id, int length) {
+			if (index != -1 && (types[index] & 3) == componentType.ordinal()) {
+				found.set(index);
+			} else {
+				missingFromStore.computeIfAbsent(componentType, type -> new HashSet<>()).add(new String(id, 0, length, StandardCharsets.UTF_8));
+			}
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package org.ihtsdo.otf.traceabilityservice.service;
+
+/**
+ * Rows of an RF2 archive to diff: the files of one release type, and the rows of those files which are changes.
+ * Every row of a delta is a change unless an effectiveTime window is given.
+ * In a snapshot or full release, and in a delta with a window, the changes are the rows with an empty effectiveTime or an effectiveTime in the window.
+ *
+ * @param releaseType files to read
+ * @param effectiveTimeFrom first effectiveTime in the window, yyyyMMdd, or null
+ * @param effectiveTimeTo last effectiveTime in the window, yyyyMMdd, or null
+ */
+public record Rf2Selection(ReleaseType releaseType, Integer effectiveTimeFrom, Integer effectiveTimeTo) {
+
+	public static final Rf2Selection DELTA = new Rf2Selection(ReleaseType.DELTA, null, null);
+
+	public enum ReleaseType {
+		DELTA("Delta"), SNAPSHOT("Snapshot"), FULL("Full");
+
+		private final String fileNamePart;
+
+		ReleaseType(String fileNamePart) {
+			this.fileNamePart = fileNamePart;
+		}
+	}
+
+	public Rf2Selection {
+		if (releaseType == null) {
+			throw new IllegalArgumentException("RF2 release type is required.");
+		}
+		checkEffectiveTime(effectiveTimeFrom);
+		checkEffectiveTime(effectiveTimeTo);
+		if (effectiveTimeFrom != null && effectiveTimeTo != null && effectiveTimeFrom > effectiveTimeTo) {
+			throw new IllegalArgumentException("effectiveTimeFrom must not be after effectiveTimeTo.");
+		}
+	}
+
+	/**
+	 * @param fileName name of a file in the archive, without its directory
+	 * @return true if the file is an RF2 file of the release type, readme and other files in the archive are not components
+	 */
+	public boolean isReleaseFile(String fileName) {
+		return (fileName.startsWith("sct2_") || fileName.startsWith("der2_")) && fileName.contains(releaseType.fileNamePart);
+	}
+
+	/**
+	 * @return true if rows are selected by their effectiveTime, otherwise every row is a change
+	 */
+	public boolean isEffectiveTimeFiltered() {
+		return releaseType != ReleaseType.DELTA || effectiveTimeFrom != null || effectiveTimeTo != null;
+	}
+
+	/**
+	 * @param effectiveTime a row's effectiveTime, not empty
+	 */
+	public boolean isInWindow(int effectiveTime) {
+		return (effectiveTimeFrom != null || effectiveTimeTo != null)
+				&& (effectiveTimeFrom == null || effectiveTime >= effectiveTimeFrom)
+				&& (effectiveTimeTo == null || effectiveTime <= effectiveTimeTo);
+	}
+
+	private static void checkEffectiveTime(Integer effectiveTime) {
+		if (effectiveTime != null && (effectiveTime < 1000_01_01 || effectiveTime > 9999_12_31)) {
+			throw new IllegalArgumentException(String.format("effectiveTime %s is not in the format yyyyMMdd.", effectiveTime));
+		}
+	}
+}
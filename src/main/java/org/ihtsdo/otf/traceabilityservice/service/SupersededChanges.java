@@ -0,0 +1,56 @@
+package org.ihtsdo.otf.traceabilityservice.service;
+
+import java.util.*;
+
+/**
+ * Superseded changes found while processing commits, newest first.
+ * Superseded changes apply only for a given branch. Any changes before this commit on this branch should be ignored.
+ * Changes from other branches should apply, however if the superseded branch is at project level
+ * any changes on its tasks before this commit should be ignored too.
+ * <p>
+ * Branch paths are interned to ids, each with a precomputed set of the ids of the branch and its ancestors,
+ * so checking a change does not allocate.
+ */
+public class SupersededChanges {
+
+	private final Map<String, Integer> branchIds = new HashMap<>();
+	private final List<BitSet> branchAndAncestorIds = new ArrayList<>();
+	private final Map<String, BitSet> supersededBranchIdsByComponent = new HashMap<>();
+
+	/**
+	 * @param branchPath branch path
+	 * @return id of the branch, the same for every call with the same path
+	 */
+	public int getBranchId(String branchPath) {
+		final Integer existing = branchIds.get(branchPath);
+		if (existing != null) {
+			return existing;
+		}
+		final int parentSlash = branchPath.lastIndexOf('/');
+		final BitSet ids = parentSlash != -1 ? (BitSet) branchAndAncestorIds.get(getBranchId(branchPath.substring(0, parentSlash))).clone() : new BitSet();
+		final int id = branchAndAncestorIds.size();
+		ids.set(id);
+		branchAndAncestorIds.add(ids);
+		branchIds.put(branchPath, id);
+		return id;
+	}
+
+	public void add(String componentId, int branchId) {
+		supersededBranchIdsByComponent.computeIfAbsent(componentId, c -> new BitSet()).set(branchId);
+	}
+
+	/**
+	 * A change is superseded when its branch is the same or a child branch of a branch the component was superseded on.
+	 * @param componentId componentId
+	 * @param branchId id of the branch of the change
+	 * @return true if superseded
+	 */
+	public boolean isSuperseded(String componentId, int branchId) {
+		final BitSet supersededBranchIds = supersededBranchIdsByComponent.get(componentId);
+		return supersededBranchIds != null && supersededBranchIds.intersects(branchAndAncestorIds.get(branchId));
+	}
+
+	public Set<String> getComponentIds() {
+		return supersededBranchIdsByComponent.keySet();
+	}
+}
@@ -1,32 +1,44 @@
 package org.ihtsdo.otf.traceabilityservice.service;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import co.elastic.clients.elasticsearch._types.query_dsl.RangeQuery;
 import com.google.common.collect.Lists;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.ihtsdo.otf.traceabilityservice.configuration.ApplicationProperties;
+import org.ihtsdo.otf.traceabilityservice.configuration.elasticsearch.ActivityIndices;
 import org.ihtsdo.otf.traceabilityservice.util.QueryHelper;
 import org.ihtsdo.otf.traceabilityservice.domain.*;
 import org.ihtsdo.otf.traceabilityservice.repository.ActivityRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.PageRequest;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.elasticsearch.client.elc.NativeQuery;
 import org.springframework.data.elasticsearch.client.elc.NativeQueryBuilder;
 import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
-import org.springframework.data.elasticsearch.core.SearchHitsIterator;
+import org.springframework.data.elasticsearch.core.RefreshPolicy;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.data.elasticsearch.core.query.ByQueryResponse;
+import org.springframework.data.elasticsearch.core.query.ScriptType;
+import org.springframework.data.elasticsearch.core.query.UpdateQuery;
 import org.springframework.jms.annotation.JmsListener;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static co.elastic.clients.elasticsearch._types.query_dsl.QueryBuilders.bool;
 
 @Component
 public class TraceabilityStreamConsumer {
 
+	private static final String PROMOTE_SCRIPT = "ctx._source.highestPromotedBranch = params.branch; ctx._source.promotionDate = params.promotionDate;";
+
 	@Autowired
 	private ActivityRepository activityRepository;
 
@@ -34,64 +46,220 @@ public class TraceabilityStreamConsumer {
 	private ElasticsearchOperations elasticsearchOperations;
 
 	@Autowired
-	private ObjectMapper objectMapper;
+	private ActivityMessageReader activityMessageReader;
+
+	@Autowired
+	private ActivityIndices activityIndices;
+
+	@Value("${traceability.ingestion.bulk-enabled}")
+	private boolean bulkEnabled;
+
+	@Autowired
+	private IngestionMetrics ingestionMetrics;
+
+	@Autowired
+	private ChangeSummaryReportCache reportCache;
+
+	@Autowired
+	private ComponentHistoryService componentHistoryService;
+
+	@Value("${traceability.ingestion.promotion.batch-size}")
+	private int promotionBatchSize;
+
+	@Value("${traceability.ingestion.partitions}")
+	private int partitions;
+
+	@Value("${traceability.ingestion.chunk.max-component-changes}")
+	private int chunkMaxComponentChanges;
+
+	private ExecutorService partitionExecutor;
 
 	private final Logger logger = LoggerFactory.getLogger(getClass());
 
+	@PostConstruct
+	public void init() {
+		if (partitions > 1) {
+			partitionExecutor = Executors.newFixedThreadPool(partitions);
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		if (partitionExecutor != null) {
+			partitionExecutor.shutdown();
+		}
+	}
+
 	@JmsListener(destination = "${platform.name}." + ApplicationProperties.TRACEABILITY_QUEUE_SUFFIX)
 	@Transactional
-	public void receiveMessage(String message) throws JsonProcessingException {
-		ActivityMessage activityMessage = objectMapper.readValue(message, ActivityMessage.class);
-		final String branchPath = activityMessage.getBranchPath();
-		final String username = activityMessage.getUserId();
-		final Date commitTimestamp = new Date(activityMessage.getCommitTimestamp());
-
-		final ActivityType activityType = activityMessage.getActivityType();
-		final String mergeSourceBranch = activityMessage.getSourceBranch();
-		final Activity activity = new Activity(username, branchPath, mergeSourceBranch, commitTimestamp, activityType);
-
-		final List<ActivityMessage.ConceptActivity> changes = activityMessage.getChanges();
-		if (changes != null) {
-			for (ActivityMessage.ConceptActivity conceptActivity : changes) {
-				final String conceptId = conceptActivity.getConceptId();
-
-				final ConceptChange conceptChange = new ConceptChange(conceptId);
-				for (ActivityMessage.ComponentChange componentChange : conceptActivity.getComponentChanges()) {
-					conceptChange.addComponentChange(new ComponentChange(componentChange.getComponentId(), componentChange.getChangeType(),
-							componentChange.getComponentType(), componentChange.getComponentSubType(), componentChange.isEffectiveTimeNull(), componentChange.isSuperseded()));
+	public void receiveMessage(String message) throws IOException {
+		final Activity activity = read(message);
+
+		logger.debug("Saving activity {}", activity);
+		final long start = System.currentTimeMillis();
+		if (activity.getActivityType() == ActivityType.PROMOTION) {
+			promoteActivities(activity);
+		}
+		saveActivities(Collections.singletonList(activity));
+		final String branch = activity.getActivityType() == ActivityType.PROMOTION ? activity.getSourceBranch() : activity.getBranch();
+		ingestionMetrics.record(BranchUtils.getLineageBranch(branch), 1, activity.getCommitDate().getTime(), System.currentTimeMillis() - start);
+
+		logger.info("Consumed activity on {} @ {}", activity.getBranch(), activity.getCommitDate().getTime());
+	}
+
+	/**
+	 * Consumes a batch of messages, writing the activities in as few requests as possible.
+	 * Activities are written in message order within each branch lineage. Pending activities are written before a promotion is applied
+	 * so that the promotion sees every commit made on the source branch.
+	 * When more than one ingestion partition is configured the lineages in the batch are written in parallel.
+	 * @param messages activity messages in the order they were received
+	 * @throws IOException if any message can not be read, nothing from the batch should be acknowledged
+	 * @throws ServiceException if any lineage in the batch failed to be written, nothing from the batch should be acknowledged
+	 */
+	public void receiveMessages(List<String> messages) throws IOException, ServiceException {
+		// Promotions are grouped with the branch they promote from, that is where the activities they update were written.
+		final Map<String, List<Activity>> activitiesByLineage = new LinkedHashMap<>();
+		for (String message : messages) {
+			final Activity activity = read(message);
+			final String branch = activity.getActivityType() == ActivityType.PROMOTION ? activity.getSourceBranch() : activity.getBranch();
+			activitiesByLineage.computeIfAbsent(BranchUtils.getLineageBranch(branch), lineage -> new ArrayList<>()).add(activity);
+		}
+
+		if (partitionExecutor == null || activitiesByLineage.size() == 1) {
+			for (Map.Entry<String, List<Activity>> lineageActivities : activitiesByLineage.entrySet()) {
+				saveInOrder(lineageActivities.getKey(), lineageActivities.getValue());
+			}
+		} else {
+			final List<Future<?>> futures = new ArrayList<>();
+			for (Map.Entry<String, List<Activity>> lineageActivities : activitiesByLineage.entrySet()) {
+				futures.add(partitionExecutor.submit(() -> saveInOrder(lineageActivities.getKey(), lineageActivities.getValue())));
+			}
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new ServiceException("Interrupted while writing batch.", e);
+				} catch (ExecutionException e) {
+					throw new ServiceException("Failed to write batch.", e.getCause());
 				}
-				activity.addConceptChange(conceptChange);
 			}
 		}
+		logger.info("Consumed batch of {} activities on {} branch lineages", messages.size(), activitiesByLineage.size());
+	}
+
+	private void saveInOrder(String lineage, List<Activity> activities) {
+		final long start = System.currentTimeMillis();
+		final List<Activity> pending = new ArrayList<>();
+		for (Activity activity : activities) {
+			if (activity.getActivityType() == ActivityType.PROMOTION) {
+				saveActivities(pending);
+				pending.clear();
+				promoteActivities(activity);
+			}
+			pending.add(activity);
+		}
+		saveActivities(pending);
+		ingestionMetrics.record(lineage, activities.size(), activities.get(activities.size() - 1).getCommitDate().getTime(), System.currentTimeMillis() - start);
+	}
 
-		logger.debug("Saving activity {}", activity);
-		activityRepository.save(activity);
-
-		if (activityType == ActivityType.PROMOTION) {
-			// Move activities on the source branch up to the parent
-			final List<ActivityType> contentActivityTypes = Lists.newArrayList(ActivityType.CLASSIFICATION_SAVE, ActivityType.CONTENT_CHANGE, ActivityType.REBASE);
-
-			List<Activity> toSave = new ArrayList<>();
-
-			try (final SearchHitsIterator<Activity> stream = elasticsearchOperations.searchForStream(new NativeQueryBuilder().withQuery(QueryHelper.toQuery(bool()
-							.must(QueryHelper.termQuery(Activity.Fields.HIGHEST_PROMOTED_BRANCH, mergeSourceBranch))
-							.must(QueryHelper.termsQuery(Activity.Fields.ACTIVITY_TYPE, contentActivityTypes))))
-					.withPageable(PageRequest.of(0, 1_000))
-					.build(), Activity.class)) {
-				stream.forEachRemaining(activitySearchHit -> {
-					final Activity activityToUpdate = activitySearchHit.getContent();
-					activityToUpdate.setHighestPromotedBranch(branchPath);
-					activityToUpdate.setPromotionDate(commitTimestamp);
-					toSave.add(activityToUpdate);
-				});
+	private Activity read(String message) throws IOException {
+		final Activity activity = activityMessageReader.read(message);
+		activity.setId(Activity.createId(activity.getBranch(), activity.getCommitDate()));
+		return activity;
+	}
+
+	private void saveActivities(List<Activity> activities) {
+		if (activities.isEmpty()) {
+			return;
+		}
+		// A message may be repeated within a batch
+		final Map<String, Activity> newActivities = new LinkedHashMap<>();
+		activities.forEach(activity -> newActivities.putIfAbsent(activity.getId(), activity));
+
+		// Oversized activities keep their first chunk of changes, the other chunks are written as separate documents
+		final List<Activity> documents = new ArrayList<>(newActivities.values());
+		int chunkedActivities = 0;
+		for (Activity activity : newActivities.values()) {
+			final List<Set<ConceptChange>> chunks = ActivityChunks.split(activity, chunkMaxComponentChanges);
+			for (int i = 0; i < chunks.size(); i++) {
+				final Activity chunk = activity.createChunk(chunks.get(i));
+				chunk.setId(activity.getId() + "-" + (i + 1));
+				documents.add(chunk);
 			}
-			if (!toSave.isEmpty()) {
-				logger.debug("Updating highest promoted branch on {} existing activities.", toSave.size());
-				toSave.forEach(activityRepository::save);// Saving one at a time to avoid AWS permissions issue when using "/_bulk" URI
+			if (!chunks.isEmpty()) {
+				chunkedActivities++;
+			}
+		}
+		if (chunkedActivities > 0) {
+			logger.info("Saving {} chunk documents for {} oversized activities", documents.size() - newActivities.size(), chunkedActivities);
+		}
+		logger.debug("Saving {} activities", newActivities.size());
+		// History rows first, their ids are derived from the activity so writing them again for a redelivered message changes nothing
+		componentHistoryService.save(documents);
+		// Messages may be redelivered. Writes are create only, an activity already stored is not written again, it may have been promoted since.
+		final Set<String> storedIds = activityRepository.createAll(documents, bulkEnabled);
+		newActivities.keySet().removeAll(storedIds);
+		if (!storedIds.isEmpty()) {
+			logger.info("Skipped {} documents which had already been stored", storedIds.size());
+		}
+
+		// These change the commits selected by the change summary report of the branch and its descendants
+		for (Activity activity : newActivities.values()) {
+			final ActivityType activityType = activity.getActivityType();
+			if (activityType == ActivityType.PROMOTION || activityType == ActivityType.REBASE || activityType == ActivityType.CREATE_CODE_SYSTEM_VERSION) {
+				reportCache.invalidate(activity.getBranch());
 			}
 		}
+	}
 
-		logger.info("Consumed activity on {} @ {}", branchPath, commitTimestamp.getTime());
+	private void promoteActivities(Activity promotion) {
+		// Move activities on the source branch up to the parent.
+		// Done server side with an update-by-query, in batches, so that the documents and their changes are never loaded into this service.
+		// Updated activities no longer match the query so each batch picks up where the last one finished.
+		// Only activities committed before the promotion are part of it, so a redelivered promotion only finishes what the first delivery did not.
+		final List<ActivityType> contentActivityTypes = Lists.newArrayList(ActivityType.CLASSIFICATION_SAVE, ActivityType.CONTENT_CHANGE, ActivityType.REBASE);
+		final RangeQuery.Builder committedBefore = QueryHelper.rangeQueryBuilder(Activity.Fields.COMMIT_DATE);
+		QueryHelper.withTo(committedBefore, promotion.getCommitDate().getTime());
+		final NativeQuery query = new NativeQueryBuilder().withQuery(QueryHelper.toQuery(bool()
+						.must(QueryHelper.termQuery(Activity.Fields.HIGHEST_PROMOTED_BRANCH, promotion.getSourceBranch()))
+						.must(QueryHelper.termsQuery(Activity.Fields.ACTIVITY_TYPE, contentActivityTypes))
+						.must(QueryHelper.toQuery(committedBefore))))
+				// Activities are only promoted within their code system
+				.withRoute(activityIndices.getRouting(promotion.getSourceBranch()))
+				.build();
+		final Map<String, Object> params = new HashMap<>();
+		params.put("branch", promotion.getBranch());
+		params.put("promotionDate", promotion.getCommitDate().getTime());
+		final UpdateQuery updateQuery = UpdateQuery.builder(query)
+				.withScriptType(ScriptType.INLINE)
+				.withLang("painless")
+				.withScript(PROMOTE_SCRIPT)
+				.withParams(params)
+				.withRouting(query.getRoute())
+				.withMaxDocs(promotionBatchSize)
+				.withAbortOnVersionConflict(false)
+				.withRefreshPolicy(RefreshPolicy.IMMEDIATE)
+				.build();
+		final IndexCoordinates index = elasticsearchOperations.getIndexCoordinatesFor(Activity.class);
+
+		final long total = elasticsearchOperations.count(query, Activity.class);
+		if (total == 0) {
+			return;
+		}
+		logger.info("Promoting {} activities from {} to {}.", total, promotion.getSourceBranch(), promotion.getBranch());
+		long updated = 0;
+		ByQueryResponse response;
+		do {
+			response = elasticsearchOperations.updateByQuery(updateQuery, index);
+			updated += response.getUpdated();
+			if (!response.getFailures().isEmpty() || response.getVersionConflicts() > 0) {
+				logger.warn("Promotion of activities from {} had {} failures and {} version conflicts.", promotion.getSourceBranch(),
+						response.getFailures().size(), response.getVersionConflicts());
+			}
+			logger.debug("Updated highest promoted branch on {} of {} activities.", updated, total);
+		} while (response.getUpdated() > 0 && updated < total);
+		logger.info("Updated highest promoted branch on {} activities.", updated);
 	}
 
 }
@@ -5,6 +5,7 @@ import co.elastic.clients.elasticsearch._types.query_dsl.*;
 import co.elastic.clients.json.JsonData;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
@@ -242,4 +243,20 @@ public class QueryHelper {
         ExistsQuery.Builder builder = existsQueryBuilder(field);
         return toQuery(builder);
     }
+
+    /*
+     * IdsQuery
+     * */
+    public static IdsQuery.Builder idsQueryBuilder() {
+        return new IdsQuery.Builder();
+    }
+
+    public static Query toQuery(IdsQuery.Builder builder) {
+        return builder.build()._toQuery();
+    }
+
+    public static Query idsQuery(Collection<String> ids) {
+        IdsQuery.Builder builder = idsQueryBuilder().values(List.copyOf(ids));
+        return toQuery(builder);
+    }
 }
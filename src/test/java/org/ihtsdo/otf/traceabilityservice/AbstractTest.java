@@ -2,6 +2,7 @@ package org.ihtsdo.otf.traceabilityservice;
 
 import org.ihtsdo.otf.traceabilityservice.domain.Activity;
 import org.ihtsdo.otf.traceabilityservice.repository.ActivityRepository;
+import org.ihtsdo.otf.traceabilityservice.repository.ComponentHistoryRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -31,6 +32,9 @@ public abstract class AbstractTest {
 	@Autowired
 	protected ActivityRepository activityRepository;
 
+	@Autowired
+	protected ComponentHistoryRepository componentHistoryRepository;
+
 	@Autowired
 	protected JmsTemplate jmsTemplate;
 
@@ -41,15 +45,13 @@ public abstract class AbstractTest {
 	void setup() {
 		jmsTemplate.setDeliveryPersistent(false);
 		activityRepository.deleteAll();
+		componentHistoryRepository.deleteAll();
 	}
 
 	protected List<Activity> sendAndReceiveActivity(String resource) throws IOException, InterruptedException {
 		long startingActivityCount = activityRepository.count();
 
-		final InputStream resourceAsStream = getClass().getResourceAsStream(resource);
-		assertNotNull(resourceAsStream);
-		final String message = StreamUtils.copyToString(resourceAsStream, StandardCharsets.UTF_8);
-		sendMessage(message);
+		sendMessage(readResource(resource));
 
 		int timeoutSeconds = 10;
 		int waitedSeconds = 0;
@@ -70,6 +72,12 @@ public abstract class AbstractTest {
 		return activities;
 	}
 
+	protected String readResource(String resource) throws IOException {
+		final InputStream resourceAsStream = getClass().getResourceAsStream(resource);
+		assertNotNull(resourceAsStream);
+		return StreamUtils.copyToString(resourceAsStream, StandardCharsets.UTF_8);
+	}
+
 	protected void sendMessage(final String message) {
 		MessageCreator messageCreator = session -> session.createTextMessage(message);
 		jmsTemplate.send(destinationName, messageCreator);
@@ -0,0 +1,67 @@
+package org.ihtsdo.otf.traceabilityservice.configuration.elasticsearch;
+
+import org.ihtsdo.otf.traceabilityservice.AbstractTest;
+import org.ihtsdo.otf.traceabilityservice.domain.Activity;
+import org.ihtsdo.otf.traceabilityservice.domain.ActivityType;
+import org.ihtsdo.otf.traceabilityservice.service.ActivitySearchRequest;
+import org.ihtsdo.otf.traceabilityservice.service.ActivityService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.elasticsearch.client.elc.NativeQuery;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.test.context.TestPropertySource;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestPropertySource(properties = {"traceability.activities.partitioned=true", "elasticsearch.index.prefix=partitioned_"})
+class ActivityIndicesTest extends AbstractTest {
+
+	@Autowired
+	private ActivityIndices activityIndices;
+
+	@Autowired
+	private ActivityService activityService;
+
+	@Autowired
+	private ElasticsearchOperations elasticsearchOperations;
+
+	@Test
+	void testPartitionDates() {
+		assertEquals("2024q1", ActivityIndices.getPartitionSuffix(Instant.parse("2024-03-31T23:59:59Z").toEpochMilli()));
+		assertEquals("2024q2", ActivityIndices.getPartitionSuffix(Instant.parse("2024-04-01T00:00:00Z").toEpochMilli()));
+		assertEquals("2024q4", ActivityIndices.getPartitionSuffix(Instant.parse("2024-12-31T12:00:00Z").toEpochMilli()));
+		assertEquals(Instant.parse("2024-07-01T00:00:00Z").toEpochMilli(), ActivityIndices.getPartitionStart(Instant.parse("2024-09-15T10:00:00Z").toEpochMilli()));
+	}
+
+	@Test
+	void testPartitionedWritesAndSearches() {
+		final Date january = Date.from(Instant.parse("2021-01-10T00:00:00Z"));
+		final Date may = Date.from(Instant.parse("2021-05-10T00:00:00Z"));
+		final Activity first = new Activity("test", "MAIN/A", null, january, ActivityType.CONTENT_CHANGE);
+		first.setId(Activity.createId(first.getBranch(), first.getCommitDate()));
+		activityRepository.saveAll(List.of(first, new Activity("test", "MAIN/B", null, may, ActivityType.CONTENT_CHANGE)));
+
+		assertTrue(elasticsearchOperations.indexOps(IndexCoordinates.of("partitioned_trace-activity-2021q1")).exists());
+		assertTrue(elasticsearchOperations.indexOps(IndexCoordinates.of("partitioned_trace-activity-2021q2")).exists());
+		assertEquals(2, activityRepository.count());
+
+		final NativeQuery query = NativeQuery.builder().build();
+		final IndexCoordinates index = activityIndices.getSearchIndex(query, Date.from(Instant.parse("2021-04-01T00:00:00Z")).getTime(), null);
+		assertFalse(List.of(index.getIndexNames()).contains("partitioned_trace-activity-2021q1"));
+		assertTrue(List.of(index.getIndexNames()).contains("partitioned_trace-activity-2021q2"));
+
+		final ActivitySearchRequest request = new ActivitySearchRequest();
+		request.setFromDate(Date.from(Instant.parse("2021-04-01T00:00:00Z")));
+		assertEquals(List.of("MAIN/B"), activityService.getActivities(request, PageRequest.of(0, 10)).stream().map(Activity::getBranch).toList());
+
+		assertEquals("MAIN/A", activityService.findById(first.getId()).getBranch());
+		activityRepository.deleteAllById(List.of(first.getId()));
+		assertEquals(1, activityRepository.count());
+	}
+}
@@ -0,0 +1,57 @@
+package org.ihtsdo.otf.traceabilityservice.configuration.elasticsearch;
+
+import org.ihtsdo.otf.traceabilityservice.AbstractTest;
+import org.ihtsdo.otf.traceabilityservice.domain.Activity;
+import org.ihtsdo.otf.traceabilityservice.domain.ActivityType;
+import org.ihtsdo.otf.traceabilityservice.service.ActivitySearchRequest;
+import org.ihtsdo.otf.traceabilityservice.service.ActivityService;
+import org.ihtsdo.otf.traceabilityservice.util.QueryHelper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.elasticsearch.client.elc.NativeQueryBuilder;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.SearchHit;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@TestPropertySource(properties = {"traceability.activities.routing=true", "elasticsearch.index.prefix=routed_"})
+class RoutedActivitiesTest extends AbstractTest {
+
+	@Autowired
+	private ActivityIndices activityIndices;
+
+	@Autowired
+	private ActivityService activityService;
+
+	@Autowired
+	private ElasticsearchOperations elasticsearchOperations;
+
+	@Test
+	void testRoutedWritesAndSearches() {
+		final Activity international = new Activity("test", "MAIN/PROJECT/TASK", null, new Date(), ActivityType.CONTENT_CHANGE);
+		international.setId(Activity.createId(international.getBranch(), international.getCommitDate()));
+		activityRepository.save(international);
+		activityRepository.saveAll(List.of(new Activity("test", "MAIN/SNOMEDCT-BE/PROJECT", null, new Date(), ActivityType.CONTENT_CHANGE)));
+
+		assertEquals("SNOMEDCT", routing("MAIN/PROJECT/TASK"));
+		assertEquals("SNOMEDCT-BE", routing("MAIN/SNOMEDCT-BE/PROJECT"));
+
+		final ActivitySearchRequest request = new ActivitySearchRequest();
+		request.setOnBranch("MAIN/SNOMEDCT-BE/PROJECT");
+		assertEquals(List.of("MAIN/SNOMEDCT-BE/PROJECT"), activityService.getActivities(request, PageRequest.of(0, 10)).stream().map(Activity::getBranch).toList());
+
+		assertEquals("MAIN/PROJECT/TASK", activityService.findById(international.getId()).getBranch());
+		assertEquals(2, activityService.getActivities(new ActivitySearchRequest(), PageRequest.of(0, 10)).getTotalElements());
+	}
+
+	private String routing(String branch) {
+		final SearchHit<Activity> hit = elasticsearchOperations.searchOne(new NativeQueryBuilder()
+				.withQuery(QueryHelper.termQuery(Activity.Fields.BRANCH, branch)).build(), Activity.class, activityIndices.getIndex());
+		return hit != null ? hit.getRouting() : null;
+	}
+}
@@ -2,7 +2,11 @@ package org.ihtsdo.otf.traceabilityservice.domain;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.Date;
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 
 class ActivityTest {
 
@@ -21,4 +25,30 @@ class ActivityTest {
 		assertEquals(3, Activity.getBranchDepth("MAIN/SNOMEDCT-ES/SNOMEDCT-AG/AG/AG-100"));
 	}
 
+	@Test
+	void testBranchPathFields() {
+		Activity activity = activity("MAIN");
+		assertEquals("SNOMEDCT", activity.getCodeSystem());
+		assertNull(activity.getProject());
+		assertEquals(List.of(), activity.getAncestorBranches());
+
+		activity = activity("MAIN/PROJ/PROJ-12");
+		assertEquals("SNOMEDCT", activity.getCodeSystem());
+		assertEquals("MAIN/PROJ", activity.getProject());
+		assertEquals(List.of("MAIN", "MAIN/PROJ"), activity.getAncestorBranches());
+
+		activity = activity("MAIN/SNOMEDCT-BE");
+		assertEquals("SNOMEDCT-BE", activity.getCodeSystem());
+		assertNull(activity.getProject());
+
+		activity = activity("MAIN/SNOMEDCT-ES/SNOMEDCT-AG/AG/AG-100");
+		assertEquals("SNOMEDCT-AG", activity.getCodeSystem());
+		assertEquals("MAIN/SNOMEDCT-ES/SNOMEDCT-AG/AG", activity.getProject());
+		assertEquals(List.of("MAIN", "MAIN/SNOMEDCT-ES", "MAIN/SNOMEDCT-ES/SNOMEDCT-AG", "MAIN/SNOMEDCT-ES/SNOMEDCT-AG/AG"), activity.getAncestorBranches());
+	}
+
+	private Activity activity(String branchPath) {
+		return new Activity("test", branchPath, null, new Date(), ActivityType.CONTENT_CHANGE);
+	}
+
 }
@@ -0,0 +1,57 @@
+package org.ihtsdo.otf.traceabilityservice.migration;
+
+import org.ihtsdo.otf.traceabilityservice.AbstractTest;
+import org.ihtsdo.otf.traceabilityservice.configuration.elasticsearch.ActivityIndices;
+import org.ihtsdo.otf.traceabilityservice.domain.Activity;
+import org.ihtsdo.otf.traceabilityservice.domain.ActivityType;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.SearchHit;
+import org.springframework.data.elasticsearch.core.query.IndexQueryBuilder;
+import org.springframework.data.elasticsearch.core.query.Query;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestPropertySource(properties = {"traceability.activities.routing=true", "elasticsearch.index.prefix=routed_"})
+class BranchPathFieldsMigrationToolTest extends AbstractTest {
+
+	@Autowired
+	private BranchPathFieldsMigrationTool migrationTool;
+
+	@Autowired
+	private ActivityIndices activityIndices;
+
+	@Autowired
+	private ElasticsearchOperations elasticsearchOperations;
+
+	@Test
+	void testPopulateInPlace() {
+		final Activity activity = new Activity("test", "MAIN/SNOMEDCT-BE/BE/BE-1", null, new Date(), ActivityType.CONTENT_CHANGE);
+		activity.setId(Activity.createId(activity.getBranch(), activity.getCommitDate()));
+		// Stored before the branch path fields existed and before routing was enabled
+		ReflectionTestUtils.setField(activity, "codeSystem", null);
+		ReflectionTestUtils.setField(activity, "project", null);
+		ReflectionTestUtils.setField(activity, "ancestorBranches", null);
+		elasticsearchOperations.index(new IndexQueryBuilder().withId(activity.getId()).withObject(activity).build(), activityIndices.getIndex());
+		elasticsearchOperations.indexOps(activityIndices.getIndex()).refresh();
+
+		assertEquals(1, migrationTool.start());
+
+		// Updated in place, not written again with the code system routing
+		final List<SearchHit<Activity>> hits = elasticsearchOperations.search(Query.findAll(), Activity.class, activityIndices.getIndex()).getSearchHits();
+		assertEquals(1, hits.size());
+		assertNull(hits.get(0).getRouting());
+		final Activity updated = hits.get(0).getContent();
+		assertEquals("SNOMEDCT-BE", updated.getCodeSystem());
+		assertEquals("MAIN/SNOMEDCT-BE/BE", updated.getProject());
+		assertEquals(List.of("MAIN", "MAIN/SNOMEDCT-BE", "MAIN/SNOMEDCT-BE/BE"), updated.getAncestorBranches());
+
+		assertEquals(0, migrationTool.start());
+	}
+}
@@ -0,0 +1,95 @@
+package org.ihtsdo.otf.traceabilityservice.migration;
+
+import org.ihtsdo.otf.traceabilityservice.AbstractTest;
+import org.ihtsdo.otf.traceabilityservice.configuration.elasticsearch.ActivityIndices;
+import org.ihtsdo.otf.traceabilityservice.domain.Activity;
+import org.ihtsdo.otf.traceabilityservice.domain.ActivityType;
+import org.ihtsdo.otf.traceabilityservice.util.QueryHelper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.elasticsearch.client.elc.NativeQueryBuilder;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.IndexOperations;
+import org.springframework.data.elasticsearch.core.SearchHit;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.data.elasticsearch.core.query.IndexQueryBuilder;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestPropertySource(properties = {"traceability.activities.routing=true", "elasticsearch.index.prefix=routed_"})
+class RoutingMigrationToolTest extends AbstractTest {
+
+	@Autowired
+	private RoutingMigrationTool routingMigrationTool;
+
+	@Autowired
+	private ActivityIndices activityIndices;
+
+	@Autowired
+	private ElasticsearchOperations elasticsearchOperations;
+
+	@Test
+	void testMoveActivities() {
+		final long time = System.currentTimeMillis();
+		final Activity international = activity("MAIN/PROJECT/TASK", time);
+		final Activity extension = activity("MAIN/SNOMEDCT-BE/PROJECT", time + 1);
+		// Stored before routing was enabled
+		for (Activity activity : List.of(international, extension)) {
+			elasticsearchOperations.index(new IndexQueryBuilder().withId(activity.getId()).withObject(activity).build(), activityIndices.getIndex());
+		}
+		// Staged by a run which failed after deleting it
+		final Activity staged = activity("MAIN/SNOMEDCT-BE/PROJECT/TASK", time + 2);
+		final IndexCoordinates stagingIndex = routingMigrationTool.getStagingIndex();
+		final IndexOperations stagingIndexOps = elasticsearchOperations.indexOps(stagingIndex);
+		stagingIndexOps.create(stagingIndexOps.createSettings(Activity.class), stagingIndexOps.createMapping(Activity.class));
+		elasticsearchOperations.index(new IndexQueryBuilder().withId(staged.getId()).withObject(staged).build(), stagingIndex);
+		elasticsearchOperations.indexOps(activityIndices.getIndex()).refresh();
+		stagingIndexOps.refresh();
+
+		assertEquals(2, routingMigrationTool.start());
+
+		assertEquals(3, activityRepository.count());
+		assertEquals("SNOMEDCT", routing(international.getId()));
+		assertEquals("SNOMEDCT-BE", routing(extension.getId()));
+		assertEquals("SNOMEDCT-BE", routing(staged.getId()));
+		assertFalse(stagingIndexOps.exists());
+
+		// Nothing left to move
+		assertEquals(0, routingMigrationTool.start());
+		assertEquals(3, activityRepository.count());
+	}
+
+	@Test
+	void testMoveActivitiesWithoutBulk() {
+		final Activity activity = activity("MAIN/SNOMEDCT-BE/PROJECT", System.currentTimeMillis());
+		elasticsearchOperations.index(new IndexQueryBuilder().withId(activity.getId()).withObject(activity).build(), activityIndices.getIndex());
+		elasticsearchOperations.indexOps(activityIndices.getIndex()).refresh();
+
+		ReflectionTestUtils.setField(routingMigrationTool, "bulkEnabled", false);
+		try {
+			assertEquals(1, routingMigrationTool.start());
+		} finally {
+			ReflectionTestUtils.setField(routingMigrationTool, "bulkEnabled", true);
+		}
+		assertEquals(1, activityRepository.count());
+		assertEquals("SNOMEDCT-BE", routing(activity.getId()));
+	}
+
+	private Activity activity(String branch, long time) {
+		final Activity activity = new Activity("test", branch, null, new Date(time), ActivityType.CONTENT_CHANGE);
+		activity.setId(Activity.createId(activity.getBranch(), activity.getCommitDate()));
+		return activity;
+	}
+
+	private String routing(String id) {
+		final SearchHit<Activity> hit = elasticsearchOperations.searchOne(new NativeQueryBuilder()
+				.withQuery(QueryHelper.idsQuery(List.of(id))).build(), Activity.class, activityIndices.getIndex());
+		assertNotNull(hit);
+		return hit.getRouting();
+	}
+}
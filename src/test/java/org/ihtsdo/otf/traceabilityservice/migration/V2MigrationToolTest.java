@@ -38,7 +38,7 @@ class V2MigrationToolTest extends AbstractTest {
 		migrationTool.readPage(v2Page);
 
 		assertEquals(67, activityRepository.count());
-		final Page<Activity> byConceptId = activityRepository.findByConceptId(30641000087103L, PageRequest.of(0, 2, ActivityController.COMMIT_DATE_SORT));
+		final Page<Activity> byConceptId = activityRepository.findDocumentsByConceptId(30641000087103L, PageRequest.of(0, 2, ActivityController.COMMIT_DATE_SORT));
 		final List<Activity> content = byConceptId.getContent();
 		assertEquals(2, content.size());
 		final Activity activity = content.get(0);
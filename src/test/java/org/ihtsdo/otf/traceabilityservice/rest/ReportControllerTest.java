@@ -0,0 +1,194 @@
+package org.ihtsdo.otf.traceabilityservice.rest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.ihtsdo.otf.traceabilityservice.AbstractTest;
+import org.ihtsdo.otf.traceabilityservice.domain.*;
+import org.ihtsdo.otf.traceabilityservice.service.ArchiveDiffJob;
+import org.ihtsdo.otf.traceabilityservice.service.ArchiveDiffJobService;
+import org.ihtsdo.otf.traceabilityservice.service.ArchiveDiffProgress;
+import org.ihtsdo.otf.traceabilityservice.service.ChangeSummaryReportListener;
+import org.ihtsdo.otf.traceabilityservice.service.ReportService;
+import org.ihtsdo.otf.traceabilityservice.service.Rf2Selection;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+
+class ReportControllerTest extends AbstractTest {
+
+	@Autowired
+	private ReportController reportController;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private ArchiveDiffJobService archiveDiffJobService;
+
+	@Test
+	void testStreamChangeSummaryReport() throws IOException {
+		activityRepository.save(new Activity("test", "MAIN/A", "", new Date(), ActivityType.CONTENT_CHANGE)
+				.addConceptChange(new ConceptChange("200")
+						.addComponentChange(new ComponentChange("210", ChangeType.CREATE, ComponentType.DESCRIPTION, "", true))
+						.addComponentChange(new ComponentChange("200", ChangeType.CREATE, ComponentType.CONCEPT, "", true))));
+		final Activity stored = activityRepository.findByBranch("MAIN/A", Pageable.unpaged()).getContent().get(0);
+
+		final ResponseEntity<StreamingResponseBody> response = reportController.streamChangeSummaryReport("MAIN/A", null, null, true, true, true);
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		assertNotNull(response.getBody());
+		response.getBody().writeTo(output);
+
+		assertEquals("{\"componentType\":\"CONCEPT\",\"componentId\":\"200\",\"conceptId\":\"200\"}\n" +
+				"{\"componentType\":\"DESCRIPTION\",\"componentId\":\"210\",\"conceptId\":\"200\"}\n" +
+				"{\"changeNotAtTaskLevel\":" + objectMapper.writeValueAsString(stored) + "}\n",
+				output.toString(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void testStreamEmptyChangeSummaryReport() throws IOException {
+		final ResponseEntity<StreamingResponseBody> response = reportController.streamChangeSummaryReport("MAIN/A", null, null, true, true, true);
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		assertNotNull(response.getBody());
+		response.getBody().writeTo(output);
+
+		assertEquals("\n", output.toString(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void testNdjsonWriter() throws IOException {
+		final Activity activity = new Activity("test", "MAIN/A", "", new Date(1000), ActivityType.CONTENT_CHANGE);
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		final ChangeSummaryReportNdjsonWriter writer = new ChangeSummaryReportNdjsonWriter(objectMapper, output);
+		writer.componentChange(ComponentType.CONCEPT, "100", "100");
+		writer.componentChange(ComponentType.REFERENCE_SET_MEMBER, "a1", "100");
+		writer.changeNotAtTaskLevel(activity);
+		writer.finish();
+
+		final List<String> lines = List.of(output.toString(StandardCharsets.UTF_8).split("\n", -1));
+		assertEquals(List.of(
+				"{\"componentType\":\"CONCEPT\",\"componentId\":\"100\",\"conceptId\":\"100\"}",
+				"{\"componentType\":\"REFERENCE_SET_MEMBER\",\"componentId\":\"a1\",\"conceptId\":\"100\"}",
+				"{\"changeNotAtTaskLevel\":" + objectMapper.writeValueAsString(activity) + "}",
+				""), lines);
+	}
+
+	@Test
+	void testStreamFailedChangeSummaryReport() throws Exception {
+		final ReportController failingController = new ReportController();
+		ReflectionTestUtils.setField(failingController, "reportService", new ReportService() {
+			@Override
+			public void streamChangeSummaryReport(String branch, Long contentBaseTimeStamp, Long contentHeadTimestamp, boolean includeMadeOnThisBranch,
+					boolean includePromotedToThisBranch, boolean includeRebasedToThisBranch, ChangeSummaryReportListener listener) {
+				throw new RuntimeException("Selection failed");
+			}
+		});
+		ReflectionTestUtils.setField(failingController, "objectMapper", objectMapper);
+		final MockMvc mockMvc = MockMvcBuilders.standaloneSetup(failingController).setControllerAdvice(new RestControllerAdvice()).build();
+
+		final MvcResult result = mockMvc.perform(get("/change-summary/stream").param("branch", "MAIN/A"))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		final MockHttpServletResponse response = mockMvc.perform(asyncDispatch(result)).andReturn().getResponse();
+
+		assertNotEquals(HttpStatus.OK.value(), response.getStatus());
+		assertNotEquals("\n", response.getContentAsString());
+	}
+
+	@Test
+	void testArchiveDiffJob() throws IOException, InterruptedException {
+		activityRepository.save(new Activity("test", "MAIN/A", "", new Date(), ActivityType.CONTENT_CHANGE)
+				.addConceptChange(new ConceptChange("100")
+						.addComponentChange(new ComponentChange("100", ChangeType.CREATE, ComponentType.CONCEPT, "", true))));
+
+		final ResponseEntity<ArchiveDiffJob> submitted = startArchiveDiffJob(reportController, archive());
+		assertEquals(HttpStatus.ACCEPTED, submitted.getStatusCode());
+		assertNotNull(submitted.getBody());
+		final String jobId = submitted.getBody().getId();
+
+		final ResponseEntity<DiffReport> result = awaitResult(jobId);
+		assertEquals(HttpStatus.OK, result.getStatusCode());
+		assertNotNull(result.getBody());
+		assertEquals(Set.of("300"), result.getBody().missingFromStore().get(ComponentType.CONCEPT));
+
+		final ResponseEntity<ArchiveDiffJob> polled = reportController.getChangeSummaryArchiveDiffJob(jobId);
+		assertEquals(HttpStatus.OK, polled.getStatusCode());
+		assertNotNull(polled.getBody());
+		assertEquals(ArchiveDiffProgress.Phase.COMPLETED, polled.getBody().getProgress().getPhase());
+
+		assertEquals(HttpStatus.NOT_FOUND, reportController.getChangeSummaryArchiveDiffJob("unknown").getStatusCode());
+		assertEquals(HttpStatus.NOT_FOUND, reportController.getChangeSummaryArchiveDiffResult("unknown").getStatusCode());
+	}
+
+	@Test
+	void testArchiveDiffJobWithoutResult() throws IOException, InterruptedException {
+		final ResponseEntity<ArchiveDiffJob> submitted = startArchiveDiffJob(reportController, "Not a zip".getBytes(StandardCharsets.UTF_8));
+		assertEquals(HttpStatus.ACCEPTED, submitted.getStatusCode());
+		assertNotNull(submitted.getBody());
+
+		assertEquals(HttpStatus.CONFLICT, awaitResult(submitted.getBody().getId()).getStatusCode());
+	}
+
+	@Test
+	void testArchiveDiffJobRefused() throws IOException {
+		final ReportController controller = new ReportController();
+		ReflectionTestUtils.setField(controller, "archiveDiffJobService", new ArchiveDiffJobService() {
+			@Override
+			public ArchiveDiffJob submit(String branch, InputStream rf2Archive, Rf2Selection selection, boolean enrich) {
+				throw new RejectedExecutionException("Too many archive diff jobs waiting.");
+			}
+		});
+
+		assertEquals(HttpStatus.SERVICE_UNAVAILABLE, startArchiveDiffJob(controller, archive()).getStatusCode());
+	}
+
+	private ResponseEntity<DiffReport> awaitResult(String jobId) throws InterruptedException {
+		for (int i = 0; i < 100; i++) {
+			final ArchiveDiffJob job = archiveDiffJobService.getJob(jobId);
+			assertNotNull(job);
+			if (job.getFinished() != null) {
+				break;
+			}
+			Thread.sleep(100);
+		}
+		return reportController.getChangeSummaryArchiveDiffResult(jobId);
+	}
+
+	private static ResponseEntity<ArchiveDiffJob> startArchiveDiffJob(ReportController controller, byte[] archive) throws IOException {
+		return controller.startChangeSummaryArchiveDiff("MAIN/A",
+				new MockMultipartFile("rf2DeltaArchive", "delta.zip", "application/zip", archive),
+				Rf2Selection.ReleaseType.DELTA, null, null, false);
+	}
+
+	private static byte[] archive() throws IOException {
+		final ByteArrayOutputStream archive = new ByteArrayOutputStream();
+		try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+			zip.putNextEntry(new ZipEntry("SnomedCT_Export/Delta/Terminology/sct2_Concept_Delta_INT_20240101.txt"));
+			zip.write("id\teffectiveTime\n300\t\n".getBytes(StandardCharsets.UTF_8));
+		}
+		return archive.toByteArray();
+	}
+}
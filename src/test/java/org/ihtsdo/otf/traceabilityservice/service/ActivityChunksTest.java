@@ -0,0 +1,54 @@
+package org.ihtsdo.otf.traceabilityservice.service;
+
+import org.ihtsdo.otf.traceabilityservice.domain.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ActivityChunksTest {
+
+	@Test
+	void testSplitAndCollapse() {
+		final Activity activity = new Activity("user", "MAIN/A/A-1", null, new Date(), ActivityType.CONTENT_CHANGE);
+		for (int i = 0; i < 10; i++) {
+			final ConceptChange conceptChange = new ConceptChange("10" + i);
+			conceptChange.addComponentChange(new ComponentChange("10" + i, ChangeType.UPDATE, ComponentType.CONCEPT, null, true));
+			conceptChange.addComponentChange(new ComponentChange("20" + i, ChangeType.UPDATE, ComponentType.DESCRIPTION, null, true));
+			activity.addConceptChange(conceptChange);
+		}
+		activity.setId("a");
+
+		assertTrue(ActivityChunks.split(activity, 0).isEmpty());
+		assertTrue(ActivityChunks.split(activity, 20).isEmpty());
+
+		// Concept changes are not split across chunks
+		final List<Set<ConceptChange>> chunks = ActivityChunks.split(activity, 5);
+		assertEquals(4, chunks.size());
+		assertEquals(2, activity.getConceptChanges().size());
+		chunks.forEach(chunk -> assertEquals(2, chunk.size()));
+
+		final List<Activity> documents = new ArrayList<>();
+		for (int i = 0; i < chunks.size(); i++) {
+			final Activity chunk = activity.createChunk(chunks.get(i));
+			chunk.setId("a-" + i);
+			assertEquals("a", chunk.getParentId());
+			assertEquals(activity.getBranch(), chunk.getBranch());
+			assertEquals(activity.getCommitDate(), chunk.getCommitDate());
+			documents.add(chunk);
+		}
+		documents.add(2, activity);
+		final Activity other = new Activity("user", "MAIN/A/A-2", null, new Date(), ActivityType.CONTENT_CHANGE);
+		other.setId("b");
+		documents.add(other);
+
+		final List<Activity> activities = ActivityChunks.collapse(documents);
+		assertEquals(2, activities.size());
+		assertEquals("a", activities.get(0).getId());
+		assertNull(activities.get(0).getParentId());
+		assertEquals(10, activities.get(0).getConceptChanges().size());
+		assertEquals("MAIN/A/A-2", activities.get(1).getBranch());
+	}
+
+}
@@ -0,0 +1,80 @@
+package org.ihtsdo.otf.traceabilityservice.service;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.ihtsdo.otf.traceabilityservice.Concepts;
+import org.ihtsdo.otf.traceabilityservice.domain.*;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ActivityMessageReaderTest {
+
+	private final ActivityMessageReader reader = new ActivityMessageReader(new ObjectMapper());
+
+	@Test
+	void testReadConceptCreate() throws IOException {
+		final Activity activity = reader.read(readResource("concept-create.json"));
+
+		assertEquals("kkewley", activity.getUsername());
+		assertEquals("MAIN/STORMTEST2/STORMTEST2-243", activity.getBranch());
+		assertEquals("MAIN/STORMTEST2/STORMTEST2-243", activity.getHighestPromotedBranch());
+		assertEquals(3, activity.getBranchDepth());
+		assertEquals(1628715946589L, activity.getCommitDate().getTime());
+		assertEquals(ActivityType.CONTENT_CHANGE, activity.getActivityType());
+		final Set<ConceptChange> conceptChanges = activity.getConceptChanges();
+		assertEquals(1, conceptChanges.size());
+		final ConceptChange conceptChange = conceptChanges.iterator().next();
+		assertEquals("4195653005", conceptChange.getConceptId());
+		final Set<ComponentChange> componentChanges = conceptChange.getComponentChanges();
+		assertEquals(8, componentChanges.size());
+		assertTrue(componentChanges.contains(new ComponentChange("4195653005", ChangeType.CREATE, ComponentType.CONCEPT, null, true)));
+		assertTrue(componentChanges.contains(new ComponentChange("10430314015", ChangeType.CREATE, ComponentType.DESCRIPTION, Concepts.FSN, true)));
+		assertTrue(componentChanges.contains(new ComponentChange("3c3a1d55-2822-4577-98ea-0c286ae75b2d", ChangeType.CREATE, ComponentType.REFERENCE_SET_MEMBER, Concepts.OWL_AXIOM_REFSET, true)));
+	}
+
+	@Test
+	void testReadPromotion() throws IOException {
+		final Activity activity = reader.read(readResource("promotion.json"));
+
+		assertEquals("MAIN/STORMTEST2", activity.getBranch());
+		assertEquals("MAIN/STORMTEST2/STORMTEST2-243", activity.getSourceBranch());
+		assertEquals(ActivityType.PROMOTION, activity.getActivityType());
+		assertTrue(activity.getConceptChanges().isEmpty());
+	}
+
+	@Test
+	void testReadInvalidMessage() {
+		assertThrows(JsonParseException.class, () -> reader.read("{\"branchPath\": \"MAIN\", \"activityType\": \"UNKNOWN\", \"commitTimestamp\": 1}"));
+		assertThrows(JsonParseException.class, () -> reader.read("{\"branchPath\": \"MAIN\"}"));
+	}
+
+	@Test
+	void testReadChangesArraysToTheEnd() throws IOException {
+		final Activity activity = reader.read("{\"branchPath\": \"MAIN/A\", \"activityType\": \"CONTENT_CHANGE\", \"commitTimestamp\": 1, \"changes\": [" +
+				"null, {\"conceptId\": \"100\", \"componentChanges\": [null, {\"componentId\": \"100\", \"changeType\": \"CREATE\", \"componentType\": \"CONCEPT\"}, " +
+				"{\"componentId\": \"110\", \"changeType\": \"CREATE\", \"componentType\": \"DESCRIPTION\"}]}, " +
+				"{\"conceptId\": \"200\", \"componentChanges\": [{\"componentId\": \"200\", \"changeType\": \"UPDATE\", \"componentType\": \"CONCEPT\"}]}]}");
+
+		assertEquals(2, activity.getConceptChanges().size());
+		assertEquals(3, activity.getConceptChanges().stream().mapToInt(conceptChange -> conceptChange.getComponentChanges().size()).sum());
+
+		assertThrows(JsonParseException.class, () -> reader.read("{\"branchPath\": \"MAIN/A\", \"activityType\": \"CONTENT_CHANGE\", \"commitTimestamp\": 1, " +
+				"\"changes\": [{\"conceptId\": \"100\", \"componentChanges\": [\"100\"]}]}"));
+		assertThrows(JsonParseException.class, () -> reader.read("{\"branchPath\": \"MAIN/A\", \"activityType\": \"CONTENT_CHANGE\", \"commitTimestamp\": 1, " +
+				"\"changes\": [1, {\"conceptId\": \"100\"}]}"));
+	}
+
+	private String readResource(String resource) throws IOException {
+		final InputStream resourceAsStream = getClass().getResourceAsStream(resource);
+		assertNotNull(resourceAsStream);
+		return StreamUtils.copyToString(resourceAsStream, StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,211 @@
+package org.ihtsdo.otf.traceabilityservice.service;
+
+import org.ihtsdo.otf.traceabilityservice.AbstractTest;
+import org.ihtsdo.otf.traceabilityservice.domain.*;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ActivityServiceTest extends AbstractTest {
+
+	@Autowired
+	private ActivityService activityService;
+
+	@Test
+	void testOnlyMatchingChangesReturned() {
+		final Activity activity = new Activity("test", "MAIN/A/A-1", null, new Date(), ActivityType.CONTENT_CHANGE)
+				.addConceptChange(new ConceptChange("100")
+						.addComponentChange(new ComponentChange("100", ChangeType.UPDATE, ComponentType.CONCEPT, "", true))
+						.addComponentChange(new ComponentChange("110", ChangeType.CREATE, ComponentType.DESCRIPTION, "900000000000013009", true)))
+				.addConceptChange(new ConceptChange("200")
+						.addComponentChange(new ComponentChange("210", ChangeType.CREATE, ComponentType.DESCRIPTION, "900000000000003001", false, true)));
+		activityRepository.save(activity);
+
+		final ActivitySearchRequest request = new ActivitySearchRequest();
+		request.setConceptId(200L);
+		Page<Activity> activities = activityService.getActivities(request, PageRequest.of(0, 10));
+		assertEquals(1, activities.getTotalElements());
+		Set<ConceptChange> conceptChanges = activities.getContent().get(0).getConceptChanges();
+		assertEquals(1, conceptChanges.size());
+		final ComponentChange componentChange = conceptChanges.iterator().next().getComponentChanges().iterator().next();
+		assertEquals(new ComponentChange("210", ChangeType.CREATE, ComponentType.DESCRIPTION, "900000000000003001", false, true), componentChange);
+
+		request.setConceptId(null);
+		request.setComponentId("110");
+		activities = activityService.getActivities(request, PageRequest.of(0, 10));
+		conceptChanges = activities.getContent().get(0).getConceptChanges();
+		assertEquals(1, conceptChanges.size());
+		assertEquals("100", conceptChanges.iterator().next().getConceptId());
+		assertEquals(1, conceptChanges.iterator().next().getComponentChanges().size());
+
+		activities = activityService.findActivitiesBy(List.of(100L), null, null, true, PageRequest.of(0, 10));
+		conceptChanges = activities.getContent().get(0).getConceptChanges();
+		assertEquals(1, conceptChanges.size());
+		assertTrue(conceptChanges.iterator().next().getComponentChanges().isEmpty());
+
+		activities = activityService.findActivitiesBy("900000000000013009", null, null, null, PageRequest.of(0, 10));
+		conceptChanges = activities.getContent().get(0).getConceptChanges();
+		assertEquals(1, conceptChanges.size());
+		assertEquals("110", conceptChanges.iterator().next().getComponentChanges().iterator().next().getComponentId());
+	}
+
+	@Test
+	void testCursorPaging() {
+		final long time = System.currentTimeMillis();
+		for (int i = 0; i < 5; i++) {
+			activityRepository.save(new Activity("test", "MAIN/A/A-" + i, null, new Date(time + i), ActivityType.CONTENT_CHANGE));
+		}
+
+		final ActivitySearchRequest request = new ActivitySearchRequest();
+		request.setCursor(ActivityCursor.START);
+		final PageRequest page = PageRequest.of(3, 2, Sort.by(Activity.Fields.COMMIT_DATE));
+		final List<String> branches = new ArrayList<>();
+		String nextCursor;
+		do {
+			final CursorPage<Activity> activities = (CursorPage<Activity>) activityService.getActivities(request, page);
+			assertEquals(5, activities.getTotalElements());
+			activities.forEach(activity -> branches.add(activity.getBranch()));
+			// Activities written while paging are not seen
+			activityRepository.save(new Activity("test", "MAIN/B", null, new Date(time + 10 + branches.size()), ActivityType.CONTENT_CHANGE));
+			nextCursor = activities.getNextCursor();
+			request.setCursor(nextCursor);
+		} while (nextCursor != null);
+		assertEquals(List.of("MAIN/A/A-0", "MAIN/A/A-1", "MAIN/A/A-2", "MAIN/A/A-3", "MAIN/A/A-4"), branches);
+
+		request.setCursor("not a cursor");
+		assertThrows(IllegalArgumentException.class, () -> activityService.getActivities(request, page));
+	}
+
+	@Test
+	void testExportActivities() {
+		final long time = System.currentTimeMillis();
+		final Activity activity = new Activity("test", "MAIN/A/A-1", null, new Date(time), ActivityType.CONTENT_CHANGE)
+				.addConceptChange(new ConceptChange("100").addComponentChange(new ComponentChange("100", ChangeType.UPDATE, ComponentType.CONCEPT, "", true)));
+		activity.setId(Activity.createId(activity.getBranch(), activity.getCommitDate()));
+		final Activity chunk = activity.createChunk(Set.of(new ConceptChange("200")
+				.addComponentChange(new ComponentChange("200", ChangeType.UPDATE, ComponentType.CONCEPT, "", true))));
+		chunk.setId(activity.getId() + "-0");
+		activityRepository.saveAll(List.of(activity, chunk,
+				new Activity("test", "MAIN/A/A-2", null, new Date(time + 1), ActivityType.CONTENT_CHANGE)));
+
+		final ActivitySearchRequest request = new ActivitySearchRequest();
+		request.setBranchPrefix("MAIN/A");
+		final List<Activity> activities = new ArrayList<>();
+		activityService.exportActivities(request, activities::add);
+		assertEquals(2, activities.size());
+		assertEquals("MAIN/A/A-1", activities.get(0).getBranch());
+		assertEquals(2, activities.get(0).getConceptChanges().size());
+		assertEquals("MAIN/A/A-2", activities.get(1).getBranch());
+
+		request.setSummaryOnly(true);
+		activities.clear();
+		activityService.exportActivities(request, activities::add);
+		assertEquals(2, activities.size());
+	}
+
+	@Test
+	void testFindByConceptIdReturnsActivityOfChunk() {
+		final Activity activity = new Activity("test", "MAIN/A/A-1", null, new Date(), ActivityType.CONTENT_CHANGE)
+				.addConceptChange(new ConceptChange("100").addComponentChange(new ComponentChange("100", ChangeType.UPDATE, ComponentType.CONCEPT, "", true)));
+		activity.setId(Activity.createId(activity.getBranch(), activity.getCommitDate()));
+		final Activity chunk = activity.createChunk(Set.of(new ConceptChange("200")
+				.addComponentChange(new ComponentChange("200", ChangeType.UPDATE, ComponentType.CONCEPT, "", true))));
+		chunk.setId(activity.getId() + "-0");
+		activityRepository.saveAll(List.of(activity, chunk));
+
+		final Page<Activity> activities = activityService.findByConceptId(200L, PageRequest.of(0, 10));
+		assertEquals(1, activities.getTotalElements());
+		final Activity found = activities.getContent().get(0);
+		assertEquals(activity.getId(), found.getId());
+		assertNull(found.getParentId());
+		assertEquals("200", found.getConceptChanges().iterator().next().getConceptId());
+	}
+
+	@Test
+	void testFindLatestOnBranches() {
+		final long time = System.currentTimeMillis();
+		activityRepository.saveAll(List.of(
+				new Activity("test", "MAIN/A", null, new Date(time), ActivityType.CONTENT_CHANGE),
+				new Activity("test", "MAIN/A", null, new Date(time + 2), ActivityType.CONTENT_CHANGE)
+						.addConceptChange(new ConceptChange("100").addComponentChange(new ComponentChange("100", ChangeType.UPDATE, ComponentType.CONCEPT, "", true))),
+				new Activity("test", "MAIN/B", null, new Date(time + 1), ActivityType.REBASE)));
+
+		List<Activity> latest = activityService.findLatestOnBranches(List.of("MAIN/B", "MAIN/C", "MAIN/A"), false);
+		assertEquals(2, latest.size());
+		assertEquals("MAIN/B", latest.get(0).getBranch());
+		assertEquals("MAIN/A", latest.get(1).getBranch());
+		assertEquals(time + 2, latest.get(1).getCommitDate().getTime());
+		assertEquals(1, latest.get(1).getConceptChanges().size());
+
+		latest = activityService.findLatestOnBranches(List.of("MAIN/A"), true);
+		assertEquals(time + 2, latest.get(0).getCommitDate().getTime());
+		assertTrue(latest.get(0).getConceptChanges() == null || latest.get(0).getConceptChanges().isEmpty());
+	}
+
+	@Test
+	void testBranchFilters() {
+		final long time = System.currentTimeMillis();
+		final Activity promoted = new Activity("test", "MAIN/A/A-1", null, new Date(time), ActivityType.CONTENT_CHANGE);
+		promoted.setHighestPromotedBranch("MAIN");
+		activityRepository.saveAll(List.of(promoted,
+				new Activity("test", "MAIN/A/A-2", null, new Date(time + 1), ActivityType.CONTENT_CHANGE),
+				new Activity("test", "MAIN/AB", null, new Date(time + 2), ActivityType.CONTENT_CHANGE),
+				new Activity("test", "MAIN/SNOMEDCT-BE/BE", null, new Date(time + 3), ActivityType.CONTENT_CHANGE)));
+
+		final ActivitySearchRequest request = new ActivitySearchRequest();
+		request.setIntOnly(true);
+		assertEquals(List.of("MAIN/A/A-1", "MAIN/A/A-2", "MAIN/AB"), branches(request));
+
+		request.setIntOnly(false);
+		request.setBranchPrefix("MAIN/A");
+		assertEquals(List.of("MAIN/A/A-1", "MAIN/A/A-2", "MAIN/AB"), branches(request));
+		request.setBranchPrefix("MAIN/A/");
+		assertEquals(List.of("MAIN/A/A-1", "MAIN/A/A-2"), branches(request));
+
+		request.setBranchPrefix(null);
+		request.setOnBranch("MAIN/A");
+		assertEquals(List.of(), branches(request));
+		request.setIncludeHigherPromotions(true);
+		assertEquals(List.of("MAIN/A/A-1"), branches(request));
+	}
+
+	@Test
+	void testBranchFiltersMatchActivitiesWithoutBranchPathFields() {
+		final long time = System.currentTimeMillis();
+		final List<Activity> activities = List.of(
+				new Activity("test", "MAIN/A/A-1", null, new Date(time), ActivityType.CONTENT_CHANGE),
+				new Activity("test", "MAIN/AB", null, new Date(time + 1), ActivityType.CONTENT_CHANGE),
+				new Activity("test", "MAIN/SNOMEDCT-BE/BE", null, new Date(time + 2), ActivityType.CONTENT_CHANGE));
+		// Stored before the branch path fields existed
+		for (Activity activity : activities) {
+			ReflectionTestUtils.setField(activity, "codeSystem", null);
+			ReflectionTestUtils.setField(activity, "project", null);
+			ReflectionTestUtils.setField(activity, "ancestorBranches", null);
+		}
+		activityRepository.saveAll(activities);
+
+		final ActivitySearchRequest request = new ActivitySearchRequest();
+		request.setIntOnly(true);
+		assertEquals(List.of("MAIN/A/A-1", "MAIN/AB"), branches(request));
+
+		request.setIntOnly(false);
+		request.setBranchPrefix("MAIN/A/");
+		assertEquals(List.of("MAIN/A/A-1"), branches(request));
+	}
+
+	private List<String> branches(ActivitySearchRequest request) {
+		return activityService.getActivities(request, PageRequest.of(0, 10, Sort.by(Activity.Fields.COMMIT_DATE))).getContent().stream()
+				.map(Activity::getBranch)
+				.toList();
+	}
+}
@@ -0,0 +1,158 @@
+package org.ihtsdo.otf.traceabilityservice.service;
+
+import org.ihtsdo.otf.traceabilityservice.AbstractTest;
+import org.ihtsdo.otf.traceabilityservice.domain.*;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestPropertySource(properties = {"traceability.report.archive-diff.jobs.threads=1", "traceability.report.archive-diff.jobs.max-queued=1"})
+class ArchiveDiffJobServiceTest extends AbstractTest {
+
+	@Autowired
+	private ArchiveDiffJobService archiveDiffJobService;
+
+	@Autowired
+	private ArchiveDiffService archiveDiffService;
+
+	@Test
+	void testSubmitAndPoll() throws IOException, InterruptedException {
+		activityRepository.save(new Activity("test", "MAIN/A", "", new Date(), ActivityType.CONTENT_CHANGE)
+				.addConceptChange(new ConceptChange("100")
+						.addComponentChange(new ComponentChange("100", ChangeType.CREATE, ComponentType.CONCEPT, "", true))));
+
+		final CountDownLatch release = new CountDownLatch(1);
+		// Keep the only thread busy so that the job waits in the queue
+		block(getJobExecutor(archiveDiffJobService), release);
+		final ArchiveDiffJob job;
+		try {
+			job = archiveDiffJobService.submit("MAIN/A", archive(), Rf2Selection.DELTA, false);
+			assertEquals(ArchiveDiffProgress.Phase.QUEUED, archiveDiffJobService.getJob(job.getId()).getProgress().getPhase());
+			assertNull(job.getResult());
+
+			// The queue holds one job
+			assertThrows(RejectedExecutionException.class, () -> archiveDiffJobService.submit("MAIN/A", archive(), Rf2Selection.DELTA, false));
+		} finally {
+			release.countDown();
+		}
+
+		waitForFinish(job);
+		assertEquals(ArchiveDiffProgress.Phase.COMPLETED, job.getProgress().getPhase());
+		assertEquals(Set.of("100"), job.getResult().missingFromDelta().get(ComponentType.CONCEPT));
+		assertEquals(Set.of("300"), job.getResult().missingFromStore().get(ComponentType.CONCEPT));
+		assertSame(job, archiveDiffJobService.getJob(job.getId()));
+		assertNull(archiveDiffJobService.getJob("unknown"));
+	}
+
+	@Test
+	void testFinishedJobsExpire() throws IOException, InterruptedException {
+		final ArchiveDiffJob job = archiveDiffJobService.submit("MAIN/A", archive(), Rf2Selection.DELTA, false);
+		waitForFinish(job);
+		assertNotNull(archiveDiffJobService.getJob(job.getId()));
+
+		ReflectionTestUtils.setField(archiveDiffJobService, "ttlMinutes", 0L);
+		try {
+			Thread.sleep(10);
+			assertNull(archiveDiffJobService.getJob(job.getId()));
+		} finally {
+			ReflectionTestUtils.setField(archiveDiffJobService, "ttlMinutes", 60L);
+		}
+	}
+
+	@Test
+	void testOldestFinishedJobsRemoved() throws IOException, InterruptedException {
+		final ArchiveDiffJob first = archiveDiffJobService.submit("MAIN/A", archive(), Rf2Selection.DELTA, false);
+		waitForFinish(first);
+		final ArchiveDiffJob second = archiveDiffJobService.submit("MAIN/A", archive(), Rf2Selection.DELTA, false);
+		waitForFinish(second);
+
+		ReflectionTestUtils.setField(archiveDiffJobService, "maxFinished", 1);
+		try {
+			assertNull(archiveDiffJobService.getJob(first.getId()));
+			assertSame(second, archiveDiffJobService.getJob(second.getId()));
+		} finally {
+			ReflectionTestUtils.setField(archiveDiffJobService, "maxFinished", 20);
+		}
+	}
+
+	@Test
+	void testShutdownDeletesQueuedArchives() throws IOException, InterruptedException {
+		final ArchiveDiffJobService jobService = new ArchiveDiffJobService();
+		ReflectionTestUtils.setField(jobService, "archiveDiffService", archiveDiffService);
+		ReflectionTestUtils.setField(jobService, "threads", 1);
+		ReflectionTestUtils.setField(jobService, "maxQueued", 1);
+		ReflectionTestUtils.setField(jobService, "ttlMinutes", 60L);
+		ReflectionTestUtils.setField(jobService, "maxFinished", 20);
+		jobService.init();
+
+		final CountDownLatch release = new CountDownLatch(1);
+		final ArchiveDiffJob job;
+		final Path archiveFile;
+		try {
+			block(getJobExecutor(jobService), release);
+			job = jobService.submit("MAIN/A", archive(), Rf2Selection.DELTA, false);
+			final Runnable queued = getJobExecutor(jobService).getQueue().peek();
+			assertNotNull(queued);
+			archiveFile = (Path) ReflectionTestUtils.getField(queued, "archiveFile");
+			assertNotNull(archiveFile);
+			assertTrue(Files.exists(archiveFile));
+		} finally {
+			jobService.shutdown();
+			release.countDown();
+		}
+
+		assertEquals(ArchiveDiffProgress.Phase.FAILED, job.getProgress().getPhase());
+		assertFalse(Files.exists(archiveFile));
+	}
+
+	private static ThreadPoolExecutor getJobExecutor(ArchiveDiffJobService jobService) {
+		return (ThreadPoolExecutor) ReflectionTestUtils.getField(jobService, "jobExecutor");
+	}
+
+	private static void block(ThreadPoolExecutor executor, CountDownLatch release) throws InterruptedException {
+		executor.execute(() -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		// Wait for the thread to take it, so that the queue is empty
+		while (executor.getActiveCount() == 0) {
+			Thread.sleep(10);
+		}
+	}
+
+	private static void waitForFinish(ArchiveDiffJob job) throws InterruptedException {
+		for (int i = 0; i < 100 && job.getFinished() == null; i++) {
+			Thread.sleep(100);
+		}
+		assertNotNull(job.getFinished(), "Job did not finish");
+	}
+
+	static InputStream archive() throws IOException {
+		final ByteArrayOutputStream archive = new ByteArrayOutputStream();
+		try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+			zip.putNextEntry(new ZipEntry("SnomedCT_Export/Delta/Terminology/sct2_Concept_Delta_INT_20240101.txt"));
+			zip.write("id\teffectiveTime\n300\t\n".getBytes(StandardCharsets.UTF_8));
+		}
+		return new ByteArrayInputStream(archive.toByteArray());
+	}
+}
@@ -21,4 +21,15 @@ public class BranchUtilsTest extends AbstractTest {
 		assertTrue(ancestorBranches.contains("MAIN/foo"));
 		assertTrue(ancestorBranches.contains("MAIN/foo/bar"));
 	}
+
+	@Test
+	void testGetLineageBranch() {
+		assertEquals("MAIN", BranchUtils.getLineageBranch("MAIN"));
+		assertEquals("MAIN/PROJECT", BranchUtils.getLineageBranch("MAIN/PROJECT"));
+		assertEquals("MAIN/PROJECT", BranchUtils.getLineageBranch("MAIN/PROJECT/PROJECT-123"));
+		assertEquals("MAIN/SNOMEDCT-BE", BranchUtils.getLineageBranch("MAIN/SNOMEDCT-BE"));
+		assertEquals("MAIN/SNOMEDCT-BE/BE", BranchUtils.getLineageBranch("MAIN/SNOMEDCT-BE/BE"));
+		assertEquals("MAIN/SNOMEDCT-BE/BE", BranchUtils.getLineageBranch("MAIN/SNOMEDCT-BE/BE/BE-123"));
+		assertEquals("MAIN/SNOMEDCT-ES/SNOMEDCT-AR/AR", BranchUtils.getLineageBranch("MAIN/SNOMEDCT-ES/SNOMEDCT-AR/AR/AR-123"));
+	}
 }
@@ -0,0 +1,77 @@
+package org.ihtsdo.otf.traceabilityservice.service;
+
+import org.ihtsdo.otf.traceabilityservice.AbstractTest;
+import org.ihtsdo.otf.traceabilityservice.domain.*;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestPropertySource(properties = "traceability.activities.bulk.shard-size=2")
+class BulkConceptHistoryServiceTest extends AbstractTest {
+
+	@Autowired
+	private BulkConceptHistoryService bulkConceptHistoryService;
+
+	@Test
+	void testFindActivities() {
+		final long time = System.currentTimeMillis();
+		activityRepository.saveAll(List.of(
+				// Changes concepts in both shards, found once
+				new Activity("test", "MAIN/A", null, new Date(time), ActivityType.CONTENT_CHANGE)
+						.addConceptChange(conceptChange("100"))
+						.addConceptChange(conceptChange("300"))
+						.addConceptChange(conceptChange("900")),
+				new Activity("test", "MAIN/B", null, new Date(time + 1), ActivityType.CONTENT_CHANGE)
+						.addConceptChange(conceptChange("400")),
+				new Activity("other", "MAIN/C", null, new Date(time + 2), ActivityType.CONTENT_CHANGE)
+						.addConceptChange(conceptChange("200")),
+				new Activity("test", "MAIN/D", null, new Date(time + 3), ActivityType.CONTENT_CHANGE)
+						.addConceptChange(conceptChange("900"))));
+
+		final Map<String, Activity> activities = new TreeMap<>();
+		bulkConceptHistoryService.findActivities(List.of(100L, 200L, 300L, 400L, 100L), null, null, false,
+				activity -> assertNull(activities.put(activity.getBranch(), activity)));
+		assertEquals(Set.of("MAIN/A", "MAIN/B", "MAIN/C"), activities.keySet());
+		final Activity activity = activities.get("MAIN/A");
+		assertEquals(2, activity.getConceptChanges().size());
+		assertTrue(activity.getConceptChanges().stream().noneMatch(conceptChange -> conceptChange.getConceptId().equals("900")));
+		assertEquals(1, activity.getConceptChanges().iterator().next().getComponentChanges().size());
+
+		activities.clear();
+		bulkConceptHistoryService.findActivities(List.of(100L, 200L, 300L, 400L), ActivityType.CONTENT_CHANGE, "test", true,
+				found -> activities.put(found.getBranch(), found));
+		assertEquals(Set.of("MAIN/A", "MAIN/B"), activities.keySet());
+		final Set<ComponentChange> componentChanges = activities.get("MAIN/A").getConceptChanges().iterator().next().getComponentChanges();
+		assertTrue(componentChanges == null || componentChanges.isEmpty());
+	}
+
+	@Test
+	void testFindChunkedActivityOnce() {
+		// Concept 300 of the second shard is in the parent document, concept 100 of the first shard in a chunk
+		final Activity activity = new Activity("test", "MAIN/A", null, new Date(), ActivityType.CONTENT_CHANGE)
+				.addConceptChange(conceptChange("300"));
+		activity.setId(Activity.createId(activity.getBranch(), activity.getCommitDate()));
+		final Activity chunk = activity.createChunk(Set.of(conceptChange("100"), conceptChange("400")));
+		chunk.setId(activity.getId() + "-0");
+		final Activity otherChunk = activity.createChunk(Set.of(conceptChange("900")));
+		otherChunk.setId(activity.getId() + "-1");
+		activityRepository.saveAll(List.of(activity, chunk, otherChunk));
+
+		final List<Activity> activities = new ArrayList<>();
+		bulkConceptHistoryService.findActivities(List.of(100L, 200L, 300L, 400L), null, null, false, activities::add);
+		assertEquals(1, activities.size());
+		final Activity found = activities.get(0);
+		assertEquals(activity.getId(), found.getId());
+		assertNull(found.getParentId());
+		assertEquals(Set.of("100", "300", "400"), found.getConceptChanges().stream().map(ConceptChange::getConceptId).collect(Collectors.toSet()));
+	}
+
+	private ConceptChange conceptChange(String conceptId) {
+		return new ConceptChange(conceptId).addComponentChange(new ComponentChange(conceptId, ChangeType.UPDATE, ComponentType.CONCEPT, "", true));
+	}
+}
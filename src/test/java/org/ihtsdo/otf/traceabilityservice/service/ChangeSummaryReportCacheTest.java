@@ -0,0 +1,60 @@
+package org.ihtsdo.otf.traceabilityservice.service;
+
+import org.ihtsdo.otf.traceabilityservice.AbstractTest;
+import org.ihtsdo.otf.traceabilityservice.domain.*;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.Date;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@TestPropertySource(properties = "traceability.report.cache.enabled=true")
+class ChangeSummaryReportCacheTest extends AbstractTest {
+
+	@Autowired
+	private ReportService reportService;
+
+	@Autowired
+	private ChangeSummaryReportCache reportCache;
+
+	private long testTime = System.currentTimeMillis();
+
+	@Test
+	void testNewCommitsAddedToCachedReport() {
+		reportCache.invalidateAll();
+		activityRepository.save(activity("MAIN", null, ActivityType.CONTENT_CHANGE)
+				.addConceptChange(new ConceptChange("100").addComponentChange(new ComponentChange("100", ChangeType.CREATE, ComponentType.CONCEPT, "", true))));
+		activityRepository.save(activity("MAIN/A", "MAIN", ActivityType.REBASE));
+		activityRepository.save(activity("MAIN/A", null, ActivityType.CONTENT_CHANGE)
+				.addConceptChange(new ConceptChange("200").addComponentChange(new ComponentChange("200", ChangeType.CREATE, ComponentType.CONCEPT, "", true))));
+
+		assertEquals("[100, 200]", conceptChanges("MAIN/A"));
+
+		// Later commits on the branch are added to the cached report
+		activityRepository.save(activity("MAIN/A", null, ActivityType.CONTENT_CHANGE)
+				.addConceptChange(new ConceptChange("300").addComponentChange(new ComponentChange("300", ChangeType.CREATE, ComponentType.CONCEPT, "", true)))
+				.addConceptChange(new ConceptChange("100").addComponentChange(new ComponentChange("100", ChangeType.UPDATE, ComponentType.CONCEPT, "", false))));
+		assertEquals("[200, 300]", conceptChanges("MAIN/A"));
+
+		// Commits on the parent are not seen until rebased
+		activityRepository.save(activity("MAIN", null, ActivityType.CONTENT_CHANGE)
+				.addConceptChange(new ConceptChange("400").addComponentChange(new ComponentChange("400", ChangeType.CREATE, ComponentType.CONCEPT, "", true))));
+		assertEquals("[200, 300]", conceptChanges("MAIN/A"));
+
+		activityRepository.save(activity("MAIN/A", "MAIN", ActivityType.REBASE));
+		reportCache.invalidate("MAIN/A");
+		assertEquals("[200, 300, 400]", conceptChanges("MAIN/A"));
+	}
+
+	private String conceptChanges(String branch) {
+		return new TreeSet<>(reportService.createChangeSummaryReport(branch).getComponentChanges().get(ComponentType.CONCEPT)).toString();
+	}
+
+	private Activity activity(String branchPath, String sourceBranch, ActivityType activityType) {
+		return new Activity("test", branchPath, sourceBranch, new Date(testTime++), activityType);
+	}
+
+}
@@ -0,0 +1,65 @@
+package org.ihtsdo.otf.traceabilityservice.service;
+
+import org.ihtsdo.otf.traceabilityservice.domain.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ComponentChangeMapTest {
+
+	private static final String MEMBER_ID = "3a8c1d6e-0f4b-4b6e-9a52-7d2c3e1f0a9b";
+	// Same most significant bits as MEMBER_ID
+	private static final String OTHER_MEMBER_ID = "3a8c1d6e-0f4b-4b6e-8000-000000000001";
+
+	@Test
+	void testPutIfAbsentAndAddTo() {
+		final ComponentChangeMap changes = new ComponentChangeMap();
+		changes.putIfAbsent(new ComponentChange("100", ChangeType.UPDATE, ComponentType.CONCEPT, null, true), "100");
+		changes.putIfAbsent(new ComponentChange("100", ChangeType.DELETE, ComponentType.CONCEPT, null, true), "100");
+		changes.putIfAbsent(new ComponentChange("110", ChangeType.CREATE, ComponentType.DESCRIPTION, null, true), "100");
+		changes.putIfAbsent(new ComponentChange("120", ChangeType.DELETE, ComponentType.RELATIONSHIP, null, true), "100");
+		changes.putIfAbsent(new ComponentChange("0120", ChangeType.UPDATE, ComponentType.DESCRIPTION, null, false), "100");
+		changes.putIfAbsent(new ComponentChange(MEMBER_ID, ChangeType.CREATE, ComponentType.REFERENCE_SET_MEMBER, null, true), "100");
+		changes.putIfAbsent(new ComponentChange(OTHER_MEMBER_ID, ChangeType.INACTIVATE, ComponentType.REFERENCE_SET_MEMBER, null, true), "200");
+		changes.putIfAbsent(new ComponentChange("a1", ChangeType.CREATE, ComponentType.REFERENCE_SET_MEMBER, null, true), "c1");
+		assertEquals(7, changes.size());
+		assertTrue(changes.containsKey(OTHER_MEMBER_ID));
+		assertTrue(changes.containsKey("0120"));
+		assertFalse(changes.containsKey("0110"));
+		assertFalse(changes.containsKey(MEMBER_ID.toUpperCase()));
+
+		final Map<ComponentType, Set<String>> componentChanges = new EnumMap<>(ComponentType.class);
+		final Map<String, String> componentToConceptIdMap = new HashMap<>();
+		changes.addTo(componentChanges, componentToConceptIdMap);
+		assertEquals(Set.of("100"), componentChanges.get(ComponentType.CONCEPT));
+		assertEquals(Set.of("110"), componentChanges.get(ComponentType.DESCRIPTION));
+		assertEquals(Set.of(), componentChanges.get(ComponentType.RELATIONSHIP));
+		assertEquals(Set.of(MEMBER_ID, OTHER_MEMBER_ID, "a1"), componentChanges.get(ComponentType.REFERENCE_SET_MEMBER));
+		assertEquals(Map.of("100", "100", "110", "100", MEMBER_ID, "100", OTHER_MEMBER_ID, "200", "a1", "c1"), componentToConceptIdMap);
+	}
+
+	@Test
+	void testPutAllAbsent() {
+		final ComponentChangeMap lower = new ComponentChangeMap();
+		lower.putIfAbsent(new ComponentChange("100", ChangeType.UPDATE, ComponentType.CONCEPT, null, false), "100");
+		final ComponentChangeMap upper = new ComponentChangeMap();
+		upper.putIfAbsent(new ComponentChange("100", ChangeType.UPDATE, ComponentType.CONCEPT, null, true), "100");
+		upper.putIfAbsent(new ComponentChange("a1", ChangeType.CREATE, ComponentType.REFERENCE_SET_MEMBER, null, true), "c1");
+		upper.putIfAbsent(new ComponentChange(MEMBER_ID, ChangeType.CREATE, ComponentType.REFERENCE_SET_MEMBER, null, true), "200");
+
+		final ComponentChangeMap merged = new ComponentChangeMap();
+		merged.putAllAbsent(lower);
+		merged.putAllAbsent(upper);
+		assertEquals(3, merged.size());
+
+		final Map<ComponentType, Set<String>> componentChanges = new EnumMap<>(ComponentType.class);
+		final Map<String, String> componentToConceptIdMap = new HashMap<>();
+		merged.addTo(componentChanges, componentToConceptIdMap);
+		assertEquals(Set.of(), componentChanges.get(ComponentType.CONCEPT));
+		assertEquals(Set.of("a1", MEMBER_ID), componentChanges.get(ComponentType.REFERENCE_SET_MEMBER));
+		assertEquals(Map.of("a1", "c1", MEMBER_ID, "200"), componentToConceptIdMap);
+	}
+
+}
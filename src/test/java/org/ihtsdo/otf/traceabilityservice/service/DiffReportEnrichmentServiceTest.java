@@ -0,0 +1,105 @@
+package org.ihtsdo.otf.traceabilityservice.service;
+
+import org.ihtsdo.otf.traceabilityservice.AbstractTest;
+import org.ihtsdo.otf.traceabilityservice.domain.*;
+import org.ihtsdo.otf.traceabilityservice.repository.ActivityRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiffReportEnrichmentServiceTest extends AbstractTest {
+
+	@Autowired
+	private DiffReportEnrichmentService enrichmentService;
+
+	@Autowired
+	private ActivityRepository activityRepository;
+
+	@Autowired
+	private ComponentHistoryService componentHistoryService;
+
+	@Test
+	void testEnrich() {
+		save(List.of(
+				new Activity("userA", "MAIN/A/A-1", "", new Date(1000), ActivityType.CONTENT_CHANGE)
+						.addConceptChange(new ConceptChange("100")
+								.addComponentChange(new ComponentChange("110", ChangeType.CREATE, ComponentType.DESCRIPTION, "", true))),
+				new Activity("userB", "MAIN/A/A-2", "", new Date(2000), ActivityType.CONTENT_CHANGE)
+						.addConceptChange(new ConceptChange("100")
+								.addComponentChange(new ComponentChange("110", ChangeType.UPDATE, ComponentType.DESCRIPTION, "", true))),
+				new Activity("userC", "MAIN/B/B-1", "", new Date(3000), ActivityType.CONTENT_CHANGE)
+						.addConceptChange(new ConceptChange("300")
+								.addComponentChange(new ComponentChange("300", ChangeType.CREATE, ComponentType.CONCEPT, "", true)))
+		));
+
+		final Map<ComponentType, Set<String>> missingFromDelta = new EnumMap<>(ComponentType.class);
+		missingFromDelta.put(ComponentType.DESCRIPTION, Set.of("110"));
+		final Map<ComponentType, Set<String>> missingFromStore = new EnumMap<>(ComponentType.class);
+		missingFromStore.put(ComponentType.CONCEPT, Set.of("300", "900"));
+
+		final DiffReport report = enrichmentService.enrich(new DiffReport(missingFromDelta, missingFromStore), Map.of("110", "100"), null);
+
+		assertEquals(missingFromDelta, report.missingFromDelta());
+		assertEquals(missingFromStore, report.missingFromStore());
+		final Map<String, DiffReport.ComponentDetail> details = report.componentDetails();
+		assertEquals(3, details.size());
+		assertEquals(new DiffReport.ComponentDetail("100", "MAIN/A/A-2", "userB", new Date(2000)), details.get("110"));
+		assertEquals(new DiffReport.ComponentDetail("300", "MAIN/B/B-1", "userC", new Date(3000)), details.get("300"));
+		assertEquals(new DiffReport.ComponentDetail(null, null, null, null), details.get("900"));
+	}
+
+	@Test
+	void testEnrichScopedToBranch() {
+		final Activity promoted = new Activity("userA", "MAIN/A/A-1", "", new Date(1000), ActivityType.CONTENT_CHANGE)
+				.addConceptChange(new ConceptChange("100")
+						.addComponentChange(new ComponentChange("110", ChangeType.CREATE, ComponentType.DESCRIPTION, "", true)));
+		promoted.setHighestPromotedBranch("MAIN/A");
+		save(List.of(promoted,
+				// Not promoted to MAIN/A
+				new Activity("userB", "MAIN/A/A-2", "", new Date(2000), ActivityType.CONTENT_CHANGE)
+						.addConceptChange(new ConceptChange("100")
+								.addComponentChange(new ComponentChange("110", ChangeType.UPDATE, ComponentType.DESCRIPTION, "", true))),
+				// Another project
+				new Activity("userC", "MAIN/B", "", new Date(3000), ActivityType.CONTENT_CHANGE)
+						.addConceptChange(new ConceptChange("100")
+								.addComponentChange(new ComponentChange("110", ChangeType.UPDATE, ComponentType.DESCRIPTION, "", true))),
+				// Ancestor
+				new Activity("userD", "MAIN", "", new Date(500), ActivityType.CONTENT_CHANGE)
+						.addConceptChange(new ConceptChange("300")
+								.addComponentChange(new ComponentChange("300", ChangeType.CREATE, ComponentType.CONCEPT, "", true)))
+		));
+
+		final Map<ComponentType, Set<String>> missingFromDelta = new EnumMap<>(ComponentType.class);
+		missingFromDelta.put(ComponentType.DESCRIPTION, Set.of("110"));
+		missingFromDelta.put(ComponentType.CONCEPT, Set.of("300"));
+		final DiffReport report = new DiffReport(missingFromDelta, new EnumMap<>(ComponentType.class));
+
+		assertEnrichedOnBranchA(enrichmentService.enrich(report, Map.of(), "MAIN/A"));
+		assertEquals(new DiffReport.ComponentDetail("100", "MAIN/B", "userC", new Date(3000)),
+				enrichmentService.enrich(report, Map.of(), null).componentDetails().get("110"));
+
+		// Without the component history the activities are searched
+		ReflectionTestUtils.setField(componentHistoryService, "enabled", false);
+		try {
+			assertEnrichedOnBranchA(enrichmentService.enrich(report, Map.of(), "MAIN/A"));
+		} finally {
+			ReflectionTestUtils.setField(componentHistoryService, "enabled", true);
+		}
+	}
+
+	private void assertEnrichedOnBranchA(DiffReport report) {
+		final Map<String, DiffReport.ComponentDetail> details = report.componentDetails();
+		assertEquals(new DiffReport.ComponentDetail("100", "MAIN/A/A-1", "userA", new Date(1000)), details.get("110"));
+		assertEquals(new DiffReport.ComponentDetail("300", "MAIN", "userD", new Date(500)), details.get("300"));
+	}
+
+	private void save(List<Activity> activities) {
+		activities.forEach(activity -> activity.setId(Activity.createId(activity.getBranch(), activity.getCommitDate())));
+		activityRepository.saveAll(activities);
+		componentHistoryService.save(activities);
+	}
+}
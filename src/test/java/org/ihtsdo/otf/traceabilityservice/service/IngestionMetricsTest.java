@@ -0,0 +1,29 @@
+package org.ihtsdo.otf.traceabilityservice.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IngestionMetricsTest {
+
+	@Test
+	void testQueueLagOfIdlePartitionsNotCounted() {
+		final IngestionMetrics metrics = new IngestionMetrics();
+		final long now = System.currentTimeMillis();
+		metrics.record("MAIN/SNOMEDCT-BE", 1, now - TimeUnit.HOURS.toMillis(1), 10);
+		metrics.record("MAIN", 1, now - 1_000, 10);
+		assertTrue(metrics.getQueueLagMillis() >= TimeUnit.HOURS.toMillis(1));
+
+		// The partition with the larger lag has not consumed since
+		ReflectionTestUtils.setField(metrics.getPartitions().get("MAIN/SNOMEDCT-BE"), "lastConsumedTimestamp", now - TimeUnit.MINUTES.toMillis(10));
+		ReflectionTestUtils.setField(metrics.getPartitions().get("MAIN"), "lastConsumedTimestamp", now);
+		assertEquals(1_000, metrics.getQueueLagMillis());
+
+		ReflectionTestUtils.setField(metrics.getPartitions().get("MAIN"), "lastConsumedTimestamp", now - TimeUnit.MINUTES.toMillis(10));
+		assertEquals(0, metrics.getQueueLagMillis());
+	}
+}
@@ -0,0 +1,109 @@
+package org.ihtsdo.otf.traceabilityservice.service;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Microbenchmarks for the branch path handling used while building change summary reports.
+ * Not run by the build, run the main method from the IDE or with the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReportServiceBenchmark {
+
+	private static final int COMPONENTS = 10_000;
+
+	private final ReportService reportService = new ReportService();
+
+	private String[] branches;
+	private String[] componentIds;
+	private Map<String, Set<String>> supersededPathsByComponent;
+	private SupersededChanges supersededChanges;
+	private int[] branchIds;
+
+	@Setup
+	public void setup() {
+		final Random random = new Random(1);
+		final List<String> branchList = new ArrayList<>();
+		branchList.add("MAIN");
+		for (int project = 0; project < 10; project++) {
+			branchList.add("MAIN/PROJECT" + project);
+			for (int task = 0; task < 10; task++) {
+				branchList.add("MAIN/PROJECT" + project + "/PROJECT" + project + "-" + task);
+			}
+		}
+		branches = branchList.toArray(new String[0]);
+
+		componentIds = new String[COMPONENTS];
+		supersededPathsByComponent = new HashMap<>();
+		supersededChanges = new SupersededChanges();
+		for (int i = 0; i < COMPONENTS; i++) {
+			componentIds[i] = Long.toString(100000000L + i);
+			if (i % 2 == 0) {
+				final String branch = branches[random.nextInt(branches.length)];
+				supersededPathsByComponent.computeIfAbsent(componentIds[i], c -> new HashSet<>()).add(branch);
+				supersededChanges.add(componentIds[i], supersededChanges.getBranchId(branch));
+			}
+		}
+		branchIds = new int[branches.length];
+		for (int i = 0; i < branches.length; i++) {
+			branchIds[i] = supersededChanges.getBranchId(branches[i]);
+		}
+	}
+
+	@Benchmark
+	public void supersededByPath(Blackhole blackhole) {
+		for (int i = 0; i < COMPONENTS; i++) {
+			blackhole.consume(supersededByPath(componentIds[i], branches[i % branches.length]));
+		}
+	}
+
+	@Benchmark
+	public void supersededByBranchId(Blackhole blackhole) {
+		for (int i = 0; i < COMPONENTS; i++) {
+			blackhole.consume(supersededChanges.isSuperseded(componentIds[i], branchIds[i % branches.length]));
+		}
+	}
+
+	@Benchmark
+	public void getAncestorBranches(Blackhole blackhole) {
+		for (String branch : branches) {
+			blackhole.consume(BranchUtils.getAncestorBranches(branch));
+		}
+	}
+
+	@Benchmark
+	public void createAncestorDeque(Blackhole blackhole) {
+		for (String branch : branches) {
+			blackhole.consume(reportService.createAncestorDeque(branch));
+		}
+	}
+
+	// Superseded check as it was done before SupersededChanges, kept as the baseline
+	private boolean supersededByPath(String componentId, String branch) {
+		final Set<String> paths = supersededPathsByComponent.get(componentId);
+		if (paths == null) {
+			return false;
+		}
+		for (String path : paths) {
+			if (path.equals(branch) || BranchUtils.getAncestorBranches(branch).contains(path)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(ReportServiceBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -79,6 +79,45 @@ class ReportServiceTest extends AbstractTest {
 		changeSummaryReport.getComponentChanges().values().stream().flatMap(Collection::stream).forEach(componentId -> assertEquals("100", componentToConceptIdMap.get(componentId)));
 	}
 
+	@Test
+	void testStreamChangeSummaryReport() {
+		activityRepository.saveAll(Lists.newArrayList(
+				activity("MAIN/A", "", ActivityType.CONTENT_CHANGE)
+						.addConceptChange(new ConceptChange("200")
+								.addComponentChange(new ComponentChange("200", ChangeType.CREATE, ComponentType.CONCEPT, "", true))),
+				activity("MAIN/A/A-1", "", ActivityType.CONTENT_CHANGE)
+						.addConceptChange(new ConceptChange("100")
+								.addComponentChange(new ComponentChange("a1", ChangeType.CREATE, ComponentType.REFERENCE_SET_MEMBER, "", true))
+								.addComponentChange(new ComponentChange("110", ChangeType.CREATE, ComponentType.DESCRIPTION, "", true))
+								.addComponentChange(new ComponentChange("100", ChangeType.CREATE, ComponentType.CONCEPT, "", true))
+								.addComponentChange(new ComponentChange("120", ChangeType.DELETE, ComponentType.RELATIONSHIP, "", true))
+						)
+		));
+		promoteActivities("MAIN/A/A-1", "MAIN/A");
+
+		final ChangeSummaryReport changeSummaryReport = reportService.createChangeSummaryReport("MAIN/A");
+		final List<String> lines = new ArrayList<>();
+		final List<Activity> changesNotAtTaskLevel = new ArrayList<>();
+		reportService.streamChangeSummaryReport("MAIN/A", null, null, true, true, true, new ChangeSummaryReportListener() {
+			@Override
+			public void componentChange(ComponentType componentType, String componentId, String conceptId) {
+				lines.add(componentType + " " + componentId + " " + conceptId);
+			}
+
+			@Override
+			public void changeNotAtTaskLevel(Activity activity) {
+				changesNotAtTaskLevel.add(activity);
+			}
+		});
+
+		// Grouped by component type
+		assertEquals("[CONCEPT 100 100, CONCEPT 200 200, DESCRIPTION 110 100, REFERENCE_SET_MEMBER a1 100]", new ArrayList<>(new TreeSet<>(lines)).toString());
+		assertEquals(List.of("CONCEPT", "CONCEPT", "DESCRIPTION", "REFERENCE_SET_MEMBER"), lines.stream().map(line -> line.split(" ")[0]).toList());
+		assertEquals(changeSummaryReport.getComponentChanges().values().stream().mapToInt(Set::size).sum(), lines.size());
+		assertEquals(changeSummaryReport.getChangesNotAtTaskLevel().size(), changesNotAtTaskLevel.size());
+		assertEquals(1, changesNotAtTaskLevel.size());
+	}
+
 	@Test
 	void testSummaryReportWithTimeCutOff() throws Exception {
 		final long firstBaseHeadTime = System.currentTimeMillis();
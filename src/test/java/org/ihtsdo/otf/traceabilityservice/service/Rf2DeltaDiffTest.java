@@ -0,0 +1,149 @@
+package org.ihtsdo.otf.traceabilityservice.service;
+
+import org.ihtsdo.otf.traceabilityservice.domain.*;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Rf2DeltaDiffTest {
+
+	private static final String MEMBER_ID = "3a8c1d6e-0f4b-4b6e-9a52-7d2c3e1f0a9b";
+	// Same most significant bits as MEMBER_ID
+	private static final String OTHER_MEMBER_ID = "3a8c1d6e-0f4b-4b6e-8000-000000000001";
+
+	@Test
+	void testScan() throws IOException {
+		final Rf2DeltaDiff diff = new Rf2DeltaDiff();
+		diff.addStoreComponent(ComponentType.CONCEPT, "100");
+		diff.addStoreComponent(ComponentType.CONCEPT, "200");
+		diff.addStoreComponent(ComponentType.DESCRIPTION, "110");
+		diff.addStoreComponent(ComponentType.REFERENCE_SET_MEMBER, MEMBER_ID);
+		diff.addStoreComponent(ComponentType.REFERENCE_SET_MEMBER, OTHER_MEMBER_ID);
+
+		final Rf2DeltaDiff.Scan scan = diff.newScan();
+		diff.scan(file("id\teffectiveTime\tactive\r\n100\t\t1\r\n300\t\t1\r\n"), scan);
+		diff.scan(file("id\tconceptId\n110\t100\n0110\t100\n120\t100"), scan);
+		diff.scan(file("id\trefsetId\n" + OTHER_MEMBER_ID + "\t1\n" + MEMBER_ID.toUpperCase() + "\t1\n"), scan);
+		final DiffReport report = diff.getReport(List.of(scan));
+
+		assertEquals(Set.of("200"), report.missingFromDelta().get(ComponentType.CONCEPT));
+		assertEquals(Set.of(), report.missingFromDelta().get(ComponentType.DESCRIPTION));
+		assertEquals(Set.of(MEMBER_ID), report.missingFromDelta().get(ComponentType.REFERENCE_SET_MEMBER));
+
+		assertEquals(Set.of("300"), report.missingFromStore().get(ComponentType.CONCEPT));
+		assertEquals(Set.of("0110"), report.missingFromStore().get(ComponentType.DESCRIPTION));
+		assertEquals(Set.of("120"), report.missingFromStore().get(ComponentType.RELATIONSHIP));
+		assertEquals(Set.of(MEMBER_ID.toUpperCase()), report.missingFromStore().get(ComponentType.REFERENCE_SET_MEMBER));
+	}
+
+	@Test
+	void testArchiveDiff() throws IOException {
+		final Map<ComponentType, Set<String>> storeChanges = new EnumMap<>(ComponentType.class);
+		storeChanges.put(ComponentType.CONCEPT, Set.of("100", "200"));
+		storeChanges.put(ComponentType.DESCRIPTION, Set.of("110"));
+
+		final ByteArrayOutputStream archive = new ByteArrayOutputStream();
+		try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+			zip.putNextEntry(new ZipEntry("SnomedCT_Export/"));
+			zip.putNextEntry(new ZipEntry("SnomedCT_Export/Delta/Terminology/sct2_Concept_Delta_INT_20240101.txt"));
+			zip.write("id\teffectiveTime\n100\t\n".getBytes(StandardCharsets.UTF_8));
+			zip.putNextEntry(new ZipEntry("SnomedCT_Export/Delta/Terminology/sct2_Description_Delta-en_INT_20240101.txt"));
+			zip.write("id\teffectiveTime\n110\t\n210\t\n".getBytes(StandardCharsets.UTF_8));
+			zip.putNextEntry(new ZipEntry("SnomedCT_Export/Snapshot/Terminology/sct2_Concept_Snapshot_INT_20240101.txt"));
+			zip.write("id\teffectiveTime\n300\t\n".getBytes(StandardCharsets.UTF_8));
+			zip.putNextEntry(new ZipEntry("SnomedCT_Export/Readme_20240101.txt"));
+			zip.write("Release notes\n400\n".getBytes(StandardCharsets.UTF_8));
+		}
+
+		final ArchiveDiffService archiveDiffService = new ArchiveDiffService();
+		ReflectionTestUtils.setField(archiveDiffService, "threads", 2);
+		archiveDiffService.init();
+		final DiffReport report;
+		try {
+			report = archiveDiffService.diff(new ChangeSummaryReport(storeChanges, null), new ByteArrayInputStream(archive.toByteArray()));
+		} finally {
+			archiveDiffService.shutdown();
+		}
+		assertEquals(Set.of("200"), report.missingFromDelta().get(ComponentType.CONCEPT));
+		assertEquals(Set.of("210"), report.missingFromStore().get(ComponentType.DESCRIPTION));
+		assertEquals(Set.of(), report.missingFromStore().get(ComponentType.CONCEPT));
+	}
+
+	@Test
+	void testScanEffectiveTimeWindow() throws IOException {
+		final Rf2DeltaDiff diff = new Rf2DeltaDiff(new Rf2Selection(Rf2Selection.ReleaseType.SNAPSHOT, 20240101, 20240131));
+		diff.addStoreComponent(ComponentType.CONCEPT, "100");
+		diff.addStoreComponent(ComponentType.CONCEPT, "200");
+		diff.addStoreComponent(ComponentType.CONCEPT, "300");
+
+		final Rf2DeltaDiff.Scan scan = diff.newScan();
+		diff.scan(file("id\teffectiveTime\tactive\r\n" +
+				"100\t\t1\r\n" +
+				"200\t20240115\t1\r\n" +
+				"400\t20231231\t1\r\n" +
+				"500\t20240201\t1\r\n" +
+				"600\t2024011\t1\r\n" +
+				"700\t202401150\t1\r\n" +
+				"800\t2024O115\t1\r\n" +
+				"900\t20240131"), scan);
+		final DiffReport report = diff.getReport(List.of(scan));
+
+		assertEquals(Set.of("300"), report.missingFromDelta().get(ComponentType.CONCEPT));
+		assertEquals(Set.of("900"), report.missingFromStore().get(ComponentType.CONCEPT));
+	}
+
+	@Test
+	void testSnapshotArchiveDiff() throws IOException {
+		final Map<ComponentType, Set<String>> storeChanges = new EnumMap<>(ComponentType.class);
+		storeChanges.put(ComponentType.CONCEPT, Set.of("100", "200"));
+
+		final ByteArrayOutputStream archive = new ByteArrayOutputStream();
+		try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+			zip.putNextEntry(new ZipEntry("SnomedCT_Export/Delta/Terminology/sct2_Concept_Delta_INT_20240101.txt"));
+			zip.write("id\teffectiveTime\n300\t\n".getBytes(StandardCharsets.UTF_8));
+			zip.putNextEntry(new ZipEntry("SnomedCT_Export/Snapshot/Terminology/sct2_Concept_Snapshot_INT_20240101.txt"));
+			zip.write("id\teffectiveTime\n100\t\n200\t20230731\n400\t20230731\n".getBytes(StandardCharsets.UTF_8));
+		}
+
+		final ArchiveDiffService archiveDiffService = new ArchiveDiffService();
+		ReflectionTestUtils.setField(archiveDiffService, "threads", 2);
+		archiveDiffService.init();
+		final DiffReport unpublished;
+		final DiffReport window;
+		try {
+			unpublished = archiveDiffService.diff(new ChangeSummaryReport(storeChanges, null), new ByteArrayInputStream(archive.toByteArray()),
+					new Rf2Selection(Rf2Selection.ReleaseType.SNAPSHOT, null, null), false);
+			window = archiveDiffService.diff(new ChangeSummaryReport(storeChanges, null), new ByteArrayInputStream(archive.toByteArray()),
+					new Rf2Selection(Rf2Selection.ReleaseType.SNAPSHOT, 20230731, null), false);
+		} finally {
+			archiveDiffService.shutdown();
+		}
+		assertEquals(Set.of("200"), unpublished.missingFromDelta().get(ComponentType.CONCEPT));
+		assertEquals(Set.of(), unpublished.missingFromStore().get(ComponentType.CONCEPT));
+		assertEquals(Set.of(), window.missingFromDelta().get(ComponentType.CONCEPT));
+		assertEquals(Set.of("400"), window.missingFromStore().get(ComponentType.CONCEPT));
+	}
+
+	@Test
+	void testSelection() {
+		assertThrows(IllegalArgumentException.class, () -> new Rf2Selection(Rf2Selection.ReleaseType.FULL, 20240201, 20240101));
+		assertThrows(IllegalArgumentException.class, () -> new Rf2Selection(Rf2Selection.ReleaseType.FULL, 240101, null));
+		assertFalse(Rf2Selection.DELTA.isEffectiveTimeFiltered());
+		assertTrue(new Rf2Selection(Rf2Selection.ReleaseType.DELTA, 20240101, null).isEffectiveTimeFiltered());
+		assertTrue(new Rf2Selection(Rf2Selection.ReleaseType.FULL, null, null).isReleaseFile("der2_cRefset_LanguageFull-en_INT_20240101.txt"));
+		assertFalse(new Rf2Selection(Rf2Selection.ReleaseType.FULL, null, null).isReleaseFile("sct2_Concept_Snapshot_INT_20240101.txt"));
+	}
+
+	private static ByteArrayInputStream file(String content) {
+		return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+	}
+}
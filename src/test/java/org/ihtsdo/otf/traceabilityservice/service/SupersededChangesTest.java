@@ -0,0 +1,31 @@
+package org.ihtsdo.otf.traceabilityservice.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SupersededChangesTest {
+
+	@Test
+	void testSuperseded() {
+		final SupersededChanges supersededChanges = new SupersededChanges();
+		final int task = supersededChanges.getBranchId("MAIN/PROJECT/PROJECT-1");
+		final int project = supersededChanges.getBranchId("MAIN/PROJECT");
+		final int main = supersededChanges.getBranchId("MAIN");
+		final int otherTask = supersededChanges.getBranchId("MAIN/PROJECT/PROJECT-2");
+		assertEquals(task, supersededChanges.getBranchId("MAIN/PROJECT/PROJECT-1"));
+
+		supersededChanges.add("100", project);
+		assertTrue(supersededChanges.isSuperseded("100", project));
+		assertTrue(supersededChanges.isSuperseded("100", task));
+		assertTrue(supersededChanges.isSuperseded("100", otherTask));
+		assertFalse(supersededChanges.isSuperseded("100", main));
+		assertFalse(supersededChanges.isSuperseded("200", project));
+
+		supersededChanges.add("200", task);
+		assertTrue(supersededChanges.isSuperseded("200", task));
+		assertFalse(supersededChanges.isSuperseded("200", otherTask));
+		assertFalse(supersededChanges.isSuperseded("200", project));
+	}
+
+}
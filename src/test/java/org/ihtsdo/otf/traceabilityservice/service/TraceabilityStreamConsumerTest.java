@@ -4,10 +4,14 @@ import org.ihtsdo.otf.traceabilityservice.AbstractTest;
 import org.ihtsdo.otf.traceabilityservice.Concepts;
 import org.ihtsdo.otf.traceabilityservice.domain.*;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.io.IOException;
+import java.util.Date;
 import java.util.List;
 import java.util.Set;
 
@@ -15,6 +19,12 @@ import static org.junit.jupiter.api.Assertions.*;
 
 class TraceabilityStreamConsumerTest extends AbstractTest {
 
+	@Autowired
+	private TraceabilityStreamConsumer traceabilityStreamConsumer;
+
+	@Autowired
+	private ComponentHistoryService componentHistoryService;
+
 	@Test
 	void consumeConceptCreateAndPromoteTest() throws IOException, InterruptedException {
 		List<Activity> activities = sendAndReceiveActivity("concept-create.json");
@@ -99,6 +109,106 @@ class TraceabilityStreamConsumerTest extends AbstractTest {
 		assertFalse(activities.get(1).getConceptChanges().iterator().next().getComponentChanges().iterator().next().isEffectiveTimeNull());
 	}
 
+	@Test
+	void consumeBatchWithPromotionTest() throws IOException, ServiceException {
+		traceabilityStreamConsumer.receiveMessages(List.of(readResource("concept-create.json"), readResource("promotion.json")));
+
+		assertEquals(2, activityRepository.count());
+		final Activity originalCommit = activityRepository.findByBranch("MAIN/STORMTEST2/STORMTEST2-243", Pageable.unpaged()).getContent().get(0);
+		assertEquals(ActivityType.CONTENT_CHANGE, originalCommit.getActivityType());
+		assertEquals("MAIN/STORMTEST2", originalCommit.getHighestPromotedBranch());
+		assertEquals(1629187538367L, originalCommit.getPromotionDate().getTime());
+	}
+
+	@Test
+	void consumeRedeliveredMessagesTest() throws IOException, ServiceException {
+		final String conceptCreate = readResource("concept-create.json");
+		final String promotion = readResource("promotion.json");
+		traceabilityStreamConsumer.receiveMessages(List.of(conceptCreate, promotion));
+
+		// Replaying the commit must not undo the promotion or store a second copy
+		traceabilityStreamConsumer.receiveMessages(List.of(conceptCreate, conceptCreate, promotion));
+		traceabilityStreamConsumer.receiveMessage(conceptCreate);
+
+		assertEquals(2, activityRepository.count());
+		final Activity originalCommit = activityRepository.findByBranch("MAIN/STORMTEST2/STORMTEST2-243", Pageable.unpaged()).getContent().get(0);
+		assertEquals(Activity.createId(originalCommit.getBranch(), originalCommit.getCommitDate()), originalCommit.getId());
+		assertEquals("MAIN/STORMTEST2", originalCommit.getHighestPromotedBranch());
+	}
+
+	@Test
+	void consumeRedeliveredMessagesWithoutBulkTest() throws IOException, ServiceException {
+		ReflectionTestUtils.setField(traceabilityStreamConsumer, "bulkEnabled", false);
+		try {
+			final String conceptCreate = readResource("concept-create.json");
+			final String promotion = readResource("promotion.json");
+			traceabilityStreamConsumer.receiveMessages(List.of(conceptCreate, promotion));
+			traceabilityStreamConsumer.receiveMessages(List.of(conceptCreate, promotion));
+
+			assertEquals(2, activityRepository.count());
+			final Activity originalCommit = activityRepository.findByBranch("MAIN/STORMTEST2/STORMTEST2-243", Pageable.unpaged()).getContent().get(0);
+			assertEquals("MAIN/STORMTEST2", originalCommit.getHighestPromotedBranch());
+		} finally {
+			ReflectionTestUtils.setField(traceabilityStreamConsumer, "bulkEnabled", true);
+		}
+	}
+
+	@Test
+	void consumeRedeliveredPromotionTest() throws IOException, ServiceException {
+		final String conceptCreate = readResource("concept-create.json");
+		final String promotion = readResource("promotion.json");
+		traceabilityStreamConsumer.receiveMessages(List.of(conceptCreate, promotion));
+		// A commit on the task after the promotion is not part of it
+		traceabilityStreamConsumer.receiveMessage(conceptCreate.replace("1628715946589", "1629187538368"));
+		traceabilityStreamConsumer.receiveMessage(promotion);
+
+		final List<Activity> taskActivities = activityRepository.findByBranch("MAIN/STORMTEST2/STORMTEST2-243", Pageable.unpaged()).getContent();
+		assertEquals(2, taskActivities.size());
+		for (Activity activity : taskActivities) {
+			assertEquals(activity.getCommitDate().getTime() == 1628715946589L ? "MAIN/STORMTEST2" : "MAIN/STORMTEST2/STORMTEST2-243",
+					activity.getHighestPromotedBranch());
+		}
+	}
+
+	@Test
+	void consumeComponentHistoryTest() throws IOException, ServiceException {
+		final String conceptCreate = readResource("concept-create.json");
+		traceabilityStreamConsumer.receiveMessages(List.of(conceptCreate));
+		// Redelivery does not add rows
+		traceabilityStreamConsumer.receiveMessage(conceptCreate);
+
+		final Activity activity = activityRepository.findByBranch("MAIN/STORMTEST2/STORMTEST2-243", Pageable.unpaged()).getContent().get(0);
+		final List<ComponentHistory> history = componentHistoryService.findByComponentId("10430314015", Pageable.unpaged()).getContent();
+		assertEquals(1, history.size());
+		assertEquals(activity.getId(), history.get(0).getActivityId());
+		assertEquals("4195653005", history.get(0).getConceptId());
+		assertEquals(ChangeType.CREATE, history.get(0).getChangeType());
+		assertEquals(1628715946589L, history.get(0).getCommitDate().getTime());
+
+		final long componentChanges = activity.getConceptChanges().stream().mapToLong(conceptChange -> conceptChange.getComponentChanges().size()).sum();
+		assertEquals(componentChanges, componentHistoryService.findByBranch("MAIN/STORMTEST2/STORMTEST2-243", null, null, PageRequest.of(0, 100)).getTotalElements());
+		assertEquals(0, componentHistoryService.findByBranch("MAIN/STORMTEST2/STORMTEST2-243", new Date(1628715946590L), null, PageRequest.of(0, 100)).getTotalElements());
+	}
+
+	@Test
+	void consumeComponentHistoryWithoutBulkTest() throws IOException, ServiceException {
+		ReflectionTestUtils.setField(traceabilityStreamConsumer, "bulkEnabled", false);
+		ReflectionTestUtils.setField(componentHistoryService, "bulkEnabled", false);
+		try {
+			traceabilityStreamConsumer.receiveMessages(List.of(readResource("concept-create.json")));
+		} finally {
+			ReflectionTestUtils.setField(traceabilityStreamConsumer, "bulkEnabled", true);
+			ReflectionTestUtils.setField(componentHistoryService, "bulkEnabled", true);
+		}
+
+		final Activity activity = activityRepository.findByBranch("MAIN/STORMTEST2/STORMTEST2-243", Pageable.unpaged()).getContent().get(0);
+		final List<ComponentHistory> history = componentHistoryService.findByComponentId("10430314015", Pageable.unpaged()).getContent();
+		assertEquals(1, history.size());
+		assertEquals(activity.getId(), history.get(0).getActivityId());
+		final long componentChanges = activity.getConceptChanges().stream().mapToLong(conceptChange -> conceptChange.getComponentChanges().size()).sum();
+		assertEquals(componentChanges, componentHistoryService.findByBranch("MAIN/STORMTEST2/STORMTEST2-243", null, null, PageRequest.of(0, 100)).getTotalElements());
+	}
+
 	@Test
 	void consumeCodeSystemVersionTest() throws IOException, InterruptedException {
 		sendAndReceiveActivity("create-version.json");